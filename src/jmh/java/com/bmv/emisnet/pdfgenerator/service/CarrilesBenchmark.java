@@ -0,0 +1,80 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prueba de carga mixta: latencia (p50/p99) de documentos pequeños mientras se
+ * generan reportes grandes, con una cola única frente a carriles por tamaño
+ * con el mismo número total de hilos
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CarrilesBenchmark {
+
+    @Param({"carriles", "cola-unica"})
+    public String modo;
+
+    @Param({"2000"})
+    public int filasGrande;
+
+    private GeneradorReportesPDF generador;
+    private PlanificadorCarriles planificador;
+    private Map<String, Object> grande;
+    private Map<String, Object> pequeno;
+
+    @Setup
+    public void preparar() {
+        generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .tamanoPoolRenderizadores(2)
+                .hilosAsincronos(2)
+                .build());
+        planificador = new PlanificadorCarriles(generador, List.of(
+                new PlanificadorCarriles.Carril("pequeno", 500, 1, 100),
+                new PlanificadorCarriles.Carril("grande", Long.MAX_VALUE, 1, 100)),
+                Map.of(), new SimpleMeterRegistry());
+        grande = ObjectToMapConverter.convertToMap(DatosPrueba.crearReportePosiciones(filasGrande));
+        pequeno = ObjectToMapConverter.convertToMap(DatosPrueba.crearAvisoExtemporaneidad());
+    }
+
+    @Benchmark
+    @Group("mezcla")
+    @GroupThreads(2)
+    public byte[] reporteGrande() throws Exception {
+        return enviar("reporte-posiciones", grande).get();
+    }
+
+    @Benchmark
+    @Group("mezcla")
+    @GroupThreads(4)
+    public byte[] documentoPequeno() throws Exception {
+        return enviar("aviso-extemporaneidad", pequeno).get();
+    }
+
+    private CompletableFuture<byte[]> enviar(String plantilla, Map<String, Object> datos) {
+        return "carriles".equals(modo)
+                ? planificador.generarPDF(plantilla, datos)
+                : generador.generarPDFAsincrono(plantilla, datos);
+    }
+}
@@ -0,0 +1,62 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendimiento de generarLote() en PDFs por segundo con un hilo, con un hilo
+ * por núcleo y con hilos virtuales limitados al número de núcleos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class LoteBenchmark {
+
+    private static final int DOCUMENTOS = 64;
+
+    @Param({"secuencial", "nucleos", "hilos-virtuales"})
+    public String modo;
+
+    private GeneradorReportesPDF generador;
+    private List<TrabajoPDF> trabajos;
+
+    @Setup
+    public void preparar() {
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        int paralelismo = "secuencial".equals(modo) ? 1 : nucleos;
+        generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .paralelismoLote(paralelismo)
+                .tamanoPoolRenderizadores(paralelismo)
+                .hilosVirtualesLote("hilos-virtuales".equals(modo))
+                .build());
+
+        trabajos = new ArrayList<>(DOCUMENTOS);
+        for (int i = 0; i < DOCUMENTOS; i++) {
+            String plantilla = i % 2 == 0 ? "confirmacion-envio" : "aviso-extemporaneidad";
+            trabajos.add(new TrabajoPDF(plantilla, ObjectToMapConverter.convertToMap(DatosPrueba.crear(plantilla))));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTOS)
+    public List<ResultadoTrabajoPDF> generarLote() throws Exception {
+        return generador.generarLote(trabajos);
+    }
+}
@@ -0,0 +1,58 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.bmv.emisnet.pdfgenerator.model.AvisoExtemporaneidadTest;
+import com.bmv.emisnet.pdfgenerator.model.ReportePosicionesTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversión de objetos a Map, aislada del resto de la generación
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectToMapConverterBenchmark {
+
+    private AvisoExtemporaneidadTest aviso;
+    private ReportePosicionesTest.PosicionDetalle posicion;
+
+    @Setup
+    public void preparar() {
+        aviso = DatosPrueba.crearAvisoExtemporaneidad();
+        posicion = DatosPrueba.crearReportePosiciones(1).getGruposPosiciones().get(0).getPosiciones().get(0);
+    }
+
+    @Benchmark
+    public Map<String, Object> convertToMap() {
+        return ObjectToMapConverter.convertToMap(aviso);
+    }
+
+    @Benchmark
+    public Map<String, Object> convertToMapIncludingInheritance() {
+        return ObjectToMapConverter.convertToMapIncludingInheritance(aviso);
+    }
+
+    @Benchmark
+    public Map<String, Object> convertToMapExcluding() {
+        return ObjectToMapConverter.convertToMapExcluding(aviso, "observaciones", "email");
+    }
+
+    @Benchmark
+    public Map<String, Object> convertToMapPosicion() {
+        return ObjectToMapConverter.convertToMap(posicion);
+    }
+}
@@ -0,0 +1,51 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generación completa (plantilla, maquetación y escritura) de cada plantilla
+ * corta incluida; reporte-posiciones se mide aparte según el número de filas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PlantillasBenchmark {
+
+    @Param({"aviso-extemporaneidad", "confirmacion-envio"})
+    public String plantilla;
+
+    private GeneradorReportesPDF generador;
+    private Map<String, Object> datos;
+
+    @Setup
+    public void preparar() {
+        generador = new GeneradorReportesPDF();
+        datos = ObjectToMapConverter.convertToMap(DatosPrueba.crear(plantilla));
+    }
+
+    @Benchmark
+    public byte[] generarPDF() throws Exception {
+        return generador.generarPDF(plantilla, datos);
+    }
+
+    @Benchmark
+    public String procesarPlantilla() {
+        return generador.procesarPlantilla(plantilla, datos);
+    }
+}
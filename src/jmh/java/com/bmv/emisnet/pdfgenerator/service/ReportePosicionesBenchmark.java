@@ -0,0 +1,68 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reporte-posiciones según el número de filas, con cada fase medida por separado:
+ * procesamiento de la plantilla, maquetación y escritura del PDF, y el total
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportePosicionesBenchmark {
+
+    private static final String PLANTILLA = "reporte-posiciones";
+
+    @Param({"10", "1000", "10000", "50000"})
+    public int filas;
+
+    private GeneradorReportesPDF generador;
+    private Map<String, Object> datos;
+    private Document documento;
+
+    @Setup
+    public void preparar() {
+        generador = new GeneradorReportesPDF();
+        datos = ObjectToMapConverter.convertToMap(DatosPrueba.crearReportePosiciones(filas));
+        // Flying Saucer no modifica el DOM, así que se reutiliza entre invocaciones
+        documento = generador.construirDocumento(PLANTILLA, GeneradorReportesPDF.crearContexto(datos));
+    }
+
+    @Benchmark
+    public String procesarPlantilla() {
+        return generador.procesarPlantilla(PLANTILLA, datos);
+    }
+
+    @Benchmark
+    public Document construirDocumento() {
+        return generador.construirDocumento(PLANTILLA, GeneradorReportesPDF.crearContexto(datos));
+    }
+
+    @Benchmark
+    public void maquetarYEscribir() throws Exception {
+        generador.renderizar(PLANTILLA, documento, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public byte[] generarPDF() throws Exception {
+        return generador.generarPDF(PLANTILLA, datos);
+    }
+}
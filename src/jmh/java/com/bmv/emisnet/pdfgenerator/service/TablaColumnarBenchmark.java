@@ -0,0 +1,84 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.bmv.emisnet.pdfgenerator.model.ReportePosicionesTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posiciones como lista de mapas y como TablaColumnar: construcción y lectura de
+ * todas las celdas, como las recorre la plantilla. Con -prof gc,
+ * gc.alloc.rate.norm de convertir más recorrer da la memoria asignada por
+ * reporte con cada modelo, incluidas las cajas de los enteros que la tabla
+ * crea al leerse
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TablaColumnarBenchmark {
+
+    @Param({"50000"})
+    public int filas;
+
+    private List<ReportePosicionesTest.PosicionDetalle> posiciones;
+    private List<Map<String, Object>> mapas;
+    private TablaColumnar tabla;
+    private List<String> columnas;
+
+    @Setup
+    public void preparar() {
+        posiciones = DatosPrueba.crearReportePosiciones(filas).getGruposPosiciones().get(0).getPosiciones();
+        mapas = convertirMapas();
+        tabla = convertirColumnar();
+        columnas = tabla.getColumnas();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> convertirMapas() {
+        List<Map<String, Object>> resultado = new ArrayList<>(posiciones.size());
+        for (ReportePosicionesTest.PosicionDetalle posicion : posiciones) {
+            resultado.add(ObjectToMapConverter.convertToMap(posicion));
+        }
+        return resultado;
+    }
+
+    @Benchmark
+    public TablaColumnar convertirColumnar() {
+        return ObjectToMapConverter.convertToColumnar(posiciones);
+    }
+
+    @Benchmark
+    public void recorrerMapas(Blackhole agujero) {
+        recorrer(mapas, agujero);
+    }
+
+    @Benchmark
+    public void recorrerColumnar(Blackhole agujero) {
+        recorrer(tabla, agujero);
+    }
+
+    private void recorrer(List<Map<String, Object>> filasReporte, Blackhole agujero) {
+        for (Map<String, Object> fila : filasReporte) {
+            for (String columna : columnas) {
+                agujero.consume(fila.get(columna));
+            }
+        }
+    }
+}
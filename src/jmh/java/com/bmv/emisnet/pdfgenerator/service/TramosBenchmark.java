@@ -0,0 +1,60 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reporte-posiciones grande por tramos secuenciales y por tramos maquetados en
+ * paralelo con tantos renderers como núcleos; la generación de una vez, con el
+ * mismo número de filas, está en ReportePosicionesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 20)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TramosBenchmark {
+
+    @Param({"50000"})
+    public int filas;
+
+    @Param({"500", "2000"})
+    public int filasPorTramo;
+
+    private GeneradorReportesPDF generador;
+    private Map<String, Object> datos;
+
+    @Setup
+    public void preparar() {
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .paralelismoLote(nucleos)
+                .tamanoPoolRenderizadores(nucleos)
+                .build());
+        datos = ObjectToMapConverter.convertToMap(DatosPrueba.crearReportePosiciones(filas));
+    }
+
+    @Benchmark
+    public void porTramos() throws Exception {
+        generador.generarReportePosicionesPorTramos(datos, filasPorTramo, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void enParalelo() throws Exception {
+        generador.generarReportePosicionesEnParalelo(datos, filasPorTramo, OutputStream.nullOutputStream());
+    }
+}
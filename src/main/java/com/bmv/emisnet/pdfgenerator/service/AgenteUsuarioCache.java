@@ -0,0 +1,205 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.Image;
+import com.lowagie.text.Jpeg;
+import lombok.extern.slf4j.Slf4j;
+import org.xhtmlrenderer.extend.FSImage;
+import org.xhtmlrenderer.pdf.ITextFSImage;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+import org.xhtmlrenderer.resource.ImageResource;
+import org.xhtmlrenderer.util.ImageUtil;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * User agent de Flying Saucer que sirve los recursos locales desde CacheRecursos
+ *
+ * Los recursos del classpath (jar: y file: bajo un directorio del classpath) se
+ * leen una sola vez y las imágenes se decodifican una sola vez; cada documento
+ * recibe una copia de la imagen maestra, porque el layout la escala al tamaño
+ * de su caja. Los archivos fuera del classpath se leen en cada documento, para
+ * que sus cambios se reflejen.
+ *
+ * Todos los renderers del servicio usan la misma resolución, por lo que la
+ * imagen maestra (ya escalada a la resolución de salida) vale para cualquiera.
+ *
+ * Con el perfil COMPACTO (ver PerfilSalida) las imágenes JPEG se recomprimen
+ * con menor calidad; la versión recomprimida también se cachea, aparte de la
+ * original, y sólo se usa si resulta más pequeña. Si no lo es, sólo se cachea
+ * una marca vacía para no volver a intentarlo.
+ */
+@Slf4j
+public class AgenteUsuarioCache extends ITextUserAgent {
+
+    /** Directorios del classpath, como URIs file: terminadas en / */
+    private static final List<String> DIRECTORIOS_CLASSPATH = directoriosClasspath();
+    /** Marca de una imagen que no se redujo al recomprimirla; no ocupa capacidad de la caché */
+    private static final byte[] SIN_RECOMPRIMIR = new byte[0];
+
+    private final CacheRecursos cache;
+    private float calidadJpeg;
+
+    public AgenteUsuarioCache(ITextOutputDevice outputDevice, CacheRecursos cache) {
+        super(outputDevice);
+        this.cache = cache;
+    }
+
+    @Override
+    public ImageResource getImageResource(String uri) {
+        if (ImageUtil.isEmbeddedBase64Image(uri)) {
+            return super.getImageResource(uri);
+        }
+
+        String uriResuelta = resolveURI(uri);
+        if (!esCacheable(uriResuelta)) {
+            return super.getImageResource(uri);
+        }
+
+        Image maestra = cache.obtenerImagen(uriResuelta);
+        if (maestra == null) {
+            ImageResource recurso = super.getImageResource(uri);
+            FSImage imagen = recurso.getImage();
+            if (!(imagen instanceof ITextFSImage imagenIText)) {
+                return recurso;
+            }
+            // La caché propia del user agent sería redundante con la compartida
+            _imageCache.remove(uriResuelta);
+            maestra = Image.getInstance(imagenIText.getImage());
+            cache.guardarImagen(uriResuelta, maestra);
+            if (calidadJpeg <= 0) {
+                return recurso;
+            }
+        }
+        if (calidadJpeg > 0 && maestra instanceof Jpeg) {
+            maestra = recomprimida(uriResuelta, maestra);
+        }
+        return new ImageResource(uriResuelta, new ITextFSImage(Image.getInstance(maestra)));
+    }
+
+    /**
+     * Calidad con la que se recomprimen las imágenes JPEG de los documentos
+     * siguientes; 0 para usarlas tal cual
+     *
+     * @param calidadJpeg Calidad entre 0 y 1
+     */
+    void setCalidadJpeg(float calidadJpeg) {
+        this.calidadJpeg = calidadJpeg;
+    }
+
+    /**
+     * Copia maestra de la imagen recomprimida con la calidad actual, o la
+     * original si no se puede recomprimir o no resulta más pequeña
+     */
+    private Image recomprimida(String uri, Image original) {
+        String clave = uri + "#jpeg-" + calidadJpeg;
+        byte[] cacheados = cache.obtenerBytes(clave);
+        if (cacheados == SIN_RECOMPRIMIR) {
+            return original;
+        }
+        Image maestra = cacheados != null ? cache.obtenerImagen(clave) : null;
+        if (maestra != null) {
+            return maestra;
+        }
+
+        byte[] bytes = original.getRawData();
+        try {
+            byte[] recomprimidos = codificarJpeg(bytes, calidadJpeg);
+            if (recomprimidos != null && recomprimidos.length < bytes.length) {
+                maestra = Image.getInstance(recomprimidos);
+                maestra.scaleAbsolute(original.getScaledWidth(), original.getScaledHeight());
+                log.debug("Imagen {} recomprimida de {} a {} bytes", uri, bytes.length, recomprimidos.length);
+                cache.guardarBytes(clave, recomprimidos);
+                cache.guardarImagen(clave, maestra);
+                return maestra;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("No se pudo recomprimir la imagen {}: {}", uri, e.getMessage());
+        }
+        cache.guardarBytes(clave, SIN_RECOMPRIMIR);
+        return original;
+    }
+
+    /**
+     * @return JPEG codificado con la calidad indicada, o null si ImageIO no puede leer la imagen (CMYK, por ejemplo)
+     */
+    private static byte[] codificarJpeg(byte[] jpeg, float calidad) throws IOException {
+        BufferedImage imagen = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (imagen == null) {
+            return null;
+        }
+        ImageWriter escritor = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(jpeg.length);
+        try (ImageOutputStream destino = ImageIO.createImageOutputStream(salida)) {
+            ImageWriteParam parametros = escritor.getDefaultWriteParam();
+            parametros.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            parametros.setCompressionQuality(calidad);
+            escritor.setOutput(destino);
+            escritor.write(null, new IIOImage(imagen, null, null), parametros);
+        } finally {
+            escritor.dispose();
+        }
+        return salida.toByteArray();
+    }
+
+    @Override
+    protected InputStream openStream(String uri) throws IOException {
+        if (!esCacheable(uri)) {
+            return super.openStream(uri);
+        }
+
+        byte[] bytes = cache.obtenerBytes(uri);
+        if (bytes == null) {
+            try (InputStream is = super.openStream(uri)) {
+                bytes = is.readAllBytes();
+            }
+            cache.guardarBytes(uri, bytes);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Recursos inmutables mientras corre la JVM: los de un jar y los archivos
+     * bajo un directorio del classpath
+     */
+    static boolean esCacheable(String uri) {
+        if (uri == null || uri.startsWith("jar:")) {
+            return uri != null;
+        }
+        if (!uri.startsWith("file:") || uri.contains("/../")) {
+            return false;
+        }
+        return DIRECTORIOS_CLASSPATH.stream().anyMatch(uri::startsWith);
+    }
+
+    private static List<String> directoriosClasspath() {
+        List<String> directorios = new ArrayList<>();
+        try {
+            Enumeration<URL> raices = AgenteUsuarioCache.class.getClassLoader().getResources("");
+            while (raices.hasMoreElements()) {
+                URL raiz = raices.nextElement();
+                if ("file".equals(raiz.getProtocol())) {
+                    String directorio = raiz.toString();
+                    directorios.add(directorio.endsWith("/") ? directorio : directorio + "/");
+                }
+            }
+        } catch (IOException e) {
+            log.warn("No se pudieron listar los directorios del classpath; sus archivos no se cachearán: {}",
+                    e.getMessage());
+        }
+        return List.copyOf(directorios);
+    }
+}
@@ -0,0 +1,187 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.css.parser.CSSParser;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché de hojas de estilo CSS ya parseadas, compartida entre renderizados
+ *
+ * Las plantillas inyectan sus estilos como bloques &lt;style&gt; en línea
+ * (base-styles, table-components, ui-components y las reglas @page de orientación).
+ * Flying Saucer vuelve a parsear cada bloque en cada documento; esta caché parsea
+ * cada bloque distinto una sola vez y entrega la hoja ya parseada a los
+ * renderizados posteriores. Con poda (ver PodaCss), lo que se parsea y cachea
+ * es la versión podada de cada bloque para la plantilla del documento.
+ *
+ * La llave de un bloque es su contenido junto con los bloques que lo preceden
+ * en el documento y la poda de la plantilla; se compara con hashCode/equals de
+ * String, sin calcular un resumen criptográfico por documento. Al construir el
+ * Matcher, Flying Saucer numera los selectores de cada hoja (Selector.setPos)
+ * a continuación de los de las hojas anteriores; como una hoja sólo se comparte
+ * entre documentos con los mismos bloques previos, todos le asignan la misma
+ * numeración y setDocument puede ejecutarse en paralelo sin bloqueo.
+ */
+@Slf4j
+public class CacheHojasEstilo {
+
+    /** Límite de bloques distintos; por encima se parsea sin cachear */
+    private static final int MAX_HOJAS = 256;
+
+    private final String baseUrl;
+    private final Map<Llave, Stylesheet> hojas = new ConcurrentHashMap<>();
+    private final AtomicLong secuencia = new AtomicLong();
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    /**
+     * @param baseUrl URL base de las plantillas, usada como URI de las hojas parseadas
+     */
+    public CacheHojasEstilo(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Obtiene la hoja parseada para un bloque CSS, parseándola sólo la primera vez
+     *
+     * @param css Contenido del bloque &lt;style&gt;
+     * @return Hoja de estilo parseada
+     */
+    public Stylesheet obtener(String css) {
+        return obtener(new Llave(null, css, null));
+    }
+
+    private Stylesheet obtener(Llave llave) {
+        Stylesheet hoja = hojas.get(llave);
+        if (hoja != null) {
+            aciertos.increment();
+            return hoja;
+        }
+
+        fallos.increment();
+        String css = llave.poda() == null ? llave.contenido() : llave.poda().podar(llave.contenido());
+        hoja = parsear(css);
+        if (hojas.size() < MAX_HOJAS) {
+            Stylesheet previa = hojas.putIfAbsent(llave, hoja);
+            return previa != null ? previa : hoja;
+        }
+
+        log.debug("Caché de hojas de estilo llena, bloque {} parseado sin cachear", hoja.getURI());
+        return hoja;
+    }
+
+    /**
+     * Asigna el documento al renderer usando las hojas de estilo cacheadas
+     *
+     * @param renderer Renderer que recibirá el documento
+     * @param documento DOM del HTML procesado
+     */
+    public void asignarDocumento(ITextRenderer renderer, Document documento) {
+        asignarDocumento(renderer, documento, null);
+    }
+
+    /**
+     * Asigna el documento al renderer con las hojas de estilo podadas para su plantilla
+     *
+     * @param renderer Renderer que recibirá el documento
+     * @param documento DOM del HTML procesado
+     * @param poda Poda de la plantilla del documento; null para usar las hojas completas
+     */
+    void asignarDocumento(ITextRenderer renderer, Document documento, PodaCss poda) {
+        // Un manejador por documento: acumula los bloques ya leídos para la llave del siguiente
+        renderer.setDocument(documento, baseUrl, new ManejadorConCache(poda));
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public int getTamano() {
+        return hojas.size();
+    }
+
+    /**
+     * Descarta todas las hojas cacheadas (por ejemplo, al cambiar las plantillas)
+     */
+    public void limpiar() {
+        hojas.clear();
+    }
+
+    private Stylesheet parsear(String css) {
+        String uri = baseUrl + "#estilo-" + secuencia.incrementAndGet();
+        CSSParser parser = new CSSParser((uriHoja, mensaje) ->
+                log.debug("Error de CSS en {}: {}", uriHoja, mensaje));
+
+        try {
+            return parser.parseStylesheet(uri, StylesheetInfo.AUTHOR, new StringReader(css));
+        } catch (IOException e) {
+            log.warn("No se pudo parsear el bloque CSS {}: {}", uri, e.getMessage());
+            return new Stylesheet(uri, StylesheetInfo.AUTHOR);
+        }
+    }
+
+    /**
+     * Llave de un bloque: su contenido, la llave del bloque anterior del
+     * documento (o el URI de una hoja enlazada) y la poda activa de la plantilla
+     */
+    private record Llave(Llave previa, String contenido, PodaCss poda) {
+    }
+
+    /**
+     * Namespace handler que sustituye cada bloque &lt;style&gt; por su hoja cacheada.
+     * Al quitar el contenido, StyleReference deja de tratar el bloque como estilo
+     * en línea y usa directamente la hoja adjunta en lugar de volver a parsearla.
+     */
+    private class ManejadorConCache extends XhtmlNamespaceHandler {
+
+        private final PodaCss poda;
+        private Llave anterior;
+
+        private ManejadorConCache(PodaCss poda) {
+            this.poda = poda;
+        }
+
+        @Override
+        protected StylesheetInfo readStyleElement(Element style) {
+            StylesheetInfo info = super.readStyleElement(style);
+            if (info == null) {
+                return null;
+            }
+
+            // La poda puede desactivarse tras una verificación; desde entonces se usan las hojas completas
+            anterior = new Llave(anterior, info.getContent(), poda != null && poda.isActiva() ? poda : null);
+            Stylesheet hoja = obtener(anterior);
+            info.setUri(hoja.getURI());
+            info.setStylesheet(hoja);
+            info.setContent(null);
+            return info;
+        }
+
+        @Override
+        protected StylesheetInfo readLinkElement(Element link) {
+            StylesheetInfo info = super.readLinkElement(link);
+            if (info != null) {
+                // Sus selectores preceden a los de los bloques siguientes
+                anterior = new Llave(anterior, info.getUri(), null);
+            }
+            return info;
+        }
+    }
+}
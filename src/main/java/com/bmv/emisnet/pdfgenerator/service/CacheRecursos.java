@@ -0,0 +1,192 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.Image;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché acotada en memoria de los recursos enlazados por las plantillas
+ *
+ * Guarda los bytes de cada recurso del classpath (imágenes, CSS o XML enlazados)
+ * y, para las imágenes, la versión ya decodificada. Dentro del jar sombreado de
+ * Lambda cada lectura de classpath pasa por una búsqueda en el jar, así que cada
+ * recurso se lee una sola vez por JVM y se sirve desde memoria después.
+ *
+ * El tamaño se acota por bytes; al excederse se desalojan los recursos usados
+ * hace más tiempo (LRU).
+ *
+ * Las búsquedas de bytes y de imágenes decodificadas se cuentan por separado:
+ * una imagen aún no decodificada es un fallo de imagen aunque sus bytes ya
+ * estén en caché, y la lectura de bytes que le sigue se cuenta como tal.
+ */
+@Slf4j
+public class CacheRecursos {
+
+    /** Capacidad por defecto de la caché global: 16 MB */
+    public static final long CAPACIDAD_POR_DEFECTO = 16L * 1024 * 1024;
+
+    private static final CacheRecursos GLOBAL = new CacheRecursos(CAPACIDAD_POR_DEFECTO);
+
+    private final long capacidadBytes;
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesOcupados;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder aciertosImagenes = new LongAdder();
+    private final LongAdder fallosImagenes = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    /**
+     * @param capacidadBytes Bytes máximos retenidos por la caché
+     */
+    public CacheRecursos(long capacidadBytes) {
+        this.capacidadBytes = capacidadBytes;
+    }
+
+    /**
+     * Caché compartida por toda la JVM
+     *
+     * @return Instancia global
+     */
+    public static CacheRecursos global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Obtiene los bytes de un recurso cacheado
+     *
+     * @param uri URI ya resuelta del recurso
+     * @return Bytes del recurso, o null si no está en caché
+     */
+    public synchronized byte[] obtenerBytes(String uri) {
+        Entrada entrada = entradas.get(uri);
+        if (entrada == null) {
+            fallos.increment();
+            return null;
+        }
+        aciertos.increment();
+        return entrada.bytes;
+    }
+
+    /**
+     * Registra los bytes de un recurso recién leído
+     *
+     * @param uri URI ya resuelta del recurso
+     * @param bytes Contenido del recurso
+     */
+    public synchronized void guardarBytes(String uri, byte[] bytes) {
+        if (bytes.length > capacidadBytes) {
+            log.debug("Recurso {} ({} bytes) excede la capacidad de la caché", uri, bytes.length);
+            return;
+        }
+        Entrada previa = entradas.put(uri, new Entrada(bytes));
+        if (previa != null) {
+            bytesOcupados -= previa.bytes.length;
+        }
+        bytesOcupados += bytes.length;
+        desalojar();
+    }
+
+    /**
+     * Obtiene la imagen decodificada de un recurso. La instancia devuelta es la
+     * copia maestra: no debe escalarse ni modificarse, sólo copiarse.
+     *
+     * @param uri URI ya resuelta de la imagen
+     * @return Imagen decodificada, o null si aún no se ha decodificado
+     */
+    public synchronized Image obtenerImagen(String uri) {
+        Entrada entrada = entradas.get(uri);
+        if (entrada == null || entrada.imagen == null) {
+            fallosImagenes.increment();
+            return null;
+        }
+        aciertosImagenes.increment();
+        return entrada.imagen;
+    }
+
+    /**
+     * Asocia la imagen decodificada a los bytes ya cacheados del recurso
+     *
+     * @param uri URI ya resuelta de la imagen
+     * @param imagen Copia maestra de la imagen decodificada
+     */
+    public synchronized void guardarImagen(String uri, Image imagen) {
+        Entrada entrada = entradas.get(uri);
+        if (entrada != null) {
+            entrada.imagen = imagen;
+        }
+    }
+
+    /**
+     * @return Búsquedas de bytes servidas desde la caché
+     */
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    /**
+     * @return Búsquedas de bytes que obligaron a leer el recurso
+     */
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    /**
+     * @return Búsquedas de imágenes servidas ya decodificadas
+     */
+    public long getAciertosImagenes() {
+        return aciertosImagenes.sum();
+    }
+
+    /**
+     * @return Búsquedas de imágenes que obligaron a decodificarlas
+     */
+    public long getFallosImagenes() {
+        return fallosImagenes.sum();
+    }
+
+    public long getDesalojos() {
+        return desalojos.sum();
+    }
+
+    public synchronized long getBytesOcupados() {
+        return bytesOcupados;
+    }
+
+    public synchronized int getTamano() {
+        return entradas.size();
+    }
+
+    /**
+     * Descarta todos los recursos cacheados
+     */
+    public synchronized void limpiar() {
+        entradas.clear();
+        bytesOcupados = 0;
+    }
+
+    private void desalojar() {
+        Iterator<Map.Entry<String, Entrada>> iterador = entradas.entrySet().iterator();
+        while (bytesOcupados > capacidadBytes && iterador.hasNext()) {
+            Map.Entry<String, Entrada> masAntigua = iterador.next();
+            bytesOcupados -= masAntigua.getValue().bytes.length;
+            iterador.remove();
+            desalojos.increment();
+            log.debug("Recurso {} desalojado de la caché", masAntigua.getKey());
+        }
+    }
+
+    private static final class Entrada {
+        private final byte[] bytes;
+        private Image imagen;
+
+        private Entrada(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Caché de PDFs ya generados, direccionada por contenido
+ *
+ * La llave de cada PDF combina el nombre de la plantilla, una versión calculada
+ * a partir del contenido de la plantilla y sus fragmentos, la configuración del
+ * generador que afecta a los bytes del PDF (perfil de salida, membrete, poda de
+ * CSS y fuentes) y una huella estable de los datos (ver HuellaDatos), por lo
+ * que varios generadores pueden compartir la caché. Un documento repetido se
+ * sirve sin volver a procesar la plantilla ni maquetar.
+ *
+ * Tiene dos niveles: uno en memoria acotado por bytes (LRU) y otro opcional en
+ * disco, también acotado por bytes, que desaloja los archivos usados hace más
+ * tiempo. Un acierto en disco promueve el PDF a memoria.
+ */
+@Slf4j
+public class CacheResultadosPDF {
+
+    private static final String EXTENSION = ".pdf";
+
+    private final long capacidadMemoriaBytes;
+    private final LinkedHashMap<String, byte[]> memoria = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesMemoria;
+
+    private final Path directorio;
+    private final long capacidadDiscoBytes;
+    private final Object candadoDisco = new Object();
+    private long bytesDisco;
+
+    private final LongAdder aciertosMemoria = new LongAdder();
+    private final LongAdder aciertosDisco = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojosMemoria = new LongAdder();
+    private final LongAdder desalojosDisco = new LongAdder();
+
+    /**
+     * Caché sólo en memoria
+     *
+     * @param capacidadMemoriaBytes Bytes máximos retenidos en memoria
+     */
+    public CacheResultadosPDF(long capacidadMemoriaBytes) {
+        this.capacidadMemoriaBytes = capacidadMemoriaBytes;
+        this.directorio = null;
+        this.capacidadDiscoBytes = 0;
+    }
+
+    /**
+     * Caché en memoria respaldada por un directorio; los PDFs que ya estén en el
+     * directorio (de una ejecución anterior) siguen siendo válidos
+     *
+     * @param capacidadMemoriaBytes Bytes máximos retenidos en memoria
+     * @param directorio Directorio del nivel en disco; se crea si no existe
+     * @param capacidadDiscoBytes Bytes máximos ocupados en disco
+     * @throws IOException Si no se puede crear o recorrer el directorio
+     */
+    public CacheResultadosPDF(long capacidadMemoriaBytes, Path directorio, long capacidadDiscoBytes)
+            throws IOException {
+        this.capacidadMemoriaBytes = capacidadMemoriaBytes;
+        this.directorio = Files.createDirectories(directorio);
+        this.capacidadDiscoBytes = capacidadDiscoBytes;
+
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            this.bytesDisco = archivos.filter(CacheResultadosPDF::esEntrada).mapToLong(CacheResultadosPDF::tamano).sum();
+        }
+        log.debug("Caché de PDFs en disco {} con {} bytes previos", directorio, bytesDisco);
+    }
+
+    /**
+     * Obtiene un PDF cacheado, buscando primero en memoria y luego en disco
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param huella Versión de la plantilla y huella de los datos ya combinadas
+     * @return Copia del PDF, o null si no está en caché
+     */
+    public byte[] obtener(String plantilla, String huella) {
+        String llave = llave(plantilla, huella);
+
+        synchronized (this) {
+            byte[] pdf = memoria.get(llave);
+            if (pdf != null) {
+                aciertosMemoria.increment();
+                return pdf.clone();
+            }
+        }
+
+        byte[] pdf = leerDisco(llave);
+        if (pdf == null) {
+            fallos.increment();
+            return null;
+        }
+        aciertosDisco.increment();
+        guardarMemoria(llave, pdf);
+        return pdf.clone();
+    }
+
+    /**
+     * Registra un PDF recién generado en ambos niveles
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param huella Versión de la plantilla y huella de los datos ya combinadas
+     * @param pdf PDF generado; se guarda una copia
+     */
+    public void guardar(String plantilla, String huella, byte[] pdf) {
+        String llave = llave(plantilla, huella);
+        byte[] copia = pdf.clone();
+        guardarMemoria(llave, copia);
+        escribirDisco(llave, copia);
+    }
+
+    /**
+     * Descarta todos los PDFs de una plantilla, por ejemplo tras modificarla
+     *
+     * @param plantilla Nombre de la plantilla
+     */
+    public void invalidarPlantilla(String plantilla) {
+        String prefijo = llave(plantilla, "");
+        synchronized (this) {
+            Iterator<Map.Entry<String, byte[]>> iterador = memoria.entrySet().iterator();
+            while (iterador.hasNext()) {
+                Map.Entry<String, byte[]> entrada = iterador.next();
+                if (entrada.getKey().startsWith(prefijo)) {
+                    bytesMemoria -= entrada.getValue().length;
+                    iterador.remove();
+                }
+            }
+        }
+        eliminarDisco(archivo -> archivo.getFileName().toString().startsWith(prefijo));
+        log.debug("PDFs cacheados de la plantilla {} invalidados", plantilla);
+    }
+
+    /**
+     * Descarta todos los PDFs cacheados, en memoria y en disco
+     */
+    public void limpiar() {
+        synchronized (this) {
+            memoria.clear();
+            bytesMemoria = 0;
+        }
+        eliminarDisco(archivo -> true);
+    }
+
+    public long getAciertosMemoria() {
+        return aciertosMemoria.sum();
+    }
+
+    public long getAciertosDisco() {
+        return aciertosDisco.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getDesalojosMemoria() {
+        return desalojosMemoria.sum();
+    }
+
+    public long getDesalojosDisco() {
+        return desalojosDisco.sum();
+    }
+
+    public synchronized long getBytesMemoria() {
+        return bytesMemoria;
+    }
+
+    public long getBytesDisco() {
+        synchronized (candadoDisco) {
+            return bytesDisco;
+        }
+    }
+
+    public synchronized int getTamanoMemoria() {
+        return memoria.size();
+    }
+
+    private synchronized void guardarMemoria(String llave, byte[] pdf) {
+        if (pdf.length > capacidadMemoriaBytes) {
+            return;
+        }
+        byte[] previo = memoria.put(llave, pdf);
+        if (previo != null) {
+            bytesMemoria -= previo.length;
+        }
+        bytesMemoria += pdf.length;
+
+        Iterator<Map.Entry<String, byte[]>> iterador = memoria.entrySet().iterator();
+        while (bytesMemoria > capacidadMemoriaBytes && iterador.hasNext()) {
+            bytesMemoria -= iterador.next().getValue().length;
+            iterador.remove();
+            desalojosMemoria.increment();
+        }
+    }
+
+    private byte[] leerDisco(String llave) {
+        if (directorio == null) {
+            return null;
+        }
+        Path archivo = directorio.resolve(llave + EXTENSION);
+        try {
+            byte[] pdf = Files.readAllBytes(archivo);
+            // La fecha de modificación hace las veces de último acceso para el desalojo
+            Files.setLastModifiedTime(archivo, FileTime.fromMillis(System.currentTimeMillis()));
+            return pdf;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("No se pudo leer el PDF cacheado {}: {}", archivo, e.getMessage());
+            return null;
+        }
+    }
+
+    private void escribirDisco(String llave, byte[] pdf) {
+        if (directorio == null || pdf.length > capacidadDiscoBytes) {
+            return;
+        }
+        Path archivo = directorio.resolve(llave + EXTENSION);
+        Path temporal = null;
+        try {
+            // Se escribe en un temporal y se renombra, para que un lector nunca vea un PDF a medias
+            temporal = Files.createTempFile(directorio, "escritura-", ".tmp");
+            Files.write(temporal, pdf);
+            synchronized (candadoDisco) {
+                long previo = Files.exists(archivo) ? tamano(archivo) : 0;
+                mover(temporal, archivo);
+                bytesDisco += pdf.length - previo;
+                desalojarDisco();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("No se pudo guardar el PDF cacheado {}: {}", archivo, e.getMessage());
+            eliminarTemporal(temporal);
+        }
+    }
+
+    private void desalojarDisco() throws IOException {
+        if (bytesDisco <= capacidadDiscoBytes) {
+            return;
+        }
+        List<Path> archivos;
+        try (Stream<Path> listado = Files.list(directorio)) {
+            archivos = listado.filter(CacheResultadosPDF::esEntrada)
+                    .sorted(Comparator.comparing(CacheResultadosPDF::ultimoAcceso))
+                    .toList();
+        }
+        for (Path archivo : archivos) {
+            if (bytesDisco <= capacidadDiscoBytes) {
+                break;
+            }
+            long tamano = tamano(archivo);
+            if (Files.deleteIfExists(archivo)) {
+                bytesDisco -= tamano;
+                desalojosDisco.increment();
+            }
+        }
+    }
+
+    private void eliminarDisco(Predicate<Path> filtro) {
+        if (directorio == null) {
+            return;
+        }
+        synchronized (candadoDisco) {
+            try (Stream<Path> listado = Files.list(directorio)) {
+                for (Path archivo : listado.filter(CacheResultadosPDF::esEntrada).filter(filtro).toList()) {
+                    long tamano = tamano(archivo);
+                    if (Files.deleteIfExists(archivo)) {
+                        bytesDisco -= tamano;
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("No se pudieron eliminar PDFs cacheados en {}: {}", directorio, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Llave de una entrada; también es el nombre de su archivo en disco. El nombre
+     * de la plantilla va como prefijo, para poder invalidarla completa, codificado
+     * en hexadecimal: dos plantillas distintas nunca comparten prefijo, ni siquiera
+     * en un sistema de archivos que no distingue mayúsculas.
+     */
+    private static String llave(String plantilla, String huella) {
+        return HexFormat.of().formatHex(plantilla.getBytes(StandardCharsets.UTF_8)) + "@" + huella;
+    }
+
+    private static void mover(Path origen, Path destino) throws IOException {
+        try {
+            Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(origen, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void eliminarTemporal(Path temporal) {
+        if (temporal == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temporal);
+        } catch (IOException ignorada) {
+            // Un temporal huérfano no es una entrada; no afecta a la caché
+        }
+    }
+
+    private static boolean esEntrada(Path archivo) {
+        String nombre = archivo.getFileName().toString();
+        return nombre.contains("@") && nombre.endsWith(EXTENSION);
+    }
+
+    private static long tamano(Path archivo) {
+        try {
+            return Files.size(archivo);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime ultimoAcceso(Path archivo) {
+        try {
+            return Files.getLastModifiedTime(archivo);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Calienta el generador tras un arranque en frío
+ *
+ * El primer PDF de cada plantilla paga la carga de clases, el parseo de la
+ * plantilla y sus fragmentos, el de las hojas de estilo y la preparación de
+ * fuentes y renderers. Este componente genera una vez cada plantilla con datos
+ * sintéticos durante la inicialización, de modo que la primera petición real
+ * no pague ese costo.
+ *
+ * Como bean de Spring participa también en checkpoint/restore (CRaC,
+ * SnapStart): si no se calentó antes, lo hace justo antes del checkpoint para
+ * que el snapshot ya contenga el generador caliente. En JVMs sin CRaC el
+ * registro no tiene efecto.
+ *
+ * Las plantillas incluidas se calientan con datos sintéticos parecidos a los
+ * reales (tablas con filas suficientes para ocupar varias páginas), de modo que
+ * también se ejercitan los th:each y la maquetación de tablas.
+ *
+ * Las plantillas a calentar se configuran con pdf.calentamiento.plantillas
+ * (separadas por comas); por defecto, todas las de templates/. El calentamiento
+ * y las mediciones no pasan por la caché de resultados.
+ */
+@Slf4j
+@Component
+public class CalentadorPlantillas implements Resource {
+
+    private static final String PATRON_PLANTILLAS = "classpath*:templates/*.html";
+    /** Posiciones por grupo del reporte-posiciones sintético: más de una página por tabla */
+    private static final int POSICIONES_SINTETICAS = 60;
+    private static final List<String> MONTOS_POSICION = List.of(
+            "saldoInicial", "saldoAnteriorVcp", "saldoAnteriorVct", "saldoAnteriorCto",
+            "montoOperadoVcp", "montoOperadoVct", "montoOperadoCto", "montoOperadoTotal",
+            "montoCanceladoVcp", "montoCanceladoVct", "montoCanceladoCto", "montoCanceladoTotal",
+            "montoModificadoVcp", "montoModificadoVct", "montoModificadoCto", "montoModificadoTotal",
+            "posicionVcp", "posicionVct", "posicionCto", "posicionTotal");
+
+    private final GeneradorReportesPDF generador;
+    private final List<String> plantillas;
+    private final Function<String, Map<String, Object>> datosSinteticos;
+    private final AtomicBoolean calentado = new AtomicBoolean();
+
+    /**
+     * Calentador con los datos sintéticos de {@link #datosSinteticos(String)}
+     *
+     * @param generador Generador a calentar
+     * @param plantillas Plantillas a calentar; vacía para todas las de templates/
+     */
+    @Autowired
+    public CalentadorPlantillas(GeneradorReportesPDF generador,
+                                @Value("${pdf.calentamiento.plantillas:}") List<String> plantillas) {
+        this(generador, plantillas, CalentadorPlantillas::datosSinteticos);
+    }
+
+    /**
+     * @param generador Generador a calentar
+     * @param plantillas Plantillas a calentar; vacía para todas las de templates/
+     * @param datosSinteticos Datos de prueba por plantilla; mientras más se parezcan a
+     *                        los reales (tablas con filas, por ejemplo) más código se calienta
+     */
+    public CalentadorPlantillas(GeneradorReportesPDF generador, List<String> plantillas,
+                                Function<String, Map<String, Object>> datosSinteticos) {
+        this.generador = generador;
+        this.plantillas = plantillas.isEmpty() ? descubrirPlantillas() : List.copyOf(plantillas);
+        this.datosSinteticos = datosSinteticos;
+    }
+
+    /**
+     * Se registra para checkpoint/restore y calienta al inicializar el contexto de Spring
+     */
+    @PostConstruct
+    void iniciar() {
+        // El contexto global de CRaC sólo retiene una referencia débil; el bean de Spring lo mantiene vivo
+        Core.getGlobalContext().register(this);
+        calentar();
+    }
+
+    /**
+     * Datos sintéticos de las plantillas incluidas, con los campos que usa cada una
+     *
+     * @param plantilla Nombre de la plantilla
+     * @return Datos de prueba; vacíos para una plantilla que no es de las incluidas
+     */
+    public static Map<String, Object> datosSinteticos(String plantilla) {
+        return switch (plantilla) {
+            case "aviso-extemporaneidad" -> Map.of(
+                    "fechaGeneracion", "15/01/2024",
+                    "claveCotizacion", "EMISORA",
+                    "razonSocial", "EMISORA DE PRUEBA, S.A. DE C.V.",
+                    "tipoInformacion", "Información financiera trimestral",
+                    "causasIncumplimiento", "Causas del incumplimiento en el envío de la información requerida.",
+                    "observaciones", "Observaciones sobre el envío de la información.");
+            case "confirmacion-envio" -> Map.of(
+                    "fechaHoraEnvio", "15/01/2024 10:30:00",
+                    "clave", "EMISORA",
+                    "razonSocial", "EMISORA DE PRUEBA, S.A. DE C.V.",
+                    "folioRecepcion", "10000000",
+                    "responsable", "Responsable del envío",
+                    "periodo", "Ejercicio 2024-01",
+                    "archivos", List.of(
+                            Map.of("nombre", "constancia.pdf", "descripcion", "Constancia Trimestral"),
+                            Map.of("nombre", "reporte.pdf", "descripcion", "Reporte Mensual de Operaciones")));
+            case "reporte-posiciones" -> Map.of(
+                    "fechaOperacion", "15/01/2024",
+                    "casaBolsa", "CASA",
+                    "razonSocial", "CASA DE BOLSA DE PRUEBA, S.A. DE C.V.",
+                    "gruposPosiciones", List.of(
+                            grupoPosiciones("Grupo de Valores Gubernamentales"),
+                            grupoPosiciones("Grupo de Valores Corporativos")));
+            default -> Map.of();
+        };
+    }
+
+    private static Map<String, Object> grupoPosiciones(String nombre) {
+        List<Map<String, Object>> posiciones = new ArrayList<>(POSICIONES_SINTETICAS);
+        for (int i = 0; i < POSICIONES_SINTETICAS; i++) {
+            Map<String, Object> posicion = new HashMap<>();
+            posicion.put("emisora", "EMISORA" + i);
+            posicion.put("serie", String.valueOf(i % 7));
+            posicion.put("tv", "1");
+            for (String monto : MONTOS_POSICION) {
+                posicion.put(monto, i * 1000L);
+            }
+            posiciones.add(posicion);
+        }
+        return Map.of("nombre", nombre, "posiciones", posiciones);
+    }
+
+    /**
+     * Genera cada plantilla dos veces: la primera mide la latencia en frío y la
+     * segunda la que verá la primera petición real tras el calentamiento
+     * Una plantilla que falla no detiene el calentamiento de las demás
+     *
+     * @return Tiempos de cada plantilla, en el orden configurado
+     */
+    public List<TiemposCalentamiento> calentar() {
+        List<TiemposCalentamiento> tiempos = new ArrayList<>(plantillas.size());
+        for (String plantilla : plantillas) {
+            try {
+                Duration enFrio = medir(plantilla);
+                Duration caliente = medir(plantilla);
+                tiempos.add(new TiemposCalentamiento(plantilla, enFrio, caliente));
+                log.info("Plantilla {} calentada: primera generación {} ms, tras calentar {} ms",
+                        plantilla, enFrio.toMillis(), caliente.toMillis());
+            } catch (Exception e) {
+                log.warn("No se pudo calentar la plantilla {}: {}", plantilla, e.getMessage());
+            }
+        }
+        calentado.set(true);
+        return tiempos;
+    }
+
+    public List<String> getPlantillas() {
+        return plantillas;
+    }
+
+    public boolean isCalentado() {
+        return calentado.get();
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        if (!calentado.get()) {
+            calentar();
+        }
+        log.info("Checkpoint con {} plantillas calentadas", plantillas.size());
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) throws Exception {
+        if (plantillas.isEmpty()) {
+            return;
+        }
+        // Lo que verá la primera petición tras restaurar el snapshot
+        Duration primera = medir(plantillas.get(0));
+        log.info("Restaurado desde checkpoint: primera generación de {} en {} ms",
+                plantillas.get(0), primera.toMillis());
+    }
+
+    private Duration medir(String plantilla) throws Exception {
+        long inicio = System.nanoTime();
+        // Sin la caché de resultados: se mide la generación, no un acierto de la caché
+        generador.generarPDFSinCache(plantilla, datosSinteticos.apply(plantilla));
+        return Duration.ofNanos(System.nanoTime() - inicio);
+    }
+
+    private static List<String> descubrirPlantillas() {
+        try {
+            return Arrays.stream(new PathMatchingResourcePatternResolver().getResources(PATRON_PLANTILLAS))
+                    .map(org.springframework.core.io.Resource::getFilename)
+                    .filter(Objects::nonNull)
+                    .map(nombre -> nombre.substring(0, nombre.length() - ".html".length()))
+                    .sorted()
+                    .distinct()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudieron listar las plantillas", e);
+        }
+    }
+
+    /**
+     * Latencia de una plantilla antes y después de calentarla
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param enFrio Primera generación tras el arranque
+     * @param caliente Generación siguiente, ya calentada
+     */
+    public record TiemposCalentamiento(String plantilla, Duration enFrio, Duration caliente) {
+    }
+}
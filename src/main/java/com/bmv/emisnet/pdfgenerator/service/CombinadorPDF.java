@@ -0,0 +1,111 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfSmartCopy;
+import com.lowagie.text.pdf.SimpleBookmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Concatena PDFs completos en un único documento escrito en un stream
+ *
+ * Usa PdfSmartCopy, que escribe una sola vez los recursos idénticos entre
+ * fragmentos (logo, fuentes), y libera cada lector en cuanto se copian sus
+ * páginas: en memoria sólo vive el fragmento en curso. Al cerrar se cierra
+ * también el stream de salida.
+ *
+ * Opcionalmente cada fragmento agregado con título lleva un marcador que
+ * apunta a su primera página, con los marcadores propios del fragmento
+ * anidados debajo.
+ */
+class CombinadorPDF implements Closeable {
+
+    private final Document documento;
+    private final PdfSmartCopy copia;
+    private final List<Map<String, Object>> marcadores = new ArrayList<>();
+    private int paginas;
+
+    CombinadorPDF(OutputStream salida) {
+        this.documento = new Document();
+        this.copia = new PdfSmartCopy(documento, salida);
+        documento.open();
+    }
+
+    /**
+     * Agrega al final todas las páginas de un PDF
+     *
+     * @param pdf PDF completo
+     * @return Número de páginas agregadas
+     * @throws IOException Si el PDF no se puede leer
+     */
+    int agregar(byte[] pdf) throws IOException {
+        return agregar(pdf, null);
+    }
+
+    /**
+     * Agrega al final todas las páginas de un PDF, con un marcador a su primera página
+     *
+     * @param pdf PDF completo
+     * @param titulo Título del marcador, o null para no crearlo
+     * @return Número de páginas agregadas
+     * @throws IOException Si el PDF no se puede leer
+     */
+    int agregar(byte[] pdf, String titulo) throws IOException {
+        PdfReader lector = new PdfReader(pdf);
+        try {
+            int total = lector.getNumberOfPages();
+            if (titulo != null && total > 0) {
+                marcadores.add(marcador(titulo, lector));
+            }
+            for (int pagina = 1; pagina <= total; pagina++) {
+                copia.addPage(copia.getImportedPage(lector, pagina));
+            }
+            copia.freeReader(lector);
+            paginas += total;
+            return total;
+        } finally {
+            lector.close();
+        }
+    }
+
+    /**
+     * Páginas agregadas hasta el momento
+     *
+     * @return Número de páginas del documento combinado
+     */
+    int getPaginas() {
+        return paginas;
+    }
+
+    @Override
+    public void close() {
+        if (!marcadores.isEmpty()) {
+            copia.setOutlines(marcadores);
+        }
+        documento.close();
+    }
+
+    /**
+     * Marcador a la primera página que tendrá el fragmento, con sus propios
+     * marcadores desplazados a sus páginas en el documento combinado
+     */
+    private Map<String, Object> marcador(String titulo, PdfReader lector) {
+        Map<String, Object> marcador = new HashMap<>();
+        marcador.put("Title", titulo);
+        marcador.put("Action", "GoTo");
+        marcador.put("Page", (paginas + 1) + " Fit");
+        List<Map<String, Object>> propios = SimpleBookmark.getBookmarkList(lector);
+        if (propios != null && !propios.isEmpty()) {
+            SimpleBookmark.shiftPageNumbersInRange(propios, paginas, null);
+            marcador.put("Kids", propios);
+        }
+        return marcador;
+    }
+}
@@ -0,0 +1,283 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Compila las plantillas en un paquete precompilado, como paso del build
+ *
+ * Cada plantilla se aplana: las inclusiones estáticas de fragmentos
+ * (&lt;style th:replace="~{fragments/base-styles :: base-styles}"&gt;) se
+ * sustituyen por el elemento del fragmento, como haría Thymeleaf, y el CSS de
+ * los bloques &lt;style&gt; se minifica. Las expresiones th: del resultado no se
+ * tocan y se evalúan en cada documento como siempre.
+ *
+ * Sólo se aplanan las inclusiones que no dependen de los datos: un th:replace
+ * como único atributo, con plantilla y nombre de fragmento literales y sin
+ * parámetros. Las demás se dejan tal cual; los fragmentos también van en el
+ * paquete, de modo que Thymeleaf las resuelve igual que antes.
+ *
+ * El paquete es un único recurso que {@link ResolutorPlantillasPrecompiladas}
+ * carga con una sola lectura, en lugar de abrir cada plantilla y fragmento
+ * del jar la primera vez que se usa.
+ */
+@Slf4j
+public final class CompiladorPlantillas {
+
+    /** Ruta del paquete en el classpath */
+    static final String RECURSO_PAQUETE = "templates/plantillas-precompiladas.bin";
+
+    private static final int VERSION_FORMATO = 1;
+    private static final int PROFUNDIDAD_MAXIMA = 8;
+
+    /** Elemento cuyo único atributo es una inclusión literal: &lt;div th:replace="~{fragments/header :: header}"&gt; */
+    private static final Pattern INCLUSION = Pattern.compile(
+            "<(\\w+)\\s+th:replace=\"~\\{\\s*([\\w./-]+)\\s*::\\s*([\\w-]+)\\s*}\"\\s*(/?)>");
+    private static final Pattern ESTILO = Pattern.compile("(<style\\b[^>]*>)(.*?)(</style>)", Pattern.DOTALL);
+
+    private CompiladorPlantillas() {
+    }
+
+    /**
+     * Compila las plantillas de un directorio y escribe el paquete
+     *
+     * @param args Directorio de plantillas y archivo del paquete a escribir
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Uso: CompiladorPlantillas <directorio de plantillas> <paquete>");
+        }
+        Path directorio = Path.of(args[0]);
+        Path paquete = Path.of(args[1]);
+
+        Map<String, String> plantillas = compilar(directorio);
+        try (OutputStream salida = Files.newOutputStream(paquete)) {
+            escribir(plantillas, salida);
+        }
+        log.info("Paquete de {} plantillas escrito en {} ({} bytes)", plantillas.size(), paquete, Files.size(paquete));
+    }
+
+    /**
+     * Aplana y minifica todas las plantillas .html de un directorio
+     *
+     * @param directorio Directorio raíz de las plantillas (templates/)
+     * @return Plantillas compiladas por nombre, relativo al directorio y sin extensión
+     */
+    static Map<String, String> compilar(Path directorio) throws IOException {
+        Map<String, String> fuentes = new HashMap<>();
+        List<Path> archivos;
+        try (Stream<Path> recorrido = Files.walk(directorio)) {
+            archivos = recorrido.filter(Files::isRegularFile)
+                    .filter(archivo -> archivo.getFileName().toString().endsWith(".html"))
+                    .toList();
+        }
+        for (Path archivo : archivos) {
+            String relativo = directorio.relativize(archivo).toString().replace('\\', '/');
+            fuentes.put(relativo.substring(0, relativo.length() - ".html".length()),
+                    Files.readString(archivo, StandardCharsets.UTF_8));
+        }
+
+        Map<String, String> compiladas = new TreeMap<>();
+        fuentes.forEach((nombre, contenido) ->
+                compiladas.put(nombre, minificarEstilos(aplanar(nombre, contenido, fuentes, 0))));
+        return compiladas;
+    }
+
+    /**
+     * Sustituye las inclusiones estáticas de fragmentos por el elemento incluido
+     */
+    static String aplanar(String nombre, String html, Map<String, String> fuentes, int profundidad) {
+        if (profundidad > PROFUNDIDAD_MAXIMA) {
+            throw new IllegalStateException("Inclusión de fragmentos demasiado profunda en " + nombre);
+        }
+
+        StringBuilder resultado = new StringBuilder(html.length());
+        Matcher inclusion = INCLUSION.matcher(html);
+        int copiado = 0;
+        while (inclusion.find()) {
+            String etiqueta = inclusion.group(1);
+            int fin = inclusion.group(4).isEmpty() ? finElemento(html, etiqueta, inclusion.end()) : inclusion.end();
+            String fragmento = extraerFragmento(fuentes.get(inclusion.group(2)), inclusion.group(3));
+            if (fin < 0 || fragmento == null) {
+                log.debug("Inclusión de {} en {} sin aplanar", inclusion.group(), nombre);
+                continue;
+            }
+            resultado.append(html, copiado, inclusion.start())
+                    .append(aplanar(inclusion.group(2), fragmento, fuentes, profundidad + 1));
+            copiado = fin;
+            // El contenido del elemento sustituido no se vuelve a examinar
+            inclusion.region(fin, html.length());
+        }
+        return resultado.append(html, copiado, html.length()).toString();
+    }
+
+    /**
+     * Elemento marcado con th:fragment="nombre", sin ese atributo
+     *
+     * @return Elemento del fragmento, o null si la plantilla no lo define sin parámetros
+     */
+    static String extraerFragmento(String html, String fragmento) {
+        if (html == null) {
+            return null;
+        }
+        Matcher inicio = Pattern.compile("<(\\w+)([^>]*?)\\s+th:fragment=\"" + Pattern.quote(fragmento) + "\"([^>]*?)(/?)>")
+                .matcher(html);
+        if (!inicio.find()) {
+            return null;
+        }
+        String apertura = "<" + inicio.group(1) + inicio.group(2) + inicio.group(3) + inicio.group(4) + ">";
+        if (!inicio.group(4).isEmpty()) {
+            return apertura;
+        }
+        int fin = finElemento(html, inicio.group(1), inicio.end());
+        return fin < 0 ? null : apertura + html.substring(inicio.end(), fin);
+    }
+
+    /**
+     * Posición siguiente al cierre del elemento abierto justo antes de desde,
+     * contando los elementos anidados con la misma etiqueta
+     *
+     * @return Posición tras el cierre, o -1 si el elemento no se cierra
+     */
+    private static int finElemento(String html, String etiqueta, int desde) {
+        Matcher marca = Pattern.compile("<!--.*?-->|<(/?)" + etiqueta + "\\b[^>]*?(/?)>", Pattern.DOTALL).matcher(html);
+        int abiertos = 1;
+        marca.region(desde, html.length());
+        while (marca.find()) {
+            if (marca.group(1) == null) {
+                continue; // comentario
+            }
+            if (!marca.group(1).isEmpty()) {
+                if (--abiertos == 0) {
+                    return marca.end();
+                }
+            } else if (marca.group(2).isEmpty()) {
+                abiertos++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Minifica el contenido de los bloques &lt;style&gt; sin th:inline, cuyo
+     * CSS no contiene expresiones
+     */
+    static String minificarEstilos(String html) {
+        Matcher estilo = ESTILO.matcher(html);
+        StringBuilder resultado = new StringBuilder(html.length());
+        while (estilo.find()) {
+            String contenido = estilo.group(1).contains("th:inline") ? estilo.group(2) : minificarCss(estilo.group(2));
+            estilo.appendReplacement(resultado, Matcher.quoteReplacement(estilo.group(1) + contenido + estilo.group(3)));
+        }
+        return estilo.appendTail(resultado).toString();
+    }
+
+    /**
+     * Quita comentarios y espacios sobrantes de una hoja de estilo
+     * Los espacios entre selectores y valores se conservan (reducidos a uno), porque
+     * en un selector son un combinador; sólo desaparecen junto a { } ; y ,
+     */
+    static String minificarCss(String css) {
+        StringBuilder resultado = new StringBuilder(css.length());
+        boolean espacio = false;
+        char comilla = 0;
+        for (int i = 0; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (comilla != 0) {
+                resultado.append(c);
+                if (c == '\\' && i + 1 < css.length()) {
+                    resultado.append(css.charAt(++i));
+                } else if (c == comilla) {
+                    comilla = 0;
+                }
+                continue;
+            }
+            if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+                int cierre = css.indexOf("*/", i + 2);
+                i = cierre < 0 ? css.length() : cierre + 1;
+                espacio = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                espacio = true;
+                continue;
+            }
+            if (esSeparador(c)) {
+                if (c == '}' && !resultado.isEmpty() && resultado.charAt(resultado.length() - 1) == ';') {
+                    resultado.setLength(resultado.length() - 1);
+                }
+                resultado.append(c);
+                espacio = false;
+                continue;
+            }
+            if (espacio && !resultado.isEmpty() && !esSeparador(resultado.charAt(resultado.length() - 1))) {
+                resultado.append(' ');
+            }
+            espacio = false;
+            if (c == '"' || c == '\'') {
+                comilla = c;
+            }
+            resultado.append(c);
+        }
+        return resultado.toString();
+    }
+
+    private static boolean esSeparador(char c) {
+        return c == '{' || c == '}' || c == ';' || c == ',';
+    }
+
+    /**
+     * Escribe el paquete: versión, número de plantillas y, por cada una, su
+     * nombre y su contenido en UTF-8
+     */
+    static void escribir(Map<String, String> plantillas, OutputStream salida) throws IOException {
+        DataOutputStream datos = new DataOutputStream(salida);
+        datos.writeInt(VERSION_FORMATO);
+        datos.writeInt(plantillas.size());
+        for (Map.Entry<String, String> plantilla : plantillas.entrySet()) {
+            byte[] contenido = plantilla.getValue().getBytes(StandardCharsets.UTF_8);
+            datos.writeUTF(plantilla.getKey());
+            datos.writeInt(contenido.length);
+            datos.write(contenido);
+        }
+        datos.flush();
+    }
+
+    /**
+     * Lee un paquete completo con una sola lectura del recurso
+     *
+     * @return Plantillas compiladas por nombre
+     */
+    static Map<String, String> leer(InputStream entrada) throws IOException {
+        DataInputStream datos = new DataInputStream(new ByteArrayInputStream(entrada.readAllBytes()));
+        int version = datos.readInt();
+        if (version != VERSION_FORMATO) {
+            throw new IOException("Versión de paquete de plantillas no soportada: " + version);
+        }
+        int cantidad = datos.readInt();
+        Map<String, String> plantillas = HashMap.newHashMap(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            String nombre = datos.readUTF();
+            byte[] contenido = new byte[datos.readInt()];
+            datos.readFully(contenido);
+            plantillas.put(nombre, new String(contenido, StandardCharsets.UTF_8));
+        }
+        return plantillas;
+    }
+}
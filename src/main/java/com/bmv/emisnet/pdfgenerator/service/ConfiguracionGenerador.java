@@ -0,0 +1,186 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Parámetros de ajuste del servicio GeneradorReportesPDF
+ *
+ * Todos los valores tienen un default razonable, por lo que basta con
+ * sobrescribir los que interesen:
+ * <pre>
+ * ConfiguracionGenerador config = ConfiguracionGenerador.builder()
+ *         .tamanoPoolRenderizadores(8)
+ *         .build();
+ * </pre>
+ */
+@Getter
+@Builder(toBuilder = true)
+public class ConfiguracionGenerador {
+
+    /**
+     * Número máximo de renderers vivos; también limita cuántos PDFs
+     * se maquetan a la vez
+     */
+    @Builder.Default
+    private final int tamanoPoolRenderizadores = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Tiempo máximo de espera por un renderer libre antes de fallar
+     */
+    @Builder.Default
+    private final Duration esperaMaximaRenderizador = Duration.ofSeconds(30);
+
+    /**
+     * Un renderer que maquetó más páginas que este límite se descarta en lugar
+     * de volver al pool, para no retener el árbol de layout de un documento grande
+     */
+    @Builder.Default
+    private final int maxPaginasReutilizacion = 50;
+
+    /**
+     * Caché de imágenes y demás recursos enlazados; por defecto la global de la JVM
+     */
+    @Builder.Default
+    private final CacheRecursos cacheRecursos = CacheRecursos.global();
+
+    /**
+     * Fuentes disponibles para las plantillas y su política de incrustación; por
+     * defecto el registro global, que usa las fuentes estándar de PDF
+     */
+    @Builder.Default
+    private final RegistroFuentes registroFuentes = RegistroFuentes.global();
+
+    /**
+     * Entrega la salida de Thymeleaf por bloques al parser XML en lugar de
+     * construir primero el HTML completo como String; desactivarlo sirve para
+     * depurar el HTML intermedio
+     */
+    @Builder.Default
+    private final boolean procesamientoPorBloques = true;
+
+    /**
+     * Máximo de documentos de un lote en curso a la vez; más allá del tamaño
+     * del pool de renderers los trabajos sólo adelantan el procesamiento de la
+     * plantilla y esperan su turno para maquetar
+     */
+    @Builder.Default
+    private final int paralelismoLote = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Ejecuta los lotes en hilos virtuales en lugar de un pool fijo de hilos
+     * de plataforma; el paralelismo sigue limitado por paralelismoLote
+     */
+    @Builder.Default
+    private final boolean hilosVirtualesLote = false;
+
+    /**
+     * Documentos que la API asíncrona genera a la vez
+     */
+    @Builder.Default
+    private final int hilosAsincronos = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Documentos que pueden esperar turno en la API asíncrona; con la cola llena
+     * los nuevos se rechazan de inmediato
+     */
+    @Builder.Default
+    private final int capacidadColaAsincrona = 100;
+
+    /**
+     * Tiempo máximo por defecto de cada documento asíncrono, incluida su espera
+     * en cola; null (por defecto) sin límite
+     */
+    @Builder.Default
+    private final Duration tiempoMaximoAsincrono = null;
+
+    /**
+     * Caché de PDFs ya generados para los métodos que devuelven byte[]; null
+     * (por defecto) la desactiva
+     */
+    @Builder.Default
+    private final CacheResultadosPDF cacheResultados = null;
+
+    /**
+     * Registro donde se publican las métricas por fase (ver MetricasGenerador);
+     * por defecto el global de Micrometer, al que Spring Boot agrega los suyos
+     */
+    @Builder.Default
+    private final MeterRegistry registroMetricas = Metrics.globalRegistry;
+
+    /**
+     * Emite además cada documento generado como una línea JSON en el log, para
+     * entornos sin endpoint de métricas como Lambda
+     */
+    @Builder.Default
+    private final boolean metricasEnLog = false;
+
+    /**
+     * Nombre del generador, etiqueta "generador" de las métricas de estado de
+     * sus ejecutores y buffers; null (por defecto) asigna uno único en la JVM,
+     * para que varios generadores puedan publicar en el mismo registro
+     */
+    @Builder.Default
+    private final String nombre = null;
+
+    /**
+     * Sirve las plantillas desde el paquete precompilado del build (ver
+     * CompiladorPlantillas) cuando existe; sin él, o si alguna plantilla del
+     * directorio es más reciente que el paquete, se leen del classpath
+     */
+    @Builder.Default
+    private final boolean plantillasPrecompiladas = true;
+
+    /**
+     * Poda de las reglas CSS que no pueden aplicarse a cada plantilla (ver
+     * PodaCss); VERIFICACION genera cada documento con y sin poda y los compara.
+     * Desactivada por defecto: una plantilla nueva debería pasar por VERIFICACION
+     * antes de generarse con ACTIVA
+     */
+    @Builder.Default
+    private final PodaCss.Modo podaCss = PodaCss.Modo.DESACTIVADA;
+
+    /**
+     * Perfil de escritura de las plantillas que no declaran uno propio con el
+     * meta perfil-pdf (ver PerfilSalida)
+     */
+    @Builder.Default
+    private final PerfilSalida perfilSalida = PerfilSalida.ESTANDAR;
+
+    /**
+     * Estampa el header como membrete, maquetado una sola vez por ancho de hoja
+     * (ver MembreteEstampado), en lugar de maquetarlo en el HTML de cada
+     * documento; como el header del HTML, sólo en la primera página
+     */
+    @Builder.Default
+    private final boolean membreteEstampado = false;
+
+    /**
+     * Con membreteEstampado, lo estampa en todas las páginas y no sólo en la
+     * primera; cambia el aspecto de los documentos de más de una página, que
+     * reservan el alto del membrete en cada una
+     */
+    @Builder.Default
+    private final boolean membreteEnTodasLasPaginas = false;
+
+    /**
+     * Bytes máximos retenidos en el pool de buffers de salida de los PDFs en
+     * memoria (ver PoolBuffersSalida); con 0 los buffers no se reutilizan, pero
+     * se siguen dimensionando según el tamaño previsto
+     */
+    @Builder.Default
+    private final long bytesPoolBuffers = 32L * 1024 * 1024;
+
+    /**
+     * Configuración con todos los valores por defecto
+     *
+     * @return Configuración por defecto
+     */
+    public static ConfiguracionGenerador porDefecto() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,145 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.thymeleaf.IEngineConfiguration;
+import org.thymeleaf.context.EngineContext;
+import org.thymeleaf.context.IContext;
+import org.thymeleaf.context.IEngineContext;
+import org.thymeleaf.context.IEngineContextFactory;
+import org.thymeleaf.context.StandardEngineContextFactory;
+import org.thymeleaf.engine.TemplateData;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Contexto de Thymeleaf respaldado directamente por un objeto Java
+ *
+ * En lugar de convertir el objeto a Map y copiar cada entrada al contexto, las
+ * variables se leen del objeto bajo demanda, con el plan de acceso cacheado de
+ * ObjectToMapConverter, sólo cuando la plantilla las referencia. Los campos
+ * excluidos no forman parte del plan y por tanto no se resuelven.
+ *
+ * La fábrica estándar de Thymeleaf copia todas las variables del IContext al
+ * contexto del motor; {@link Fabrica} evita esa copia para este contexto.
+ */
+public final class ContextoObjeto implements IContext {
+
+    private final Object objeto;
+    private final ObjectToMapConverter.PlanAcceso plan;
+    private final Locale locale;
+
+    ContextoObjeto(Object objeto, ObjectToMapConverter.PlanAcceso plan) {
+        this.objeto = objeto;
+        this.plan = plan;
+        this.locale = Locale.getDefault();
+    }
+
+    /**
+     * Contexto con los campos propios del objeto
+     *
+     * @param objeto Objeto cuyos campos serán las variables de la plantilla
+     * @return Contexto perezoso
+     */
+    public static ContextoObjeto de(Object objeto) {
+        return new ContextoObjeto(objeto, ObjectToMapConverter.planPara(objeto.getClass(), false, Set.of()));
+    }
+
+    /**
+     * Contexto con los campos del objeto y de sus superclases
+     *
+     * @param objeto Objeto cuyos campos serán las variables de la plantilla
+     * @return Contexto perezoso
+     */
+    public static ContextoObjeto conHerencia(Object objeto) {
+        return new ContextoObjeto(objeto, ObjectToMapConverter.planPara(objeto.getClass(), true, Set.of()));
+    }
+
+    /**
+     * Contexto con los campos propios del objeto salvo los excluidos
+     *
+     * @param objeto Objeto cuyos campos serán las variables de la plantilla
+     * @param camposExcluir Campos que la plantilla no podrá resolver
+     * @return Contexto perezoso
+     */
+    public static ContextoObjeto excluyendo(Object objeto, String... camposExcluir) {
+        Set<String> excluidos = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(camposExcluir)));
+        return new ContextoObjeto(objeto, ObjectToMapConverter.planPara(objeto.getClass(), false, excluidos));
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    @Override
+    public boolean containsVariable(String name) {
+        return plan.contiene(name);
+    }
+
+    @Override
+    public Set<String> getVariableNames() {
+        return plan.nombres();
+    }
+
+    @Override
+    public Object getVariable(String name) {
+        return plan.leer(objeto, name);
+    }
+
+    /**
+     * Fábrica de contextos del motor que respeta la resolución perezosa de
+     * ContextoObjeto y delega el resto de contextos en la fábrica estándar
+     */
+    static final class Fabrica implements IEngineContextFactory {
+
+        private final IEngineContextFactory estandar = new StandardEngineContextFactory();
+
+        @Override
+        public IEngineContext createEngineContext(IEngineConfiguration configuration, TemplateData templateData,
+                                                  Map<String, Object> templateResolutionAttributes, IContext context) {
+            if (context instanceof ContextoObjeto contextoObjeto) {
+                return new ContextoMotor(configuration, templateData, templateResolutionAttributes, contextoObjeto);
+            }
+            return estandar.createEngineContext(configuration, templateData, templateResolutionAttributes, context);
+        }
+    }
+
+    /**
+     * Contexto del motor cuyas variables locales (th:with, th:each...) tienen
+     * prioridad y que, en su ausencia, consulta el objeto respaldado
+     */
+    private static final class ContextoMotor extends EngineContext {
+
+        private final ContextoObjeto contextoObjeto;
+
+        private ContextoMotor(IEngineConfiguration configuration, TemplateData templateData,
+                              Map<String, Object> templateResolutionAttributes, ContextoObjeto contextoObjeto) {
+            super(configuration, templateData, templateResolutionAttributes, contextoObjeto.getLocale(), null);
+            this.contextoObjeto = contextoObjeto;
+        }
+
+        @Override
+        public boolean containsVariable(String name) {
+            return super.containsVariable(name) || contextoObjeto.containsVariable(name);
+        }
+
+        @Override
+        public Object getVariable(String key) {
+            if (super.containsVariable(key)) {
+                return super.getVariable(key);
+            }
+            return contextoObjeto.getVariable(key);
+        }
+
+        @Override
+        public Set<String> getVariableNames() {
+            Set<String> nombres = new HashSet<>(contextoObjeto.getVariableNames());
+            nombres.addAll(super.getVariableNames());
+            return nombres;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Destino en un directorio local
+ *
+ * El PDF se escribe en un archivo temporal del mismo directorio y, al
+ * confirmar, se mueve a su nombre definitivo; quien lea el directorio nunca
+ * ve un documento a medias.
+ */
+@Slf4j
+public final class DestinoArchivo implements DestinoPDF {
+
+    private final Path directorio;
+
+    /**
+     * @param directorio Directorio raíz; las claves son rutas relativas a él
+     */
+    public DestinoArchivo(Path directorio) {
+        this.directorio = directorio.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public Escritura abrir(String clave) throws IOException {
+        Path destino = directorio.resolve(clave).normalize();
+        if (!destino.startsWith(directorio) || destino.equals(directorio)) {
+            throw new IllegalArgumentException("Clave fuera del directorio de destino: " + clave);
+        }
+        Files.createDirectories(destino.getParent());
+        Path temporal = Files.createTempFile(destino.getParent(), ".pdf-generator-", ".tmp");
+        return new EscrituraArchivo(destino, temporal);
+    }
+
+    private static final class EscrituraArchivo extends Escritura {
+
+        private final Path destino;
+        private final Path temporal;
+        private final OutputStream salida;
+
+        private EscrituraArchivo(Path destino, Path temporal) throws IOException {
+            this.destino = destino;
+            this.temporal = temporal;
+            this.salida = new BufferedOutputStream(Files.newOutputStream(temporal));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            salida.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            salida.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            salida.flush();
+        }
+
+        @Override
+        public String confirmar() throws IOException {
+            try {
+                salida.close();
+                try {
+                    Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                abortar();
+                throw e;
+            }
+            return destino.toString();
+        }
+
+        @Override
+        public void abortar() {
+            try {
+                salida.close();
+            } catch (IOException ignorada) {
+                // El temporal se elimina de todos modos
+            }
+            try {
+                Files.deleteIfExists(temporal);
+            } catch (IOException e) {
+                log.warn("No se pudo eliminar el archivo temporal {}: {}", temporal, e.getMessage());
+            }
+        }
+    }
+}
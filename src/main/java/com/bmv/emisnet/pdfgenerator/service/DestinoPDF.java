@@ -0,0 +1,53 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destino donde se deja un PDF mientras se genera: un archivo local
+ * ({@link DestinoArchivo}), un objeto de S3 ({@link DestinoS3}), etc.
+ *
+ * Cada documento se escribe en una {@link Escritura} propia. El generador
+ * escribe en ella a medida que el renderer produce el PDF y al terminar la
+ * confirma; si la generación falla la aborta, y el destino no debe dejar un
+ * documento parcial visible.
+ */
+public interface DestinoPDF {
+
+    /**
+     * Abre la escritura de un documento
+     *
+     * @param clave Nombre del documento en el destino (ruta relativa, llave del objeto)
+     * @return Escritura del documento
+     * @throws IOException Si el destino no puede recibir el documento
+     */
+    Escritura abrir(String clave) throws IOException;
+
+    /**
+     * Stream de un documento en curso; termina con confirmar() o abortar()
+     */
+    abstract class Escritura extends OutputStream {
+
+        /**
+         * Termina el documento y lo hace visible en el destino
+         *
+         * @return Ubicación del documento (ruta, URI s3://)
+         * @throws IOException Si no se pudo completar; en ese caso la escritura ya quedó abortada
+         */
+        public abstract String confirmar() throws IOException;
+
+        /**
+         * Descarta el documento; no lanza excepciones para poder usarse tras un error
+         * y puede repetirse. Después no se admite escribir ni confirmar
+         */
+        public abstract void abortar();
+
+        /**
+         * Cerrar sin confirmar no publica el documento: usar confirmar() o abortar()
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
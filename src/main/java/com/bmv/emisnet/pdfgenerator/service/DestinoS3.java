@@ -0,0 +1,259 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Destino en un bucket de S3, con subida multiparte mientras se genera el PDF
+ *
+ * El PDF se acumula en partes de tamanoParte bytes; cada parte llena se sube
+ * en segundo plano mientras el renderer sigue escribiendo la siguiente, con a
+ * lo sumo partesEnVuelo subidas simultáneas (si se alcanzan, la escritura
+ * espera). En memoria viven como máximo partesEnVuelo + 1 partes, sin importar
+ * el tamaño del documento. Los documentos que caben en una sola parte se suben
+ * con un único PutObject, sin iniciar una subida multiparte.
+ *
+ * Si la generación o alguna subida fallan, la subida multiparte se aborta y
+ * en el bucket no queda ni el objeto ni las partes huérfanas.
+ */
+@Slf4j
+public final class DestinoS3 implements DestinoPDF {
+
+    /** Tamaño mínimo de parte que admite S3, salvo para la última */
+    public static final int TAMANO_MINIMO_PARTE = 5 * 1024 * 1024;
+
+    private static final int TAMANO_PARTE_DEFECTO = 8 * 1024 * 1024;
+    private static final int PARTES_EN_VUELO_DEFECTO = 2;
+    private static final String TIPO_CONTENIDO = "application/pdf";
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String prefijo;
+    private final int tamanoParte;
+    private final int partesEnVuelo;
+    private final Executor subidas;
+
+    /**
+     * Destino con partes de 8 MB, dos subidas simultáneas e hilos virtuales para subirlas
+     *
+     * @param s3 Cliente de S3
+     * @param bucket Bucket de destino
+     */
+    public DestinoS3(S3Client s3, String bucket) {
+        this(s3, bucket, "", TAMANO_PARTE_DEFECTO, PARTES_EN_VUELO_DEFECTO,
+                tarea -> Thread.ofVirtual().name("pdf-s3-parte").start(tarea));
+    }
+
+    /**
+     * @param s3 Cliente de S3
+     * @param bucket Bucket de destino
+     * @param prefijo Prefijo que se antepone a cada clave
+     * @param tamanoParte Bytes por parte, al menos {@link #TAMANO_MINIMO_PARTE}
+     * @param partesEnVuelo Máximo de partes subiéndose a la vez
+     * @param subidas Ejecutor de las subidas de partes
+     */
+    public DestinoS3(S3Client s3, String bucket, String prefijo, int tamanoParte, int partesEnVuelo,
+                     Executor subidas) {
+        this(s3, bucket, prefijo, tamanoParte, partesEnVuelo, subidas, TAMANO_MINIMO_PARTE);
+    }
+
+    /**
+     * Constructor sin el mínimo de S3 para el tamaño de parte, para pruebas
+     */
+    DestinoS3(S3Client s3, String bucket, String prefijo, int tamanoParte, int partesEnVuelo,
+              Executor subidas, int tamanoMinimoParte) {
+        if (tamanoParte < tamanoMinimoParte) {
+            throw new IllegalArgumentException("El tamaño de parte debe ser de al menos " + tamanoMinimoParte
+                    + " bytes: " + tamanoParte);
+        }
+        if (partesEnVuelo < 1) {
+            throw new IllegalArgumentException("Debe haber al menos una parte en vuelo: " + partesEnVuelo);
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.prefijo = prefijo;
+        this.tamanoParte = tamanoParte;
+        this.partesEnVuelo = partesEnVuelo;
+        this.subidas = subidas;
+    }
+
+    @Override
+    public Escritura abrir(String clave) {
+        return new EscrituraS3(prefijo + clave);
+    }
+
+    private final class EscrituraS3 extends Escritura {
+
+        private final String llave;
+        private final Semaphore enVuelo = new Semaphore(partesEnVuelo);
+        private final Queue<byte[]> libres = new ConcurrentLinkedQueue<>();
+        private final List<CompletableFuture<CompletedPart>> partes = new ArrayList<>();
+        private volatile Throwable fallo;
+        private String idSubida;
+        private byte[] parte;
+        private int llenos;
+        private boolean abortada;
+
+        private EscrituraS3(String llave) {
+            this.llave = llave;
+            this.parte = new byte[tamanoParte];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            verificarVigente();
+            if (llenos == parte.length) {
+                enviarParte();
+            }
+            parte[llenos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            verificarVigente();
+            while (len > 0) {
+                if (llenos == parte.length) {
+                    enviarParte();
+                }
+                int copiados = Math.min(len, parte.length - llenos);
+                System.arraycopy(b, off, parte, llenos, copiados);
+                llenos += copiados;
+                off += copiados;
+                len -= copiados;
+            }
+        }
+
+        @Override
+        public String confirmar() throws IOException {
+            verificarVigente();
+            try {
+                if (idSubida == null) {
+                    s3.putObject(solicitud -> solicitud.bucket(bucket).key(llave).contentType(TIPO_CONTENIDO),
+                            cuerpo(parte, llenos));
+                } else {
+                    if (llenos > 0) {
+                        enviarParte();
+                    }
+                    List<CompletedPart> completadas = new ArrayList<>(partes.size());
+                    for (CompletableFuture<CompletedPart> subida : partes) {
+                        completadas.add(subida.join());
+                    }
+                    s3.completeMultipartUpload(solicitud -> solicitud.bucket(bucket).key(llave).uploadId(idSubida)
+                            .multipartUpload(subida -> subida.parts(completadas)));
+                }
+            } catch (IOException e) {
+                abortar();
+                throw e;
+            } catch (SdkException | CompletionException e) {
+                abortar();
+                throw new IOException("No se pudo subir s3://" + bucket + "/" + llave, causa(e));
+            }
+            log.debug("PDF subido a s3://{}/{} en {} partes", bucket, llave, Math.max(1, partes.size()));
+            return "s3://" + bucket + "/" + llave;
+        }
+
+        @Override
+        public void abortar() {
+            abortada = true;
+            for (CompletableFuture<CompletedPart> subida : partes) {
+                try {
+                    subida.join();
+                } catch (CompletionException ignorada) {
+                    // Se aborta la subida completa
+                }
+            }
+            if (idSubida != null) {
+                try {
+                    s3.abortMultipartUpload(solicitud -> solicitud.bucket(bucket).key(llave).uploadId(idSubida));
+                } catch (SdkException e) {
+                    log.warn("No se pudo abortar la subida {} de s3://{}/{}: {}", idSubida, bucket, llave,
+                            e.getMessage());
+                }
+                idSubida = null;
+            }
+            partes.clear();
+            llenos = 0;
+        }
+
+        /**
+         * Una escritura abortada ya no tiene subida: escribir o confirmar después
+         * publicaría un documento incompleto
+         */
+        private void verificarVigente() {
+            if (abortada) {
+                throw new IllegalStateException("La escritura de s3://" + bucket + "/" + llave + " ya se abortó");
+            }
+        }
+
+        /**
+         * Envía la parte llena en segundo plano y continúa sobre un buffer libre
+         */
+        private void enviarParte() throws IOException {
+            Throwable previo = fallo;
+            if (previo != null) {
+                throw new IOException("Falló la subida de una parte de s3://" + bucket + "/" + llave, previo);
+            }
+            try {
+                if (idSubida == null) {
+                    idSubida = s3.createMultipartUpload(solicitud -> solicitud.bucket(bucket).key(llave)
+                            .contentType(TIPO_CONTENIDO)).uploadId();
+                }
+                enVuelo.acquire();
+            } catch (SdkException e) {
+                throw new IOException("No se pudo iniciar la subida de s3://" + bucket + "/" + llave, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido esperando la subida de una parte");
+            }
+
+            byte[] contenido = parte;
+            int longitud = llenos;
+            int numero = partes.size() + 1;
+            String id = idSubida;
+            CompletableFuture<CompletedPart> subida = CompletableFuture.supplyAsync(() -> {
+                String etiqueta = s3.uploadPart(solicitud -> solicitud.bucket(bucket).key(llave).uploadId(id)
+                        .partNumber(numero).contentLength((long) longitud), cuerpo(contenido, longitud)).eTag();
+                return CompletedPart.builder().partNumber(numero).eTag(etiqueta).build();
+            }, subidas);
+            subida.whenComplete((completada, error) -> {
+                if (error != null) {
+                    fallo = causa(error);
+                }
+                libres.add(contenido);
+                enVuelo.release();
+            });
+            partes.add(subida);
+
+            byte[] libre = libres.poll();
+            parte = libre != null ? libre : new byte[tamanoParte];
+            llenos = 0;
+        }
+    }
+
+    /**
+     * Cuerpo que lee directamente del buffer de la parte, sin copiarlo
+     */
+    private static RequestBody cuerpo(byte[] contenido, int longitud) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(contenido, 0, longitud), longitud,
+                TIPO_CONTENIDO);
+    }
+
+    private static Throwable causa(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
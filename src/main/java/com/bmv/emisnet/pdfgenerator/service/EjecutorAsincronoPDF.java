@@ -0,0 +1,151 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ejecutor acotado para la generación asíncrona de PDFs, con control de admisión
+ *
+ * Un número fijo de hilos genera documentos y una cola de capacidad fija guarda
+ * los que esperan turno. Cuando la cola está llena el documento se rechaza de
+ * inmediato en lugar de acumular hilos bloqueados y memoria: el llamador recibe
+ * un futuro ya fallido con RejectedExecutionException y puede responder 503.
+ *
+ * Cancelar un futuro, o que venza su tiempo máximo, libera su lugar en la cola
+ * si aún no empezó, o interrumpe su hilo si ya está en curso (la espera por un
+ * renderer del pool responde a la interrupción).
+ *
+ * Sus métricas llevan el carril y el generador como etiquetas y se retiran del
+ * registro al cerrarlo.
+ */
+final class EjecutorAsincronoPDF {
+
+    private final ThreadPoolExecutor ejecutor;
+    private final int capacidadCola;
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final LongAdder rechazados = new LongAdder();
+    private final MeterRegistry registro;
+    private final List<Meter> medidores;
+
+    /**
+     * @param carril Nombre del ejecutor, usado en los hilos y como etiqueta de sus métricas
+     * @param hilos Documentos generados a la vez
+     * @param capacidadCola Documentos que pueden esperar turno
+     * @param registro Registro donde se publican la profundidad de la cola, los documentos en curso y los rechazos
+     * @param generador Nombre del generador dueño del ejecutor, también etiqueta de sus métricas
+     */
+    EjecutorAsincronoPDF(String carril, int hilos, int capacidadCola, MeterRegistry registro, String generador) {
+        AtomicInteger contador = new AtomicInteger();
+        this.capacidadCola = capacidadCola;
+        this.ejecutor = new ThreadPoolExecutor(hilos, hilos, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacidadCola), tarea -> {
+                    Thread hilo = new Thread(tarea, "pdf-" + carril + "-" + contador.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+        // Sin carga no quedan hilos ociosos
+        this.ejecutor.allowCoreThreadTimeOut(true);
+
+        Tags etiquetas = Tags.of("carril", carril, "generador", generador);
+        this.registro = registro;
+        this.medidores = List.of(
+                Gauge.builder("pdf.asincrono.cola", ejecutor, pool -> pool.getQueue().size())
+                        .description("Documentos en espera de generación asíncrona")
+                        .tags(etiquetas)
+                        .register(registro),
+                Gauge.builder("pdf.asincrono.en.curso", enCurso, AtomicInteger::get)
+                        .description("Documentos en generación asíncrona")
+                        .tags(etiquetas)
+                        .register(registro),
+                FunctionCounter.builder("pdf.asincrono.rechazados", rechazados, LongAdder::sum)
+                        .description("Documentos rechazados por cola llena")
+                        .tags(etiquetas)
+                        .register(registro));
+    }
+
+    /**
+     * Encola un trabajo, o lo rechaza de inmediato si la cola está llena
+     *
+     * @param trabajo Generación a ejecutar
+     * @param tiempoMaximo Tiempo máximo desde el envío, incluida la espera en cola; null sin límite
+     * @return Futuro con el resultado; fallido con RejectedExecutionException si se rechazó
+     *         o con TimeoutException si venció el tiempo máximo
+     */
+    <T> CompletableFuture<T> enviar(Callable<T> trabajo, Duration tiempoMaximo) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        FutureTask<Void> tarea = new FutureTask<>(() -> {
+            // El contador se actualiza antes de completar, para que quien recibe el resultado ya no lo cuente
+            enCurso.incrementAndGet();
+            T valor;
+            try {
+                valor = trabajo.call();
+            } catch (Throwable e) {
+                enCurso.decrementAndGet();
+                resultado.completeExceptionally(e);
+                return;
+            }
+            enCurso.decrementAndGet();
+            resultado.complete(valor);
+        }, null);
+
+        try {
+            ejecutor.execute(tarea);
+        } catch (RejectedExecutionException e) {
+            if (ejecutor.isShutdown()) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("El generador está cerrado"));
+            }
+            rechazados.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Cola de generación llena (" + capacidadCola + " documentos en espera)"));
+        }
+
+        if (tiempoMaximo != null) {
+            resultado.orTimeout(tiempoMaximo.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        resultado.whenComplete((valor, error) -> {
+            if (error instanceof CancellationException || error instanceof TimeoutException) {
+                tarea.cancel(true);
+                ejecutor.remove(tarea);
+            }
+        });
+        return resultado;
+    }
+
+    /**
+     * Deja de admitir documentos y retira sus métricas del registro; los que ya
+     * estaban en cola o en curso terminan
+     */
+    void cerrar() {
+        ejecutor.shutdown();
+        medidores.forEach(registro::remove);
+    }
+
+    int getEnCola() {
+        return ejecutor.getQueue().size();
+    }
+
+    int getEnCurso() {
+        return enCurso.get();
+    }
+
+    long getRechazados() {
+        return rechazados.sum();
+    }
+}
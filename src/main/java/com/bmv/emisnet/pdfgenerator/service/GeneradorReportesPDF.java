@@ -1,16 +1,62 @@
 package com.bmv.emisnet.pdfgenerator.service;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.ExceptionConverter;
+import com.lowagie.text.pdf.PdfPageEvent;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.thymeleaf.IThrottledTemplateProcessor;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IContext;
 import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.css.style.EmptyStyle;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
 import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.render.PageBox;
+import org.xhtmlrenderer.resource.XMLResource;
+import org.xml.sax.InputSource;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Servicio genérico para generar PDFs usando plantillas HTML con Thymeleaf
@@ -19,15 +65,71 @@ import java.util.Map;
  * Esta clase está diseñada para ser utilizada como librería reutilizable
  * que puede generar PDFs a partir de cualquier plantilla Thymeleaf y datos.
  * La orientación del PDF se define en la plantilla HTML con CSS.
- * Todos los métodos retornan byte[] para máxima flexibilidad de uso.
+ * Los métodos básicos retornan byte[]; para documentos grandes existen variantes
+ * que escriben directamente en un OutputStream o canal, o que desbordan a archivo.
+ * 
+ * Uso concurrente: una misma instancia puede generar PDFs desde varios hilos,
+ * ya sea directamente o mediante generarLote(). El TemplateEngine compartido se
+ * configura por completo en el constructor y no se modifica después; una vez
+ * inicializado, Thymeleaf admite procesar plantillas en paralelo porque cada
+ * llamada usa su propio contexto. Cada documento se maqueta con un renderer
+ * exclusivo del pool, y las hojas de estilo compartidas sólo se comparten entre
+ * documentos que les asignan la misma numeración de selectores (ver
+ * CacheHojasEstilo). Lo único que el llamador debe garantizar es no modificar los
+ * datos de un documento mientras se genera. generarPDFAsincrono() acota además
+ * cuántos documentos esperan turno y rechaza de inmediato los que no caben.
+ * 
+ * Cada documento generado publica sus tiempos por fase, tamaño y páginas en
+ * Micrometer, con la plantilla como etiqueta (ver MetricasGenerador). Las
+ * métricas de estado del generador (cola asíncrona, pool de buffers) llevan
+ * su nombre como etiqueta y se retiran del registro con cerrar().
  */
 @Service
 @Slf4j
 public class GeneradorReportesPDF {
     
+    /** Plantilla de un fragmento, con ~{...} o con la sintaxis sin ~{} de th:insert/th:replace */
+    private static final Pattern REFERENCIA_FRAGMENTO = Pattern.compile(
+            "~\\{\\s*([\\w./-]+)|th:(?:insert|replace|include)\\s*=\\s*\"\\s*([\\w./-]+)");
+    /** Numeración de los generadores sin nombre configurado */
+    private static final AtomicInteger GENERADORES = new AtomicInteger();
+    /** Tablas en que reporte-posiciones muestra las posiciones de cada grupo */
+    private static final int TABLAS_REPORTE_POSICIONES = 3;
+    
     private final TemplateEngine templateEngine;
+    private final ResolutorPlantillasPrecompiladas plantillasPrecompiladas;
+    private final CacheHojasEstilo cacheHojasEstilo;
+    private final CacheRecursos cacheRecursos;
+    private final PoolRenderizadores poolRenderizadores;
+    private final boolean procesamientoPorBloques;
+    private final int paralelismoLote;
+    private final boolean hilosVirtualesLote;
+    private final CacheResultadosPDF cacheResultados;
+    private final RegistroFuentes registroFuentes;
+    private final MetricasGenerador metricas;
+    private final String nombre;
+    private final EjecutorAsincronoPDF ejecutorAsincrono;
+    private final Duration tiempoMaximoAsincrono;
+    private final Map<String, String> versionesPlantilla = new ConcurrentHashMap<>();
+    private final String huellaConfiguracion;
+    private final PodaCss.Modo modoPodaCss;
+    private final Map<String, PodaCss> podasCss = new ConcurrentHashMap<>();
+    private final PerfilSalida perfilSalida;
+    private final MembreteEstampado membrete;
+    private final Map<String, Boolean> usanMembrete = new ConcurrentHashMap<>();
+    private final Map<String, Float> anchosPagina = new ConcurrentHashMap<>();
+    private final PoolBuffersSalida poolBuffers;
     
     public GeneradorReportesPDF() {
+        this(ConfiguracionGenerador.porDefecto());
+    }
+    
+    /**
+     * Crea el servicio con parámetros de ajuste específicos
+     * 
+     * @param configuracion Tamaños de pool y demás parámetros de ajuste
+     */
+    public GeneradorReportesPDF(ConfiguracionGenerador configuracion) {
         // Configurar Thymeleaf
         ClassLoaderTemplateResolver templateResolver = new ClassLoaderTemplateResolver();
         templateResolver.setPrefix("templates/");
@@ -36,7 +138,51 @@ public class GeneradorReportesPDF {
         templateResolver.setCharacterEncoding("UTF-8");
         
         this.templateEngine = new TemplateEngine();
-        this.templateEngine.setTemplateResolver(templateResolver);
+        
+        // El paquete precompilado, si existe, va primero; lo que no contiene se lee del classpath
+        this.plantillasPrecompiladas = configuracion.isPlantillasPrecompiladas()
+                ? ResolutorPlantillasPrecompiladas.cargar(getClass().getClassLoader()) : null;
+        if (plantillasPrecompiladas != null) {
+            plantillasPrecompiladas.setOrder(1);
+            templateResolver.setOrder(2);
+            this.templateEngine.addTemplateResolver(plantillasPrecompiladas);
+        }
+        this.templateEngine.addTemplateResolver(templateResolver);
+        this.templateEngine.setEngineContextFactory(new ContextoObjeto.Fabrica());
+        
+        // Configurar la ruta base para recursos (imágenes, CSS, etc.)
+        // Esto permite que el renderer encuentre las imágenes con rutas relativas
+        String baseUrl = this.getClass().getClassLoader().getResource("templates/").toString();
+        this.cacheHojasEstilo = new CacheHojasEstilo(baseUrl);
+        
+        // Renderers reutilizables entre documentos
+        this.cacheRecursos = configuracion.getCacheRecursos();
+        this.registroFuentes = configuracion.getRegistroFuentes();
+        this.poolRenderizadores = new PoolRenderizadores(
+                this::crearRenderer,
+                configuracion.getTamanoPoolRenderizadores(),
+                configuracion.getEsperaMaximaRenderizador(),
+                configuracion.getMaxPaginasReutilizacion());
+        
+        this.procesamientoPorBloques = configuracion.isProcesamientoPorBloques();
+        this.paralelismoLote = configuracion.getParalelismoLote();
+        this.hilosVirtualesLote = configuracion.isHilosVirtualesLote();
+        this.cacheResultados = configuracion.getCacheResultados();
+        this.metricas = new MetricasGenerador(configuracion.getRegistroMetricas(), configuracion.isMetricasEnLog());
+        this.nombre = configuracion.getNombre() != null
+                ? configuracion.getNombre() : "generador-" + GENERADORES.incrementAndGet();
+        this.ejecutorAsincrono = new EjecutorAsincronoPDF("general", configuracion.getHilosAsincronos(),
+                configuracion.getCapacidadColaAsincrona(), configuracion.getRegistroMetricas(), nombre);
+        this.tiempoMaximoAsincrono = configuracion.getTiempoMaximoAsincrono();
+        this.modoPodaCss = configuracion.getPodaCss();
+        this.perfilSalida = configuracion.getPerfilSalida();
+        this.membrete = configuracion.isMembreteEstampado()
+                ? new MembreteEstampado(this::maquetarMembrete, configuracion.isMembreteEnTodasLasPaginas()) : null;
+        this.poolBuffers = new PoolBuffersSalida(configuracion.getBytesPoolBuffers(),
+                configuracion.getRegistroMetricas(), nombre);
+        // Lo que cambia los bytes del PDF, para que generadores distintos puedan compartir la caché de resultados
+        this.huellaConfiguracion = HuellaDatos.de(perfilSalida.name(), configuracion.isMembreteEstampado(),
+                configuracion.isMembreteEnTodasLasPaginas(), modoPodaCss.name(), registroFuentes.getHuella());
     }
     
     /**
@@ -52,25 +198,953 @@ public class GeneradorReportesPDF {
     public byte[] generarPDF(String nombrePlantilla, Map<String, Object> datos) 
             throws IOException, DocumentException {
         
-        String htmlContent = procesarPlantilla(nombrePlantilla, datos);
+        return generarPDFCacheado(nombrePlantilla, crearContexto(datos), null, datos);
+    }
+    
+    /**
+     * Genera un PDF con un perfil de salida explícito, en lugar del que declare
+     * la plantilla o el de la configuración
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param perfil Perfil de escritura: RAPIDO para descargas, COMPACTO para archivo
+     * @return Array de bytes con el contenido del PDF
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public byte[] generarPDF(String nombrePlantilla, Map<String, Object> datos, PerfilSalida perfil) 
+            throws IOException, DocumentException {
+        
+        return generarPDFCacheado(nombrePlantilla, crearContexto(datos), perfil, datos, perfil);
+    }
+    
+    /**
+     * Genera un PDF sin consultar ni llenar la caché de resultados; para el
+     * calentamiento, que no debe dejar en ella documentos sintéticos ni medir
+     * un acierto como si fuera una generación
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return Array de bytes con el contenido del PDF
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    byte[] generarPDFSinCache(String nombrePlantilla, Map<String, Object> datos)
+            throws IOException, DocumentException {
+        
+        return generarPDFEnMemoria(nombrePlantilla, crearContexto(datos), null);
+    }
+    
+    /**
+     * Sirve el PDF desde la caché de resultados si está configurada y ya contiene
+     * el documento; en otro caso lo genera y lo registra
+     * 
+     * @param perfil Perfil de salida explícito, o null para el de la plantilla
+     * @param partesHuella Datos que determinan el contenido del documento
+     */
+    private byte[] generarPDFCacheado(String nombrePlantilla, IContext contexto, PerfilSalida perfil, 
+            Object... partesHuella) throws IOException, DocumentException {
+        
+        if (cacheResultados == null) {
+            return generarPDFEnMemoria(nombrePlantilla, contexto, perfil);
+        }
         
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            ITextRenderer renderer = new ITextRenderer();
+        String huella = HuellaDatos.de(versionPlantilla(nombrePlantilla), huellaConfiguracion, partesHuella);
+        byte[] pdf = cacheResultados.obtener(nombrePlantilla, huella);
+        metricas.registrarCache(nombrePlantilla, pdf != null);
+        if (pdf != null) {
+            log.debug("PDF de la plantilla {} servido desde la caché", nombrePlantilla);
+            return pdf;
+        }
+        
+        pdf = generarPDFEnMemoria(nombrePlantilla, contexto, perfil);
+        cacheResultados.guardar(nombrePlantilla, huella, pdf);
+        return pdf;
+    }
+    
+    /**
+     * Versión de una plantilla: huella de su contenido y del de los fragmentos
+     * que referencia, directa o indirectamente
+     */
+    private String versionPlantilla(String nombrePlantilla) {
+        return versionesPlantilla.computeIfAbsent(nombrePlantilla, nombre -> {
+            List<Object> contenidos = new ArrayList<>();
+            leerConFragmentos(nombre, new HashSet<>(), contenidos);
+            return HuellaDatos.de(contenidos.toArray());
+        });
+    }
+    
+    /**
+     * Poda de CSS de una plantilla, calculada la primera vez a partir de su
+     * fuente y el de sus fragmentos
+     * 
+     * @return Poda de la plantilla, o null si la poda está desactivada
+     */
+    PodaCss podaPara(String nombrePlantilla) {
+        if (modoPodaCss == PodaCss.Modo.DESACTIVADA) {
+            return null;
+        }
+        return podasCss.computeIfAbsent(nombrePlantilla, nombre -> {
+            List<Object> contenidos = new ArrayList<>();
+            leerConFragmentos(nombre, new HashSet<>(), contenidos);
+            List<String> fuentes = new ArrayList<>(contenidos.size());
+            contenidos.forEach(contenido -> fuentes.add((String) contenido));
+            return PodaCss.para(nombre, fuentes);
+        });
+    }
+    
+    private void leerConFragmentos(String nombrePlantilla, Set<String> visitadas, List<Object> contenidos) {
+        if (!visitadas.add(nombrePlantilla)) {
+            return;
+        }
+        
+        String ruta = "templates/" + nombrePlantilla + ".html";
+        try (InputStream entrada = getClass().getClassLoader().getResourceAsStream(ruta)) {
+            if (entrada == null) {
+                contenidos.add(nombrePlantilla);
+                return;
+            }
+            String contenido = new String(entrada.readAllBytes(), StandardCharsets.UTF_8);
+            contenidos.add(contenido);
             
-            // Configurar documento HTML
-            renderer.setDocumentFromString(htmlContent);
+            Matcher referencias = REFERENCIA_FRAGMENTO.matcher(contenido);
+            while (referencias.find()) {
+                String fragmento = referencias.group(1) != null ? referencias.group(1) : referencias.group(2);
+                // "this" es la propia plantilla, ya leída
+                if (!fragmento.equals("this")) {
+                    leerConFragmentos(fragmento, visitadas, contenidos);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer la plantilla " + ruta, e);
+        }
+    }
+    
+    /**
+     * Descarta todo lo derivado de una plantilla tras modificarla: su versión,
+     * la plantilla ya parseada por Thymeleaf, su poda de CSS, si usa el membrete
+     * estampado, sus PDFs cacheados y el paquete precompilado, si se usaba
+     * Como los fragmentos son compartidos, se recalculan las versiones de todas las plantillas
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     */
+    public void invalidarPlantilla(String nombrePlantilla) {
+        versionesPlantilla.clear();
+        podasCss.clear();
+        usanMembrete.clear();
+        anchosPagina.clear();
+        if (plantillasPrecompiladas != null) {
+            // El paquete ya no corresponde a las plantillas del classpath
+            plantillasPrecompiladas.descartar();
+        }
+        templateEngine.clearTemplateCache();
+        if (cacheResultados != null) {
+            cacheResultados.invalidarPlantilla(nombrePlantilla);
+        }
+    }
+    
+    /**
+     * Indica si una plantilla se sirve desde el paquete precompilado
+     */
+    boolean esPrecompilada(String nombrePlantilla) {
+        return plantillasPrecompiladas != null && plantillasPrecompiladas.contiene(nombrePlantilla);
+    }
+    
+    private byte[] generarPDFEnMemoria(String nombrePlantilla, IContext contexto, PerfilSalida perfil) 
+            throws IOException, DocumentException {
+        
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        try {
+            Document documento = construirDocumento(nombrePlantilla, contexto, medicion);
+            if (perfil != null) {
+                PerfilSalida.fijar(documento, perfil);
+            }
             
-            // Configurar la ruta base para recursos (imágenes, CSS, etc.)
-            // Esto permite que el renderer encuentre las imágenes con rutas relativas
-            String baseUrl = this.getClass().getClassLoader().getResource("templates/").toString();
-            renderer.getSharedContext().setBaseURL(baseUrl);
+            // Buffer ya dimensionado para el tamaño previsto, sin copias al crecer
+            PoolBuffersSalida.Buffer buffer = poolBuffers.obtener(nombrePlantilla,
+                    PoolBuffersSalida.cardinalidad(contexto));
+            try {
+                renderizar(documento, buffer, 1, medicion);
+                buffer.terminar();
+                byte[] pdf = buffer.toByteArray();
+                medicion.finalizar(pdf.length);
+                
+                log.debug("PDF generado en memoria exitosamente");
+                return pdf;
+            } finally {
+                buffer.devolver();
+            }
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Genera un PDF escribiéndolo directamente en el stream del llamador,
+     * sin acumular el documento completo en memoria
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param salida Stream donde se escribe el PDF
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarPDF(String nombrePlantilla, Map<String, Object> datos, OutputStream salida) 
+            throws IOException, DocumentException {
+        
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        try {
+            Document documento = construirDocumento(nombrePlantilla, crearContexto(datos), medicion);
+            
+            // El PdfWriter cierra su stream al terminar el documento; el del llamador debe seguir abierto
+            SalidaNoCerrable outputStream = new SalidaNoCerrable(new BufferedOutputStream(salida));
+            renderizar(documento, outputStream, 1, medicion);
+            outputStream.flush();
+            medicion.finalizar(outputStream.getBytesEscritos());
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
+        }
+        
+        log.debug("PDF generado en stream exitosamente");
+    }
+    
+    /**
+     * Genera un PDF escribiéndolo directamente en un canal del llamador
+     * El canal no se cierra al terminar
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param canal Canal donde se escribe el PDF
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarPDF(String nombrePlantilla, Map<String, Object> datos, WritableByteChannel canal) 
+            throws IOException, DocumentException {
+        
+        generarPDF(nombrePlantilla, datos, Channels.newOutputStream(canal));
+    }
+
+    /**
+     * Genera un PDF escribiéndolo en un destino (archivo local, S3) a medida
+     * que se produce, sin acumular el documento completo en memoria
+     * Si la generación falla la escritura se aborta y el destino no conserva
+     * el documento parcial
+     *
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param destino Destino del PDF
+     * @param clave Nombre del documento en el destino
+     * @return Ubicación del documento en el destino
+     * @throws IOException Si hay error de I/O o el destino no pudo completar el documento
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public String generarPDF(String nombrePlantilla, Map<String, Object> datos, DestinoPDF destino, String clave)
+            throws IOException, DocumentException {
+
+        DestinoPDF.Escritura escritura = destino.abrir(clave);
+        try {
+            generarPDF(nombrePlantilla, datos, escritura);
+        } catch (ExceptionConverter e) {
+            escritura.abortar();
+            // OpenPDF envuelve los errores del stream; el del destino se propaga como tal
+            if (e.getException() instanceof IOException errorDestino) {
+                throw errorDestino;
+            }
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            escritura.abortar();
+            throw e;
+        }
+        return escritura.confirmar();
+    }
+
+    /**
+     * Genera un PDF en un buffer del pool de salida, sin la copia final a un
+     * byte[] propio; el buffer vuelve al pool al cerrar el resultado, que debe
+     * cerrarse en cuanto se haya consumido, y los streams abiertos sobre él
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return PDF en memoria, legible hasta cerrar el resultado
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public ResultadoPDF generarPDFEnBuffer(String nombrePlantilla, Map<String, Object> datos) 
+            throws IOException, DocumentException {
+        
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        ResultadoPDF resultado;
+        try {
+            IContext contexto = crearContexto(datos);
+            Document documento = construirDocumento(nombrePlantilla, contexto, medicion);
+            
+            PoolBuffersSalida.Buffer buffer = poolBuffers.obtener(nombrePlantilla,
+                    PoolBuffersSalida.cardinalidad(contexto));
+            try {
+                renderizar(documento, buffer, 1, medicion);
+            } catch (IOException | RuntimeException e) {
+                buffer.devolver();
+                throw e;
+            }
+            
+            buffer.terminar();
+            resultado = ResultadoPDF.enBuffer(buffer);
+            medicion.finalizar(resultado.getTamano());
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
+        }
+        log.debug("PDF generado en buffer del pool ({} bytes)", resultado.getTamano());
+        return resultado;
+    }
+
+    /**
+     * Genera un PDF que se conserva en memoria mientras no supere el umbral
+     * y se desborda a un archivo temporal en caso contrario
+     * El llamador debe cerrar el resultado para eliminar el archivo temporal
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param umbralBytes Tamaño máximo que se mantiene en memoria
+     * @return PDF en memoria o en archivo temporal
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public ResultadoPDF generarPDFConDesborde(String nombrePlantilla, Map<String, Object> datos, long umbralBytes) 
+            throws IOException, DocumentException {
+        
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        ResultadoPDF resultado;
+        try {
+            Document documento = construirDocumento(nombrePlantilla, crearContexto(datos), medicion);
             
-            renderer.layout();
-            renderer.createPDF(outputStream);
+            SalidaDesbordable salida = new SalidaDesbordable(umbralBytes);
+            try {
+                renderizar(documento, salida, 1, medicion);
+            } catch (IOException | RuntimeException e) {
+                salida.descartar();
+                throw e;
+            }
             
-            log.debug("PDF generado en memoria exitosamente");
-            return outputStream.toByteArray();
+            resultado = salida.finalizar();
+            medicion.finalizar(resultado.getTamano());
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
         }
+        log.debug("PDF generado {} ({} bytes)", resultado.isEnMemoria() ? "en memoria" : "en archivo temporal",
+                resultado.getTamano());
+        return resultado;
+    }
+    
+    /**
+     * Genera un reporte de posiciones por tramos de filas, con memoria acotada
+     * 
+     * Cada tramo se maqueta como un PDF independiente con a lo sumo filasPorTramo
+     * posiciones y se agrega al documento final en cuanto termina, por lo que el
+     * consumo de memoria depende del tamaño del tramo y no del total de posiciones.
+     * El encabezado del reporte sólo aparece en el primer tramo. Cada una de las
+     * tres tablas de un grupo se reparte por separado, de modo que el documento
+     * conserva el orden del generado de una vez.
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param datos Datos del reporte-posiciones
+     * @param filasPorTramo Máximo de filas por tramo, sumadas las de las tres tablas
+     * @param salida Stream donde se escribe el PDF combinado
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarReportePosicionesPorTramos(Map<String, Object> datos, int filasPorTramo, OutputStream salida) 
+            throws IOException, DocumentException {
+        
+        generarPDFPorTramos("reporte-posiciones",
+                new TramosPorFilas(datos, "gruposPosiciones", "posiciones", filasPorTramo,
+                        TABLAS_REPORTE_POSICIONES), salida);
+    }
+    
+    /**
+     * Genera un único PDF a partir de varios tramos de datos de la misma plantilla
+     * Las páginas de cada tramo continúan la numeración del anterior
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param tramos Datos de cada tramo, en orden
+     * @param salida Stream donde se escribe el PDF combinado
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarPDFPorTramos(String nombrePlantilla, Iterator<Map<String, Object>> tramos, OutputStream salida) 
+            throws IOException, DocumentException {
+        
+        SalidaNoCerrable outputStream = new SalidaNoCerrable(new BufferedOutputStream(salida));
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        int numeroTramos = 0;
+        
+        // El combinador cierra su stream al terminar; el del llamador debe seguir abierto
+        try (CombinadorPDF combinador = new CombinadorPDF(outputStream)) {
+            ByteArrayOutputStream fragmento = new ByteArrayOutputStream();
+            while (tramos.hasNext()) {
+                Document documento = construirDocumento(nombrePlantilla, crearContexto(tramos.next()), medicion);
+                
+                fragmento.reset();
+                renderizar(documento, fragmento, combinador.getPaginas() + 1, medicion);
+                combinador.agregar(fragmento.toByteArray());
+                numeroTramos++;
+            }
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
+        }
+        outputStream.flush();
+        medicion.finalizar(outputStream.getBytesEscritos());
+        
+        log.debug("PDF generado en {} tramos", numeroTramos);
+    }
+    
+    /**
+     * Genera un compendio: varios documentos independientes reunidos en un único PDF
+     * 
+     * Cada documento se maqueta por separado, con su propia numeración de páginas, y
+     * se agrega al compendio en cuanto termina; en memoria sólo vive el documento en
+     * curso, y el compendio se escribe en el stream a medida que crece. Las imágenes,
+     * fuentes y demás streams idénticos entre documentos (el logo, por ejemplo) se
+     * escriben una sola vez. Cada documento lleva un marcador a su primera página.
+     * Si un documento falla, la generación se detiene con el compendio incompleto.
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param trabajos Documentos del compendio, en orden
+     * @param titulos Título del marcador de cada documento
+     * @param salida Stream donde se escribe el compendio
+     * @return Número de documentos del compendio
+     * @throws IOException Si hay error de I/O
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public int generarCompendio(Iterator<TrabajoPDF> trabajos, Function<TrabajoPDF, String> titulos,
+            OutputStream salida) throws IOException, DocumentException {
+        
+        SalidaNoCerrable outputStream = new SalidaNoCerrable(new BufferedOutputStream(salida));
+        int documentos = 0;
+        
+        // El combinador cierra su stream al terminar; el del llamador debe seguir abierto
+        try (CombinadorPDF combinador = new CombinadorPDF(outputStream)) {
+            ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+            while (trabajos.hasNext()) {
+                TrabajoPDF trabajo = trabajos.next();
+                MetricasGenerador.Medicion medicion = metricas.iniciar(trabajo.nombrePlantilla());
+                try {
+                    Document documento = construirDocumento(trabajo.nombrePlantilla(),
+                            crearContexto(trabajo.datos()), medicion);
+                    pdf.reset();
+                    renderizar(documento, pdf, 1, medicion);
+                    medicion.finalizar(pdf.size());
+                } catch (IOException | RuntimeException e) {
+                    medicion.fallar(e);
+                    throw e;
+                }
+                combinador.agregar(pdf.toByteArray(), titulos.apply(trabajo));
+                documentos++;
+            }
+        }
+        outputStream.flush();
+        
+        log.debug("Compendio de {} documentos generado ({} bytes)", documentos, outputStream.getBytesEscritos());
+        return documentos;
+    }
+    
+    /**
+     * Genera un reporte de posiciones maquetando sus tramos en paralelo
+     * 
+     * Igual que generarReportePosicionesPorTramos, pero hasta paralelismoLote tramos
+     * se maquetan a la vez en distintos núcleos; el documento final conserva el
+     * orden de los tramos y la numeración continua de páginas.
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param datos Datos del reporte-posiciones
+     * @param filasPorTramo Máximo de filas por tramo, sumadas las de las tres tablas
+     * @param salida Stream donde se escribe el PDF combinado
+     * @throws IOException Si hay error de I/O o el hilo llamador es interrumpido
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarReportePosicionesEnParalelo(Map<String, Object> datos, int filasPorTramo, OutputStream salida) 
+            throws IOException, DocumentException {
+        
+        generarPDFPorTramosEnParalelo("reporte-posiciones",
+                new TramosPorFilas(datos, "gruposPosiciones", "posiciones", filasPorTramo,
+                        TABLAS_REPORTE_POSICIONES), salida);
+    }
+    
+    /**
+     * Genera un único PDF a partir de varios tramos de la misma plantilla, maquetándolos en paralelo
+     * 
+     * Cada tramo toma su página inicial del total de páginas de los tramos anteriores
+     * en cuanto éstos terminan su maquetación, de modo que sólo la escritura del PDF
+     * espera a los tramos previos. Nunca hay más de paralelismoLote tramos en memoria.
+     * El stream no se cierra; sólo se vacía (flush) al terminar
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param tramos Datos de cada tramo, en orden
+     * @param salida Stream donde se escribe el PDF combinado
+     * @throws IOException Si hay error de I/O o el hilo llamador es interrumpido
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    public void generarPDFPorTramosEnParalelo(String nombrePlantilla, Iterator<Map<String, Object>> tramos, 
+            OutputStream salida) throws IOException, DocumentException {
+        
+        SalidaNoCerrable outputStream = new SalidaNoCerrable(new BufferedOutputStream(salida));
+        MetricasGenerador.Medicion medicion = metricas.iniciar(nombrePlantilla);
+        Deque<Future<byte[]>> enCurso = new ArrayDeque<>();
+        List<PoolRenderizadores.Prestamo> prestamos = new ArrayList<>();
+        CompletableFuture<Integer> paginasAnteriores = CompletableFuture.completedFuture(0);
+        int numeroTramos = 0;
+        
+        try (ExecutorService ejecutor = crearEjecutorLote()) {
+            try (CombinadorPDF combinador = new CombinadorPDF(outputStream)) {
+                while (tramos.hasNext() || !enCurso.isEmpty()) {
+                    while (tramos.hasNext() && enCurso.size() < paralelismoLote) {
+                        Map<String, Object> datosTramo = tramos.next();
+                        
+                        // Los renderers se piden en orden desde este hilo: un tramo que ya tiene
+                        // renderer nunca espera las páginas de un tramo anterior que no lo tenga
+                        MetricasGenerador.Marca espera = MetricasGenerador.Marca.ahora();
+                        PoolRenderizadores.Prestamo prestamo = poolRenderizadores.obtener();
+                        medicion.registrar(MetricasGenerador.Fase.ESPERA, espera);
+                        prestamos.add(prestamo);
+                        
+                        CompletableFuture<Integer> anteriores = paginasAnteriores;
+                        CompletableFuture<Integer> acumuladas = new CompletableFuture<>();
+                        paginasAnteriores = acumuladas;
+                        enCurso.add(ejecutor.submit(() ->
+                                renderizarTramo(nombrePlantilla, datosTramo, prestamo, anteriores, acumuladas, medicion)));
+                        numeroTramos++;
+                    }
+                    
+                    combinador.agregar(enCurso.poll().get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Generación por tramos interrumpida");
+            } catch (ExecutionException e) {
+                throw causaDe(e);
+            } finally {
+                enCurso.forEach(futuro -> futuro.cancel(true));
+            }
+        } catch (IOException | RuntimeException e) {
+            medicion.fallar(e);
+            throw e;
+        } finally {
+            // Un tramo cancelado antes de empezar no llega a devolver su renderer
+            prestamos.forEach(PoolRenderizadores.Prestamo::close);
+        }
+        outputStream.flush();
+        medicion.finalizar(outputStream.getBytesEscritos());
+        
+        log.debug("PDF generado en {} tramos en paralelo", numeroTramos);
+    }
+    
+    /**
+     * Maqueta un tramo y escribe su PDF una vez conocidas las páginas de los tramos anteriores
+     * 
+     * @param anteriores Total de páginas de los tramos anteriores
+     * @param acumuladas Se completa con el total incluyendo este tramo, en cuanto termina su maquetación
+     * @param medicion Medición del documento completo
+     * @return PDF del tramo
+     */
+    private byte[] renderizarTramo(String nombrePlantilla, Map<String, Object> datos, 
+            PoolRenderizadores.Prestamo prestamo, CompletableFuture<Integer> anteriores, 
+            CompletableFuture<Integer> acumuladas, MetricasGenerador.Medicion medicion) throws Exception {
+        
+        try (prestamo) {
+            Document documento = construirDocumento(nombrePlantilla, crearContexto(datos), medicion);
+            ITextRenderer renderer = prestamo.getRenderer();
+            boolean completo = false;
+            try {
+                MetricasGenerador.Marca maquetacion = MetricasGenerador.Marca.ahora();
+                PerfilSalida.de(documento, perfilSalida).aplicar(renderer, eventosPagina(documento));
+                // Los tramos en paralelo no se verifican: sólo podan en modo ACTIVA
+                PodaCss poda = podaPara(nombrePlantilla);
+                cacheHojasEstilo.asignarDocumento(renderer, documento,
+                        poda != null && poda.isActiva() && modoPodaCss == PodaCss.Modo.ACTIVA ? poda : null);
+                renderer.layout();
+                medicion.registrar(MetricasGenerador.Fase.MAQUETACION, maquetacion);
+                
+                int paginas = renderer.getRootBox().getLayer().getPages().size();
+                medicion.agregarPaginas(paginas);
+                int paginasPrevias = anteriores.get();
+                acumuladas.complete(paginasPrevias + paginas);
+                
+                // La espera por los tramos anteriores no forma parte de ninguna fase
+                MetricasGenerador.Marca escritura = MetricasGenerador.Marca.ahora();
+                ByteArrayOutputStream fragmento = new ByteArrayOutputStream();
+                renderer.createPDF(fragmento, true, paginasPrevias + 1);
+                medicion.registrar(MetricasGenerador.Fase.ESCRITURA, escritura);
+                completo = true;
+                return fragmento.toByteArray();
+            } finally {
+                // Un renderer que falló o fue interrumpido a mitad de documento no vuelve al pool
+                if (!completo) {
+                    prestamo.invalidar();
+                }
+            }
+        } finally {
+            // Sin efecto si ya se completó; evita que los tramos siguientes esperen indefinidamente
+            acumuladas.completeExceptionally(new IllegalStateException("Falló un tramo anterior"));
+        }
+    }
+    
+    private static IOException causaDe(ExecutionException e) {
+        Throwable causa = e.getCause();
+        if (causa instanceof IOException ioException) {
+            return ioException;
+        }
+        if (causa instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (causa instanceof Error error) {
+            throw error;
+        }
+        return new IOException(causa);
+    }
+    
+    /**
+     * Genera un PDF de forma asíncrona, con el tiempo máximo configurado
+     * Si la cola de generación está llena el futuro se devuelve ya fallido con
+     * RejectedExecutionException, sin esperar
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return Futuro con el PDF; cancelarlo libera su lugar en la cola o interrumpe la generación
+     */
+    public CompletableFuture<byte[]> generarPDFAsincrono(String nombrePlantilla, Map<String, Object> datos) {
+        return generarPDFAsincrono(nombrePlantilla, datos, tiempoMaximoAsincrono);
+    }
+    
+    /**
+     * Genera un PDF de forma asíncrona con un tiempo máximo propio
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param tiempoMaximo Tiempo máximo desde el envío, incluida la espera en cola; null sin límite
+     * @return Futuro con el PDF; falla con TimeoutException si vence el tiempo máximo
+     */
+    public CompletableFuture<byte[]> generarPDFAsincrono(String nombrePlantilla, Map<String, Object> datos, 
+            Duration tiempoMaximo) {
+        
+        return ejecutorAsincrono.enviar(() -> generarPDF(nombrePlantilla, datos), tiempoMaximo);
+    }
+    
+    /**
+     * Genera un lote de PDFs en paralelo y devuelve los resultados en el orden de los trabajos
+     * Un trabajo que falla no interrumpe el lote; su resultado lleva la excepción
+     * 
+     * @param trabajos Plantillas y datos a generar
+     * @return Un resultado por trabajo, en el mismo orden
+     * @throws InterruptedIOException Si el hilo llamador es interrumpido; los trabajos pendientes se cancelan
+     */
+    public List<ResultadoTrabajoPDF> generarLote(List<TrabajoPDF> trabajos) throws InterruptedIOException {
+        ResultadoTrabajoPDF[] resultados = new ResultadoTrabajoPDF[trabajos.size()];
+        generarLote(trabajos, resultado -> resultados[resultado.getIndice()] = resultado);
+        return Arrays.asList(resultados);
+    }
+    
+    /**
+     * Genera un lote de PDFs en paralelo entregando cada resultado en cuanto termina
+     * El consumidor se invoca siempre desde el hilo llamador, nunca en paralelo
+     * 
+     * @param trabajos Plantillas y datos a generar
+     * @param alCompletar Recibe cada resultado en orden de terminación
+     * @throws InterruptedIOException Si el hilo llamador es interrumpido; los trabajos pendientes se cancelan
+     */
+    public void generarLote(List<TrabajoPDF> trabajos, Consumer<ResultadoTrabajoPDF> alCompletar) 
+            throws InterruptedIOException {
+        
+        try (ExecutorService ejecutor = crearEjecutorLote()) {
+            generarLote(trabajos, ejecutor, alCompletar);
+        }
+    }
+    
+    /**
+     * Genera un lote de PDFs en un ejecutor del llamador
+     * Nunca hay más de paralelismoLote trabajos enviados al ejecutor a la vez
+     * 
+     * @param trabajos Plantillas y datos a generar
+     * @param ejecutor Ejecutor donde se generan los PDFs
+     * @param alCompletar Recibe cada resultado en orden de terminación, desde el hilo llamador
+     * @throws InterruptedIOException Si el hilo llamador es interrumpido; los trabajos pendientes se cancelan
+     */
+    public void generarLote(List<TrabajoPDF> trabajos, Executor ejecutor, Consumer<ResultadoTrabajoPDF> alCompletar) 
+            throws InterruptedIOException {
+        
+        CompletionService<ResultadoTrabajoPDF> completados = new ExecutorCompletionService<>(ejecutor);
+        List<Future<ResultadoTrabajoPDF>> enviados = new ArrayList<>(trabajos.size());
+        int pendientes = 0;
+        int fallidos = 0;
+        
+        try {
+            while (enviados.size() < trabajos.size() || pendientes > 0) {
+                // Se envían trabajos nuevos sólo cuando hay hueco, para no encolar el lote completo
+                while (enviados.size() < trabajos.size() && pendientes < paralelismoLote) {
+                    int indice = enviados.size();
+                    TrabajoPDF trabajo = trabajos.get(indice);
+                    enviados.add(completados.submit(() -> ejecutarTrabajo(indice, trabajo)));
+                    pendientes++;
+                }
+                
+                ResultadoTrabajoPDF resultado = completados.take().get();
+                pendientes--;
+                if (!resultado.isExitoso()) {
+                    fallidos++;
+                }
+                alCompletar.accept(resultado);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Generación del lote interrumpida");
+        } catch (ExecutionException e) {
+            // ejecutarTrabajo captura las excepciones; aquí sólo llegan errores graves de la JVM
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // Sin efecto si el lote terminó; si no, libera los hilos y renderers ocupados
+            enviados.forEach(futuro -> futuro.cancel(true));
+        }
+        
+        log.debug("Lote de {} PDFs generado ({} fallidos)", trabajos.size(), fallidos);
+    }
+    
+    private ResultadoTrabajoPDF ejecutarTrabajo(int indice, TrabajoPDF trabajo) {
+        try {
+            byte[] pdf = generarPDF(trabajo.nombrePlantilla(), trabajo.datos());
+            return ResultadoTrabajoPDF.exito(indice, trabajo, pdf);
+        } catch (Exception e) {
+            log.warn("Falló el trabajo {} del lote (plantilla {}): {}", indice, trabajo.nombrePlantilla(), e.getMessage());
+            return ResultadoTrabajoPDF.fallo(indice, trabajo, e);
+        }
+    }
+    
+    private ExecutorService crearEjecutorLote() {
+        if (hilosVirtualesLote) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newFixedThreadPool(paralelismoLote, tarea -> {
+            Thread hilo = new Thread(tarea, "pdf-lote-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+    
+    /**
+     * Crea un renderer cuyo user agent sirve las imágenes y recursos del classpath
+     * desde la caché compartida y cuyas fuentes salen del registro compartido
+     * 
+     * @return Renderer nuevo
+     */
+    private ITextRenderer crearRenderer() {
+        ITextOutputDevice dispositivo = new ITextOutputDevice(ITextRenderer.DEFAULT_DOTS_PER_POINT);
+        AgenteUsuarioCache agente = new AgenteUsuarioCache(dispositivo, cacheRecursos);
+        ITextRenderer renderer = new ITextRenderer(ITextRenderer.DEFAULT_DOTS_PER_POINT,
+                ITextRenderer.DEFAULT_DOTS_PER_PIXEL, dispositivo, agente);
+        
+        // Las fuentes se resuelven contra el registro compartido, parseado una sola vez
+        SharedContext contexto = renderer.getSharedContext();
+        contexto.setFontResolver(new ResolutorFuentes(contexto, registroFuentes));
+        return renderer;
+    }
+    
+    /**
+     * Procesa la plantilla y construye el DOM que consume Flying Saucer
+     * 
+     * Por defecto la salida de Thymeleaf se entrega por bloques directamente al
+     * parser XML, sin materializar el HTML completo como String. Con
+     * procesamientoPorBloques desactivado se usa el camino clásico vía
+     * procesarPlantilla(), útil para depurar el HTML intermedio.
+     * Registra las métricas de cada fase, pero no las del documento completo.
+     * 
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param contexto Variables disponibles para la plantilla
+     * @return DOM del HTML procesado
+     */
+    Document construirDocumento(String nombrePlantilla, IContext contexto) {
+        return construirDocumento(nombrePlantilla, contexto, metricas.iniciar(nombrePlantilla));
+    }
+    
+    /**
+     * @param medicion Medición del documento; null para uno auxiliar, como el membrete, que no se mide
+     */
+    private Document construirDocumento(String nombrePlantilla, IContext contexto, 
+            MetricasGenerador.Medicion medicion) {
+        
+        MetricasGenerador.Marca inicio = MetricasGenerador.Marca.ahora();
+        if (!procesamientoPorBloques) {
+            String htmlContent = templateEngine.process(nombrePlantilla, contexto);
+            if (medicion != null) {
+                medicion.registrar(MetricasGenerador.Fase.PLANTILLA, inicio);
+            }
+            
+            MetricasGenerador.Marca parseo = MetricasGenerador.Marca.ahora();
+            Document documento = XMLResource.load(new InputSource(new StringReader(htmlContent))).getDocument();
+            if (medicion != null) {
+                medicion.registrar(MetricasGenerador.Fase.PARSEO, parseo);
+            }
+            return prepararMembrete(nombrePlantilla, documento);
+        }
+        
+        IThrottledTemplateProcessor procesador = templateEngine.processThrottled(nombrePlantilla, contexto);
+        long inicioLectura = System.nanoTime();
+        LectorPlantilla lector = new LectorPlantilla(procesador);
+        Document documento = XMLResource.load(new InputSource(lector)).getDocument();
+        
+        // Thymeleaf y el parser se alternan por bloques; el lector separa el tiempo de cada uno
+        if (medicion != null) {
+            long nanosPlantilla = inicioLectura - inicio.nanos() + lector.getNanosProcesamiento();
+            medicion.registrar(MetricasGenerador.Fase.PLANTILLA, nanosPlantilla);
+            medicion.registrar(MetricasGenerador.Fase.PARSEO, System.nanoTime() - inicio.nanos() - nanosPlantilla);
+            medicion.acumularAsignado(inicio);
+        }
+        return prepararMembrete(nombrePlantilla, documento);
+    }
+    
+    /**
+     * Prepara el documento para estamparle el membrete si está activado y su
+     * plantilla incluye el header
+     */
+    private Document prepararMembrete(String nombrePlantilla, Document documento) {
+        if (membrete != null && usanMembrete.computeIfAbsent(nombrePlantilla, this::incluyeHeader)) {
+            membrete.preparar(documento, anchosPagina.computeIfAbsent(nombrePlantilla, nombre -> anchoPagina(documento)));
+        }
+        return documento;
+    }
+    
+    /**
+     * Ancho de la primera página según las reglas @page del documento, sin
+     * maquetarlo; se calcula como Flying Saucer al crear la caja de la página
+     */
+    private float anchoPagina(Document documento) {
+        ITextRenderer renderer = crearRenderer();
+        cacheHojasEstilo.asignarDocumento(renderer, documento);
+        SharedContext contexto = renderer.getSharedContext();
+        PageBox pagina = new PageBox();
+        pagina.setStyle(new EmptyStyle().deriveStyle(contexto.getCss().getPageStyle(null, "first").getPageStyle()));
+        return pagina.getWidth(contexto.newLayoutContextInstance()) / ITextRenderer.DEFAULT_DOTS_PER_POINT;
+    }
+    
+    private boolean incluyeHeader(String nombrePlantilla) {
+        if (MembreteEstampado.PLANTILLA.equals(nombrePlantilla)) {
+            return false;
+        }
+        List<Object> contenidos = new ArrayList<>();
+        leerConFragmentos(nombrePlantilla, new HashSet<>(), contenidos);
+        return contenidos.get(0) instanceof String contenido && contenido.contains("~{fragments/header :: header}");
+    }
+    
+    /**
+     * Maqueta la plantilla del membrete en una página del tamaño indicado, con
+     * un renderer propio fuera del pool y sin medirla como un documento
+     */
+    private ITextRenderer maquetarMembrete(float ancho, float alto) {
+        Context contexto = new Context();
+        contexto.setVariable("ancho", ancho);
+        contexto.setVariable("alto", alto);
+        Document documento = construirDocumento(MembreteEstampado.PLANTILLA, contexto, null);
+        ITextRenderer renderer = crearRenderer();
+        cacheHojasEstilo.asignarDocumento(renderer, documento);
+        renderer.layout();
+        return renderer;
+    }
+    
+    /**
+     * Maqueta el documento y escribe el PDF con un renderer prestado del pool
+     * Registra las métricas de cada fase, pero no las del documento completo
+     * 
+     * @param nombrePlantilla Plantilla de la que proviene el documento, para las métricas
+     * @param documento DOM del HTML ya procesado por Thymeleaf
+     * @param outputStream Destino del PDF
+     * @throws IOException Si no se obtiene un renderer a tiempo
+     * @throws DocumentException Si hay error en la generación del PDF
+     */
+    void renderizar(String nombrePlantilla, Document documento, OutputStream outputStream) 
+            throws IOException, DocumentException {
+        
+        renderizar(documento, outputStream, 1, metricas.iniciar(nombrePlantilla));
+    }
+    
+    private void renderizar(Document documento, OutputStream outputStream, int paginaInicial, 
+            MetricasGenerador.Medicion medicion) throws IOException, DocumentException {
+        
+        PodaCss poda = podaPara(medicion.plantilla());
+        if (poda == null || !poda.isActiva()) {
+            renderizar(documento, outputStream, paginaInicial, medicion, null);
+        } else if (modoPodaCss == PodaCss.Modo.ACTIVA) {
+            renderizar(documento, outputStream, paginaInicial, medicion, poda);
+        } else {
+            // Verificación: se entrega siempre el PDF generado con las hojas completas
+            byte[] sinPoda = renderizarEnMemoria(documento, paginaInicial, medicion, null);
+            byte[] conPoda = renderizarEnMemoria(documento, paginaInicial, null, poda);
+            poda.registrarVerificacion(PodaCss.mismoContenido(conPoda, sinPoda));
+            // Igual que createPDF, que cierra su stream al terminar el documento
+            outputStream.write(sinPoda);
+            outputStream.close();
+        }
+    }
+    
+    private byte[] renderizarEnMemoria(Document documento, int paginaInicial, MetricasGenerador.Medicion medicion,
+            PodaCss poda) throws IOException, DocumentException {
+        
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        renderizar(documento, salida, paginaInicial, medicion, poda);
+        return salida.toByteArray();
+    }
+    
+    /**
+     * @param medicion Medición del documento; null para un PDF de comparación, que no se mide
+     * @param poda Poda de las hojas de estilo; null para usarlas completas
+     */
+    private void renderizar(Document documento, OutputStream outputStream, int paginaInicial, 
+            MetricasGenerador.Medicion medicion, PodaCss poda) throws IOException, DocumentException {
+        
+        MetricasGenerador.Marca espera = MetricasGenerador.Marca.ahora();
+        try (PoolRenderizadores.Prestamo prestamo = poolRenderizadores.obtener()) {
+            if (medicion != null) {
+                medicion.registrar(MetricasGenerador.Fase.ESPERA, espera);
+            }
+            ITextRenderer renderer = prestamo.getRenderer();
+            boolean completo = false;
+            try {
+                // Configurar documento HTML reutilizando las hojas de estilo ya parseadas
+                MetricasGenerador.Marca maquetacion = MetricasGenerador.Marca.ahora();
+                PerfilSalida.de(documento, perfilSalida).aplicar(renderer, eventosPagina(documento));
+                cacheHojasEstilo.asignarDocumento(renderer, documento, poda);
+                renderer.layout();
+                if (medicion != null) {
+                    medicion.registrar(MetricasGenerador.Fase.MAQUETACION, maquetacion);
+                    medicion.agregarPaginas(renderer.getRootBox().getLayer().getPages().size());
+                }
+                
+                MetricasGenerador.Marca escritura = MetricasGenerador.Marca.ahora();
+                renderer.createPDF(outputStream, true, paginaInicial);
+                if (medicion != null) {
+                    medicion.registrar(MetricasGenerador.Fase.ESCRITURA, escritura);
+                }
+                completo = true;
+            } finally {
+                // Un renderer que falló a mitad de documento, por la causa que sea, no vuelve al pool
+                if (!completo) {
+                    prestamo.invalidar();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Eventos de página del documento: el estampado del membrete, si se preparó para él
+     */
+    private PdfPageEvent eventosPagina(Document documento) {
+        return membrete != null && MembreteEstampado.preparado(documento) ? membrete.estampado() : null;
     }
     
     /**
@@ -81,6 +1155,10 @@ public class GeneradorReportesPDF {
      * @return Contenido HTML procesado
      */
     public String procesarPlantilla(String nombrePlantilla, Map<String, Object> datos) {
+        return templateEngine.process(nombrePlantilla, crearContexto(datos));
+    }
+    
+    static Context crearContexto(Map<String, Object> datos) {
         Context context = new Context();
         
         // Agregar todos los datos al contexto de Thymeleaf
@@ -88,12 +1166,12 @@ public class GeneradorReportesPDF {
             datos.forEach(context::setVariable);
         }
         
-        return templateEngine.process(nombrePlantilla, context);
+        return context;
     }
     
     /**
      * Genera un PDF a partir de una plantilla y un objeto Java
-     * Convierte automáticamente el objeto a un Map usando ObjectToMap
+     * Las variables de la plantilla se leen del objeto bajo demanda, sin convertirlo a Map
      * 
      * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
      * @param objeto Objeto a convertir y usar como datos
@@ -104,13 +1182,13 @@ public class GeneradorReportesPDF {
     public byte[] generarPDFDesdeObjeto(String nombrePlantilla, Object objeto) 
             throws IOException, DocumentException {
         
-        Map<String, Object> datos = ObjectToMapConverter.convertToMap(objeto);
-        return generarPDF(nombrePlantilla, datos);
+        IContext contexto = objeto == null ? new Context() : ContextoObjeto.de(objeto);
+        return generarPDFCacheado(nombrePlantilla, contexto, null, "objeto", objeto);
     }
     
     /**
      * Genera un PDF a partir de una plantilla y un objeto Java incluyendo herencia
-     * Convierte automáticamente el objeto a un Map incluyendo campos de superclases
+     * Las variables incluyen los campos de superclases y se leen del objeto bajo demanda
      * 
      * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
      * @param objeto Objeto a convertir y usar como datos
@@ -121,12 +1199,13 @@ public class GeneradorReportesPDF {
     public byte[] generarPDFDesdeObjetoConHerencia(String nombrePlantilla, Object objeto) 
             throws IOException, DocumentException {
         
-        Map<String, Object> datos = ObjectToMapConverter.convertToMapIncludingInheritance(objeto);
-        return generarPDF(nombrePlantilla, datos);
+        IContext contexto = objeto == null ? new Context() : ContextoObjeto.conHerencia(objeto);
+        return generarPDFCacheado(nombrePlantilla, contexto, null, "herencia", objeto);
     }
     
     /**
      * Genera un PDF a partir de una plantilla y un objeto Java excluyendo campos específicos
+     * Los campos excluidos no se pueden resolver desde la plantilla
      * 
      * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
      * @param objeto Objeto a convertir y usar como datos
@@ -138,7 +1217,73 @@ public class GeneradorReportesPDF {
     public byte[] generarPDFDesdeObjetoExcluyendo(String nombrePlantilla, Object objeto, String... camposExcluir) 
             throws IOException, DocumentException {
         
-        Map<String, Object> datos = ObjectToMapConverter.convertToMapExcluding(objeto, camposExcluir);
-        return generarPDF(nombrePlantilla, datos);
+        IContext contexto = objeto == null ? new Context() : ContextoObjeto.excluyendo(objeto, camposExcluir);
+        return generarPDFCacheado(nombrePlantilla, contexto, null, "excluyendo", new TreeSet<>(Arrays.asList(camposExcluir)), objeto);
+    }
+    
+    CacheHojasEstilo getCacheHojasEstilo() {
+        return cacheHojasEstilo;
+    }
+    
+    /**
+     * Deja de admitir documentos asíncronos y retira del registro las métricas
+     * de estado del generador; los documentos en curso terminan
+     */
+    @PreDestroy
+    public void cerrar() {
+        ejecutorAsincrono.cerrar();
+        poolBuffers.cerrar();
+    }
+    
+    /**
+     * @return Nombre del generador, etiqueta "generador" de sus métricas de estado
+     */
+    public String getNombre() {
+        return nombre;
+    }
+    
+    PoolRenderizadores getPoolRenderizadores() {
+        return poolRenderizadores;
+    }
+    
+    EjecutorAsincronoPDF getEjecutorAsincrono() {
+        return ejecutorAsincrono;
+    }
+    
+    PoolBuffersSalida getPoolBuffers() {
+        return poolBuffers;
+    }
+    
+    /**
+     * Envoltura que convierte close() en flush() para no cerrar el stream del llamador
+     */
+    private static final class SalidaNoCerrable extends FilterOutputStream {
+        
+        private long bytesEscritos;
+        
+        private SalidaNoCerrable(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesEscritos++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesEscritos += len;
+        }
+        
+        long getBytesEscritos() {
+            return bytesEscritos;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
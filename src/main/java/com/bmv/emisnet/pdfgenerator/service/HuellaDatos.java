@@ -0,0 +1,128 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Huella SHA-256 estable de los datos de una plantilla
+ *
+ * Dos estructuras con el mismo contenido producen la misma huella aunque sean
+ * instancias distintas o las claves de sus mapas se hayan insertado en otro
+ * orden. Se recorren mapas (ordenados por clave), colecciones y arreglos (en su
+ * orden de iteración, que es el que ve la plantilla) y los POJOs campo a campo,
+ * incluyendo superclases. Los valores de clases del JDK (String, números,
+ * fechas...) se representan por su clase y su toString().
+ */
+final class HuellaDatos {
+
+    private static final byte NULO = 0;
+    private static final byte TEXTO = 1;
+    private static final byte VALOR = 2;
+    private static final byte MAPA = 3;
+    private static final byte LISTA = 4;
+    private static final byte OBJETO = 5;
+    private static final byte CICLO = 6;
+
+    private final MessageDigest digest;
+    private final Set<Object> enCurso = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private HuellaDatos() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Calcula la huella de una secuencia de partes (versión de plantilla, datos...)
+     *
+     * @param partes Valores a combinar, en orden
+     * @return Huella en hexadecimal
+     */
+    static String de(Object... partes) {
+        HuellaDatos huella = new HuellaDatos();
+        for (Object parte : partes) {
+            huella.agregar(parte);
+        }
+        return HexFormat.of().formatHex(huella.digest.digest());
+    }
+
+    private void agregar(Object valor) {
+        if (valor == null) {
+            digest.update(NULO);
+        } else if (valor instanceof CharSequence texto) {
+            digest.update(TEXTO);
+            agregarTexto(texto.toString());
+        } else if (valor instanceof Enum<?> || esValorSimple(valor.getClass())) {
+            digest.update(VALOR);
+            agregarTexto(valor.getClass().getName());
+            agregarTexto(valor.toString());
+        } else if (!enCurso.add(valor)) {
+            // Referencia circular: se marca sin recorrerla de nuevo
+            digest.update(CICLO);
+        } else {
+            try {
+                agregarCompuesto(valor);
+            } finally {
+                enCurso.remove(valor);
+            }
+        }
+    }
+
+    private void agregarCompuesto(Object valor) {
+        if (valor instanceof Map<?, ?> mapa) {
+            digest.update(MAPA);
+            agregarMapa(mapa);
+        } else if (valor instanceof Iterable<?> iterable) {
+            digest.update(LISTA);
+            for (Object elemento : iterable) {
+                agregar(elemento);
+            }
+            digest.update(NULO);
+        } else if (valor.getClass().isArray()) {
+            digest.update(LISTA);
+            for (int i = 0, longitud = Array.getLength(valor); i < longitud; i++) {
+                agregar(Array.get(valor, i));
+            }
+            digest.update(NULO);
+        } else {
+            digest.update(OBJETO);
+            agregarTexto(valor.getClass().getName());
+            agregarMapa(ObjectToMapConverter.convertToMapIncludingInheritance(valor));
+        }
+    }
+
+    private void agregarMapa(Map<?, ?> mapa) {
+        List<Map.Entry<?, ?>> entradas = new ArrayList<>(mapa.entrySet());
+        entradas.sort(Comparator.comparing(entrada -> String.valueOf(entrada.getKey())));
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(entradas.size()).array());
+        for (Map.Entry<?, ?> entrada : entradas) {
+            agregar(entrada.getKey());
+            agregar(entrada.getValue());
+        }
+    }
+
+    private void agregarTexto(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        // La longitud evita que ("ab", "c") y ("a", "bc") produzcan la misma huella
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static boolean esValorSimple(Class<?> clase) {
+        return clase.getName().startsWith("java.")
+                && !Map.class.isAssignableFrom(clase) && !Iterable.class.isAssignableFrom(clase);
+    }
+}
@@ -0,0 +1,108 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.thymeleaf.IThrottledTemplateProcessor;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Reader que extrae la salida de Thymeleaf por bloques, a medida que el parser
+ * XML la consume
+ *
+ * Usa el procesamiento acotado (throttled) de Thymeleaf: cada vez que el parser
+ * agota el bloque actual se pide al motor que produzca a lo sumo
+ * {@link #TAMANO_BLOQUE} caracteres más. Así el HTML nunca existe completo
+ * como String; sólo vive en memoria el bloque en curso.
+ *
+ * Como Thymeleaf y el parser se alternan, el lector acumula el tiempo que pasa
+ * dentro de Thymeleaf para poder separarlo del tiempo de parseo.
+ */
+class LectorPlantilla extends Reader {
+
+    static final int TAMANO_BLOQUE = 8192;
+
+    private final IThrottledTemplateProcessor procesador;
+    private final BufferBloque bloque = new BufferBloque();
+    private int posicion;
+    private long nanosProcesamiento;
+
+    LectorPlantilla(IThrottledTemplateProcessor procesador) {
+        this.procesador = procesador;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (posicion >= bloque.cantidad) {
+            if (procesador.isFinished()) {
+                return -1;
+            }
+            bloque.cantidad = 0;
+            posicion = 0;
+            long inicio = System.nanoTime();
+            procesador.process(TAMANO_BLOQUE, bloque);
+            nanosProcesamiento += System.nanoTime() - inicio;
+        }
+
+        int leidos = Math.min(len, bloque.cantidad - posicion);
+        System.arraycopy(bloque.caracteres, posicion, cbuf, off, leidos);
+        posicion += leidos;
+        return leidos;
+    }
+
+    /**
+     * Tiempo acumulado produciendo HTML con Thymeleaf
+     *
+     * @return Nanosegundos dentro del procesador
+     */
+    long getNanosProcesamiento() {
+        return nanosProcesamiento;
+    }
+
+    @Override
+    public void close() {
+        // El procesador acotado no retiene recursos externos
+    }
+
+    /**
+     * Writer sobre un arreglo reutilizable; Thymeleaf puede exceder ligeramente
+     * el tamaño pedido, por lo que el arreglo crece si hace falta
+     */
+    private static final class BufferBloque extends Writer {
+
+        private char[] caracteres = new char[TAMANO_BLOQUE];
+        private int cantidad;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (cantidad + len > caracteres.length) {
+                caracteres = Arrays.copyOf(caracteres, Math.max(caracteres.length * 2, cantidad + len));
+            }
+            System.arraycopy(cbuf, off, caracteres, cantidad, len);
+            cantidad += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            if (cantidad + len > caracteres.length) {
+                caracteres = Arrays.copyOf(caracteres, Math.max(caracteres.length * 2, cantidad + len));
+            }
+            str.getChars(off, off + len, caracteres, cantidad);
+            cantidad += len;
+        }
+
+        @Override
+        public void flush() {
+            // Nada que vaciar: el lector consume directamente el arreglo
+        }
+
+        @Override
+        public void close() {
+            // Nada que liberar
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfImportedPage;
+import com.lowagie.text.pdf.PdfPageEvent;
+import com.lowagie.text.pdf.PdfPageEventHelper;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Membrete (fragments/header :: header) maquetado una sola vez por orientación
+ * y estampado en cada página como un form XObject
+ *
+ * En lugar de maquetar el header como parte del HTML de cada documento, se
+ * maqueta la plantilla fragments/membrete en una página del ancho de la hoja y
+ * del alto del header, y esa página se agrega a cada documento como un único
+ * XObject. El documento se prepara antes de maquetarlo: se quita su header y
+ * se agranda el margen superior de la página en el alto del membrete, de modo
+ * que el contenido usa el resto de la página.
+ *
+ * Como el header en el HTML, el membrete aparece sólo en la primera página:
+ * se reserva el margen con @page :first y se estampa al terminar la página 1.
+ * Con todasLasPaginas se reserva con @page y todas las páginas referencian el
+ * mismo XObject, también las de un documento sin header, como los tramos de
+ * continuación de reporte-posiciones.
+ */
+@Slf4j
+final class MembreteEstampado {
+
+    /** Plantilla con el membrete en una página de su tamaño */
+    static final String PLANTILLA = "fragments/membrete";
+
+    /** Clase del elemento raíz del fragmento header */
+    private static final String CLASE_HEADER = "header";
+    private static final String MARCA_PREPARADO = "data-membrete";
+    /** Alto de página para medir el membrete; mayor que cualquier header */
+    private static final float ALTO_MEDICION = PageSize.A4.getHeight();
+
+    /**
+     * Maqueta la plantilla del membrete en una página del tamaño indicado
+     */
+    @FunctionalInterface
+    interface Maquetador {
+
+        ITextRenderer maquetar(float ancho, float alto);
+    }
+
+    private final Maquetador maquetador;
+    private final boolean todasLasPaginas;
+    private final Map<Float, Float> altosPorAncho = new ConcurrentHashMap<>();
+    private final Map<Float, byte[]> pdfsPorAncho = new ConcurrentHashMap<>();
+
+    /**
+     * @param maquetador Maqueta la plantilla del membrete
+     * @param todasLasPaginas Si se estampa en todas las páginas y no sólo en la primera
+     */
+    MembreteEstampado(Maquetador maquetador, boolean todasLasPaginas) {
+        this.maquetador = maquetador;
+        this.todasLasPaginas = todasLasPaginas;
+    }
+
+    /**
+     * Alto del membrete maquetado al ancho de la hoja, incluido el margen
+     * superior de la página, calculado la primera vez para cada ancho
+     *
+     * @param ancho Ancho de la hoja en puntos
+     * @return Alto en puntos
+     */
+    float getAlto(float ancho) {
+        return altosPorAncho.computeIfAbsent(ancho, nuevo -> {
+            ITextRenderer renderer = maquetador.maquetar(nuevo, ALTO_MEDICION);
+            // Margen superior de 8 mm de la plantilla más el contenido maquetado
+            float alto = 8 * 72 / 25.4f + renderer.getRootBox().getHeight() / ITextRenderer.DEFAULT_DOTS_PER_POINT;
+            log.debug("Membrete de {} puntos de alto en hojas de {} puntos de ancho", alto, nuevo);
+            return alto;
+        });
+    }
+
+    /**
+     * Quita el header del documento y le reserva el espacio del membrete en el
+     * margen superior de la primera página, o de todas con todasLasPaginas; sin
+     * header y sólo para la primera página, el documento queda como está
+     *
+     * @param documento DOM del HTML ya procesado
+     * @param ancho Ancho de su hoja en puntos
+     */
+    void preparar(Document documento, float ancho) {
+        Element raiz = documento.getDocumentElement();
+        if (raiz == null || raiz.hasAttribute(MARCA_PREPARADO)) {
+            return;
+        }
+
+        NodeList divs = documento.getElementsByTagName("div");
+        List<Element> headers = new ArrayList<>();
+        for (int i = 0; i < divs.getLength(); i++) {
+            Element div = (Element) divs.item(i);
+            if (List.of(div.getAttribute("class").split("\\s+")).contains(CLASE_HEADER)) {
+                headers.add(div);
+            }
+        }
+        if (headers.isEmpty() && !todasLasPaginas) {
+            return;
+        }
+        headers.forEach(header -> header.getParentNode().removeChild(header));
+
+        Node head = documento.getElementsByTagName("head").item(0);
+        if (head == null) {
+            head = raiz.insertBefore(documento.createElement("head"), raiz.getFirstChild());
+        }
+        // Al final del head, para que prevalezca sobre el margen de las reglas @page de la plantilla
+        Element estilo = documento.createElement("style");
+        estilo.setTextContent((todasLasPaginas ? "@page" : "@page :first")
+                + " { margin-top: " + getAlto(ancho) + "pt; }");
+        head.appendChild(estilo);
+        raiz.setAttribute(MARCA_PREPARADO, "");
+    }
+
+    /**
+     * Indica si el documento se preparó para estamparle el membrete
+     */
+    static boolean preparado(Document documento) {
+        Element raiz = documento.getDocumentElement();
+        return raiz != null && raiz.hasAttribute(MARCA_PREPARADO);
+    }
+
+    /**
+     * Eventos de página que estampan el membrete al terminar la primera página
+     * de un documento, o cada una con todasLasPaginas
+     *
+     * @return Eventos para el PdfWriter del documento
+     */
+    PdfPageEvent estampado() {
+        return new Estampado();
+    }
+
+    /**
+     * PDF de una página con el membrete para el ancho de hoja indicado
+     */
+    private byte[] pdfPara(float ancho) {
+        return pdfsPorAncho.computeIfAbsent(ancho, nuevo -> {
+            float alto = getAlto(nuevo);
+            ITextRenderer renderer = maquetador.maquetar(nuevo, alto);
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            renderer.createPDF(salida);
+            log.debug("Membrete de {} × {} puntos maquetado ({} bytes)", nuevo, alto, salida.size());
+            return salida.toByteArray();
+        });
+    }
+
+    /**
+     * Estampa el membrete del ancho de cada página, importado una vez por documento
+     */
+    private final class Estampado extends PdfPageEventHelper {
+
+        private final Map<Float, PdfImportedPage> importados = new HashMap<>();
+        private final List<PdfReader> lectores = new ArrayList<>();
+        private int paginas;
+
+        @Override
+        public void onEndPage(PdfWriter writer, com.lowagie.text.Document documento) {
+            if (paginas++ > 0 && !todasLasPaginas) {
+                return;
+            }
+            // Tamaño de la página que termina; el del Document ya es el de la siguiente
+            Rectangle pagina = writer.getPageSize();
+            PdfImportedPage membrete = importados.computeIfAbsent(pagina.getWidth(), ancho -> {
+                try {
+                    PdfReader lector = new PdfReader(pdfPara(ancho));
+                    lectores.add(lector);
+                    return writer.getImportedPage(lector, 1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("No se pudo leer el membrete", e);
+                }
+            });
+            writer.getDirectContent().addTemplate(membrete, 0, pagina.getHeight() - membrete.getHeight());
+        }
+
+        /**
+         * Escribe los membretes importados y cierra sus lectores antes de que se cierre el writer
+         */
+        @Override
+        public void onCloseDocument(PdfWriter writer, com.lowagie.text.Document documento) {
+            try {
+                for (PdfReader lector : lectores) {
+                    writer.freeReader(lector);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo escribir el membrete", e);
+            } finally {
+                lectores.forEach(PdfReader::close);
+                lectores.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas por fase de la generación de PDFs, publicadas en Micrometer
+ *
+ * Cada documento se mide con una {@link Medicion}: el tiempo de cada fase
+ * (procesamiento de la plantilla, parseo XML, espera de un renderer, maquetación
+ * y escritura del PDF), el tiempo total, el tamaño del PDF, sus páginas y, si la
+ * JVM lo permite, los bytes asignados en el heap por los hilos que lo generaron.
+ * Todas las métricas llevan la plantilla como etiqueta. Los documentos servidos
+ * desde la caché de resultados no se miden; se cuentan sus aciertos y fallos.
+ *
+ * Con el registro global de Micrometer (el de por defecto) las métricas aparecen
+ * en /actuator/metrics de la aplicación Spring Boot que use la librería, si ésta
+ * incluye actuator. Para Lambda, donde no hay endpoint que consultar, cada
+ * documento puede además emitirse como una línea JSON en el log.
+ */
+@Slf4j
+public class MetricasGenerador {
+
+    /**
+     * Fases de la generación de un documento
+     */
+    public enum Fase {
+        /** Thymeleaf produciendo el HTML */
+        PLANTILLA,
+        /** Parser XML construyendo el DOM */
+        PARSEO,
+        /** Obtención de un renderer del pool: espera de uno libre o creación de uno nuevo */
+        ESPERA,
+        /** renderer.layout() */
+        MAQUETACION,
+        /** renderer.createPDF() */
+        ESCRITURA;
+
+        private final String etiqueta = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final ThreadMXBean HILOS = ManagementFactory.getThreadMXBean();
+    private static final boolean ASIGNACION_SOPORTADA = asignacionSoportada();
+
+    private final MeterRegistry registro;
+    private final boolean enLog;
+    private final Map<String, Medidores> medidores = new ConcurrentHashMap<>();
+
+    /**
+     * @param registro Registro donde se publican las métricas
+     * @param enLog Si cada documento generado se emite también como línea JSON en el log
+     */
+    public MetricasGenerador(MeterRegistry registro, boolean enLog) {
+        this.registro = registro;
+        this.enLog = enLog;
+    }
+
+    /**
+     * Empieza la medición de un documento
+     *
+     * @param plantilla Nombre de la plantilla
+     * @return Medición que debe finalizarse una sola vez
+     */
+    Medicion iniciar(String plantilla) {
+        return new Medicion(plantilla, medidores.computeIfAbsent(plantilla, this::crearMedidores));
+    }
+
+    /**
+     * Cuenta una consulta a la caché de resultados
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param acierto Si el PDF se sirvió desde la caché
+     */
+    void registrarCache(String plantilla, boolean acierto) {
+        Medidores medidoresPlantilla = medidores.computeIfAbsent(plantilla, this::crearMedidores);
+        (acierto ? medidoresPlantilla.aciertosCache() : medidoresPlantilla.fallosCache()).increment();
+    }
+
+    /**
+     * Bytes asignados hasta ahora por el hilo actual
+     *
+     * @return Bytes asignados, o -1 si la JVM no lo soporta
+     */
+    static long bytesAsignados() {
+        return ASIGNACION_SOPORTADA ? ((com.sun.management.ThreadMXBean) HILOS).getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static boolean asignacionSoportada() {
+        return HILOS instanceof com.sun.management.ThreadMXBean hilos
+                && hilos.isThreadAllocatedMemorySupported() && hilos.isThreadAllocatedMemoryEnabled();
+    }
+
+    private Medidores crearMedidores(String plantilla) {
+        Timer[] fases = new Timer[Fase.values().length];
+        for (Fase fase : Fase.values()) {
+            fases[fase.ordinal()] = Timer.builder("pdf.generacion.fase")
+                    .description("Tiempo de cada fase de la generación de un PDF")
+                    .tags("plantilla", plantilla, "fase", fase.etiqueta)
+                    .register(registro);
+        }
+        return new Medidores(
+                fases,
+                total(plantilla, "exito"),
+                total(plantilla, "error"),
+                DistributionSummary.builder("pdf.generacion.tamano")
+                        .description("Tamaño de los PDFs generados")
+                        .baseUnit("bytes")
+                        .tag("plantilla", plantilla)
+                        .publishPercentileHistogram()
+                        .register(registro),
+                DistributionSummary.builder("pdf.generacion.paginas")
+                        .description("Páginas de los PDFs generados")
+                        .tag("plantilla", plantilla)
+                        .publishPercentileHistogram()
+                        .register(registro),
+                ASIGNACION_SOPORTADA ? DistributionSummary.builder("pdf.generacion.asignado")
+                        .description("Bytes asignados en el heap para generar cada PDF")
+                        .baseUnit("bytes")
+                        .tag("plantilla", plantilla)
+                        .register(registro) : null,
+                cache(plantilla, "acierto"),
+                cache(plantilla, "fallo"));
+    }
+
+    private Timer total(String plantilla, String resultado) {
+        return Timer.builder("pdf.generacion")
+                .description("Tiempo total de generación de un PDF")
+                .tags("plantilla", plantilla, "resultado", resultado)
+                .publishPercentileHistogram()
+                .register(registro);
+    }
+
+    private Counter cache(String plantilla, String resultado) {
+        return Counter.builder("pdf.cache.resultados")
+                .description("Consultas a la caché de resultados")
+                .tags("plantilla", plantilla, "resultado", resultado)
+                .register(registro);
+    }
+
+    private record Medidores(Timer[] fases, Timer exito, Timer error, DistributionSummary tamano,
+                             DistributionSummary paginas, DistributionSummary asignado,
+                             Counter aciertosCache, Counter fallosCache) {
+    }
+
+    /**
+     * Instante y bytes asignados por el hilo al inicio de una fase
+     */
+    record Marca(long nanos, long bytesAsignados) {
+
+        static Marca ahora() {
+            return new Marca(System.nanoTime(), MetricasGenerador.bytesAsignados());
+        }
+    }
+
+    /**
+     * Medición de un documento; las fases pueden registrarse desde varios hilos,
+     * como al maquetar tramos en paralelo
+     */
+    final class Medicion {
+
+        private final String plantilla;
+        private final Medidores medidores;
+        private final long inicio = System.nanoTime();
+        private final AtomicLongArray nanosPorFase = new AtomicLongArray(Fase.values().length);
+        private final LongAdder asignado = new LongAdder();
+        private final AtomicInteger paginas = new AtomicInteger();
+
+        private Medicion(String plantilla, Medidores medidores) {
+            this.plantilla = plantilla;
+            this.medidores = medidores;
+        }
+
+        /**
+         * Registra una fase que empezó en la marca dada y termina ahora, en el mismo hilo
+         */
+        void registrar(Fase fase, Marca desde) {
+            registrar(fase, System.nanoTime() - desde.nanos());
+            acumularAsignado(desde);
+        }
+
+        /**
+         * Registra la duración de una fase medida por separado
+         */
+        void registrar(Fase fase, long nanos) {
+            medidores.fases()[fase.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+            nanosPorFase.addAndGet(fase.ordinal(), nanos);
+        }
+
+        /**
+         * Suma los bytes asignados por el hilo actual desde la marca dada
+         */
+        void acumularAsignado(Marca desde) {
+            if (desde.bytesAsignados() >= 0) {
+                asignado.add(bytesAsignados() - desde.bytesAsignados());
+            }
+        }
+
+        String plantilla() {
+            return plantilla;
+        }
+
+        void agregarPaginas(int cantidad) {
+            paginas.addAndGet(cantidad);
+        }
+
+        /**
+         * Cierra la medición de un documento generado
+         *
+         * @param bytes Tamaño del PDF
+         */
+        void finalizar(long bytes) {
+            long duracion = System.nanoTime() - inicio;
+            medidores.exito().record(duracion, TimeUnit.NANOSECONDS);
+            medidores.tamano().record(bytes);
+            medidores.paginas().record(paginas.get());
+            if (medidores.asignado() != null) {
+                medidores.asignado().record(asignado.sum());
+            }
+            emitirLog("exito", duracion, bytes, null);
+        }
+
+        /**
+         * Cierra la medición de un documento que no se pudo generar
+         *
+         * @param error Causa del fallo
+         */
+        void fallar(Throwable error) {
+            long duracion = System.nanoTime() - inicio;
+            medidores.error().record(duracion, TimeUnit.NANOSECONDS);
+            emitirLog("error", duracion, 0, error);
+        }
+
+        private void emitirLog(String resultado, long duracion, long bytes, Throwable error) {
+            if (!enLog || !log.isInfoEnabled()) {
+                return;
+            }
+            StringBuilder linea = new StringBuilder(320)
+                    .append("{\"evento\":\"pdf.generacion\",\"plantilla\":\"").append(escaparJson(plantilla))
+                    .append("\",\"resultado\":\"").append(resultado)
+                    .append("\",\"duracionMs\":").append(milisegundos(duracion));
+            for (Fase fase : Fase.values()) {
+                linea.append(",\"").append(fase.etiqueta).append("Ms\":")
+                        .append(milisegundos(nanosPorFase.get(fase.ordinal())));
+            }
+            linea.append(",\"bytes\":").append(bytes)
+                    .append(",\"paginas\":").append(paginas.get());
+            if (ASIGNACION_SOPORTADA) {
+                linea.append(",\"bytesAsignados\":").append(asignado.sum());
+            }
+            if (error != null) {
+                linea.append(",\"error\":\"").append(error.getClass().getSimpleName()).append('"');
+            }
+            log.info(linea.append('}').toString());
+        }
+    }
+
+    private static String milisegundos(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String escaparJson(String texto) {
+        return texto.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -2,21 +2,51 @@ package com.bmv.emisnet.pdfgenerator.service;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utilidad para convertir objetos Java a Map<String, Object>
  * Permite convertir POJOs a mapas para uso en plantillas Thymeleaf
+ *
+ * La reflexión se hace una sola vez por combinación de (clase, herencia): el
+ * resultado es un plan de acceso con un MethodHandle por campo, que se
+ * reutiliza en las conversiones posteriores. Las exclusiones no generan planes
+ * nuevos en caché: se filtran del plan completo, sin reflexión, en cada
+ * llamada, de modo que cada clase retiene a lo sumo dos planes.
  */
 @Slf4j
 public class ObjectToMapConverter {
-    
+
+    private static final MethodType TIPO_LECTOR = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Planes de acceso por clase; ClassValue evita retener clases de otros class loaders
+     */
+    private static final ClassValue<Map<Boolean, PlanAcceso>> PLANES = new ClassValue<>() {
+        @Override
+        protected Map<Boolean, PlanAcceso> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     /**
      * Convierte un objeto a un Map<String, Object> usando reflexión
      * Accede a todos los campos públicos y privados del objeto
-     * 
+     *
      * @param obj Objeto a convertir
      * @return Map con los campos del objeto
      */
@@ -24,35 +54,13 @@ public class ObjectToMapConverter {
         if (obj == null) {
             return new HashMap<>();
         }
-        
-        Map<String, Object> map = new HashMap<>();
-        Class<?> clazz = obj.getClass();
-        
-        try {
-            // Obtener todos los campos (públicos y privados)
-            Field[] fields = clazz.getDeclaredFields();
-            
-            for (Field field : fields) {
-                field.setAccessible(true); // Permitir acceso a campos privados
-                
-                try {
-                    Object value = field.get(obj);
-                    map.put(field.getName(), value);
-                } catch (IllegalAccessException e) {
-                    log.warn("No se pudo acceder al campo {}: {}", field.getName(), e.getMessage());
-                }
-            }
-            
-        } catch (Exception e) {
-            log.error("Error al convertir objeto {} a mapa: {}", clazz.getSimpleName(), e.getMessage());
-        }
-        
-        return map;
+
+        return planPara(obj.getClass(), false, Set.of()).convertir(obj);
     }
-    
+
     /**
      * Convierte un objeto a un Map<String, Object> incluyendo campos de superclases
-     * 
+     *
      * @param obj Objeto a convertir
      * @return Map con todos los campos del objeto y sus superclases
      */
@@ -60,50 +68,230 @@ public class ObjectToMapConverter {
         if (obj == null) {
             return new HashMap<>();
         }
-        
-        Map<String, Object> map = new HashMap<>();
-        Class<?> clazz = obj.getClass();
-        
-        try {
-            // Recorrer toda la jerarquía de clases
-            while (clazz != null && clazz != Object.class) {
-                Field[] fields = clazz.getDeclaredFields();
-                
-                for (Field field : fields) {
-                    field.setAccessible(true);
-                    
-                    try {
-                        Object value = field.get(obj);
-                        map.put(field.getName(), value);
-                    } catch (IllegalAccessException e) {
-                        log.warn("No se pudo acceder al campo {}: {}", field.getName(), e.getMessage());
-                    }
-                }
-                
-                clazz = clazz.getSuperclass();
-            }
-            
-        } catch (Exception e) {
-            log.error("Error al convertir objeto a mapa con herencia: {}", e.getMessage());
-        }
-        
-        return map;
+
+        return planPara(obj.getClass(), true, Set.of()).convertir(obj);
     }
-    
+
     /**
      * Convierte un objeto a un Map<String, Object> excluyendo campos específicos
-     * 
+     *
      * @param obj Objeto a convertir
      * @param excludeFields Nombres de campos a excluir
      * @return Map con los campos del objeto (excluyendo los especificados)
      */
     public static Map<String, Object> convertToMapExcluding(Object obj, String... excludeFields) {
-        Map<String, Object> map = convertToMap(obj);
-        
-        for (String fieldName : excludeFields) {
-            map.remove(fieldName);
+        if (obj == null) {
+            return new HashMap<>();
+        }
+
+        Set<String> excluidos = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(excludeFields)));
+        return planPara(obj.getClass(), false, excluidos).convertir(obj);
+    }
+
+    /**
+     * Convierte una lista de objetos de una misma clase a una tabla por columnas
+     * Los campos numéricos enteros quedan en arreglos primitivos y los textos
+     * codificados en un diccionario; la plantilla la recorre como una lista de mapas
+     *
+     * @param objects Objetos a convertir, todos de la misma clase
+     * @return Tabla con una columna por campo de la clase
+     */
+    public static TablaColumnar convertToColumnar(List<?> objects) {
+        if (objects == null || objects.isEmpty()) {
+            return TablaColumnar.vacia();
+        }
+
+        Object[] filas = objects.toArray();
+        Class<?> clazz = filas[0].getClass();
+        for (Object fila : filas) {
+            if (fila == null || fila.getClass() != clazz) {
+                throw new IllegalArgumentException("Todos los elementos deben ser de la clase " + clazz.getName()
+                        + ": " + (fila == null ? "null" : fila.getClass().getName()));
+            }
+        }
+
+        // Se llena una columna a la vez en el mismo arreglo de trabajo
+        PlanAcceso plan = planPara(clazz, false, Set.of());
+        String[] nombres = plan.nombresOrdenados();
+        TablaColumnar.Columna[] columnas = new TablaColumnar.Columna[nombres.length];
+        Object[] valores = new Object[filas.length];
+        for (int columna = 0; columna < nombres.length; columna++) {
+            for (int fila = 0; fila < filas.length; fila++) {
+                valores[fila] = plan.leer(filas[fila], columna);
+            }
+            columnas[columna] = TablaColumnar.columna(valores, filas.length);
+        }
+        return new TablaColumnar(nombres, columnas, filas.length);
+    }
+
+    /**
+     * Obtiene (calculándolo la primera vez) el plan de acceso de una clase
+     *
+     * @param clazz Clase del objeto a convertir
+     * @param incluirHerencia Si se recorren también los campos de las superclases
+     * @param excluidos Nombres de campos a omitir
+     * @return Plan de acceso; el completo, reutilizable, si no hay exclusiones
+     */
+    static PlanAcceso planPara(Class<?> clazz, boolean incluirHerencia, Set<String> excluidos) {
+        PlanAcceso plan = PLANES.get(clazz).computeIfAbsent(incluirHerencia, herencia -> crearPlan(clazz, herencia));
+        return excluidos.isEmpty() ? plan : plan.sin(excluidos);
+    }
+
+    private static PlanAcceso crearPlan(Class<?> clazz, boolean incluirHerencia) {
+        // Mismo orden que la conversión original: la clase concreta primero y luego
+        // sus superclases, de modo que un campo homónimo de la superclase prevalece
+        Map<String, MethodHandle> lectores = new LinkedHashMap<>();
+        Class<?> actual = clazz;
+
+        while (actual != null && actual != Object.class) {
+            for (Field field : actual.getDeclaredFields()) {
+                MethodHandle lector = crearLector(field);
+                if (lector != null) {
+                    lectores.put(field.getName(), lector);
+                }
+            }
+
+            if (!incluirHerencia) {
+                break;
+            }
+            actual = actual.getSuperclass();
+        }
+
+        log.debug("Plan de acceso para {} con {} campos", clazz.getSimpleName(), lectores.size());
+        return new PlanAcceso(lectores.keySet().toArray(new String[0]),
+                lectores.values().toArray(new MethodHandle[0]));
+    }
+
+    private static MethodHandle crearLector(Field field) {
+        try {
+            field.setAccessible(true); // Permitir acceso a campos privados
+            MethodHandle lector = MethodHandles.lookup().unreflectGetter(field);
+
+            if (Modifier.isStatic(field.getModifiers())) {
+                // Los campos estáticos no reciben instancia; se ignora el argumento
+                return MethodHandles.dropArguments(lector.asType(MethodType.methodType(Object.class)), 0, Object.class);
+            }
+            return lector.asType(TIPO_LECTOR);
+        } catch (IllegalAccessException | RuntimeException e) {
+            log.warn("No se pudo acceder al campo {}: {}", field.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lista precalculada de campos y sus lectores para una clase
+     */
+    static final class PlanAcceso {
+
+        private final String[] nombres;
+        private final MethodHandle[] lectores;
+        private final Map<String, Integer> indices;
+
+        private PlanAcceso(String[] nombres, MethodHandle[] lectores) {
+            this.nombres = nombres;
+            this.lectores = lectores;
+            this.indices = HashMap.newHashMap(nombres.length);
+            for (int i = 0; i < nombres.length; i++) {
+                indices.put(nombres[i], i);
+            }
+        }
+
+        /**
+         * Plan sin los campos indicados, con los mismos lectores
+         *
+         * @param excluidos Nombres de campos a omitir
+         * @return Plan nuevo, o este mismo si no incluye ninguno de los campos
+         */
+        PlanAcceso sin(Set<String> excluidos) {
+            List<Integer> conservados = new ArrayList<>(nombres.length);
+            for (int i = 0; i < nombres.length; i++) {
+                if (!excluidos.contains(nombres[i])) {
+                    conservados.add(i);
+                }
+            }
+            if (conservados.size() == nombres.length) {
+                return this;
+            }
+            String[] nombresConservados = new String[conservados.size()];
+            MethodHandle[] lectoresConservados = new MethodHandle[conservados.size()];
+            for (int i = 0; i < nombresConservados.length; i++) {
+                nombresConservados[i] = nombres[conservados.get(i)];
+                lectoresConservados[i] = lectores[conservados.get(i)];
+            }
+            return new PlanAcceso(nombresConservados, lectoresConservados);
+        }
+
+        /**
+         * Nombres de los campos incluidos en el plan
+         *
+         * @return Nombres de campos
+         */
+        Set<String> nombres() {
+            return Collections.unmodifiableSet(indices.keySet());
+        }
+
+        /**
+         * Nombres de los campos en el orden de declaración
+         *
+         * @return Copia de los nombres
+         */
+        String[] nombresOrdenados() {
+            return nombres.clone();
+        }
+
+        /**
+         * Indica si el plan incluye un campo
+         *
+         * @param nombre Nombre del campo
+         * @return true si el campo forma parte del plan
+         */
+        boolean contiene(String nombre) {
+            return indices.containsKey(nombre);
+        }
+
+        /**
+         * Lee un único campo del objeto, sin convertir el resto
+         *
+         * @param obj Objeto de la clase del plan
+         * @param nombre Nombre del campo
+         * @return Valor del campo, o null si el campo no forma parte del plan
+         */
+        Object leer(Object obj, String nombre) {
+            Integer indice = indices.get(nombre);
+            return indice == null ? null : leer(obj, indice);
+        }
+
+        /**
+         * Convierte el objeto a mapa, con la capacidad del HashMap ya ajustada
+         *
+         * @param obj Objeto de la clase del plan
+         * @return Map con los campos del plan
+         */
+        Map<String, Object> convertir(Object obj) {
+            Map<String, Object> map = HashMap.newHashMap(nombres.length);
+            for (int i = 0; i < nombres.length; i++) {
+                map.put(nombres[i], leer(obj, i));
+            }
+            return map;
+        }
+
+        /**
+         * Lee el campo en la posición dada de {@link #nombresOrdenados()}
+         */
+        Object leer(Object obj, int indice) {
+            try {
+                return (Object) lectores[indice].invokeExact(obj);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                log.warn("No se pudo leer el campo {}: {}", nombres[indice], e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "PlanAcceso" + Arrays.toString(nombres);
         }
-        
-        return map;
     }
 }
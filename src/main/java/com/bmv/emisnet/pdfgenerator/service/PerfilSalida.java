@@ -0,0 +1,164 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.pdf.PdfPageEvent;
+import com.lowagie.text.pdf.PdfStream;
+import com.lowagie.text.pdf.PdfWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xhtmlrenderer.pdf.DefaultPDFCreationListener;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.pdf.PDFCreationListener;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Perfil de escritura del PDF: cuánta CPU se invierte en reducir el tamaño
+ *
+ * RAPIDO comprime los streams con el nivel más rápido de Deflate, para las
+ * descargas interactivas, donde importa la latencia. COMPACTO usa la compresión
+ * máxima, comprime también la estructura del documento (object streams y tabla
+ * de referencias comprimida, PDF 1.5) y recomprime las imágenes JPEG, para
+ * los documentos de archivo, donde importa el almacenamiento. ESTANDAR deja los
+ * valores por defecto de OpenPDF.
+ *
+ * Una plantilla declara su perfil por defecto con
+ * &lt;meta name="perfil-pdf" content="compacto" /&gt; en su head; sin él se usa
+ * el de la configuración del generador.
+ */
+@Slf4j
+public enum PerfilSalida {
+
+    RAPIDO(Deflater.BEST_SPEED, false, 0f),
+    ESTANDAR(PdfStream.DEFAULT_COMPRESSION, false, 0f),
+    COMPACTO(PdfStream.BEST_COMPRESSION, true, 0.75f);
+
+    /** Nombre del meta con el que una plantilla declara su perfil */
+    static final String META_PERFIL = "perfil-pdf";
+
+    private final int nivelCompresion;
+    private final boolean compresionCompleta;
+    private final float calidadJpeg;
+    private final PDFCreationListener oyente = new DefaultPDFCreationListener() {
+        @Override
+        public void preOpen(ITextRenderer renderer) {
+            configurar(renderer.getWriter());
+        }
+    };
+
+    PerfilSalida(int nivelCompresion, boolean compresionCompleta, float calidadJpeg) {
+        this.nivelCompresion = nivelCompresion;
+        this.compresionCompleta = compresionCompleta;
+        this.calidadJpeg = calidadJpeg;
+    }
+
+    /**
+     * Calidad con la que se recomprimen las imágenes JPEG
+     *
+     * @return Calidad entre 0 y 1, o 0 si no se recomprimen
+     */
+    public float getCalidadJpeg() {
+        return calidadJpeg;
+    }
+
+    /**
+     * Prepara un renderer para escribir el siguiente documento con este perfil
+     * El PdfWriter se configura al crearse, antes de abrir el documento
+     */
+    void aplicar(ITextRenderer renderer) {
+        aplicar(renderer, null);
+    }
+
+    /**
+     * Prepara un renderer para escribir el siguiente documento con este perfil
+     * y con eventos de página propios, como el estampado del membrete
+     *
+     * @param eventos Eventos para el PdfWriter del documento; null si no hay
+     */
+    void aplicar(ITextRenderer renderer, PdfPageEvent eventos) {
+        renderer.setListener(eventos == null ? oyente : new DefaultPDFCreationListener() {
+            @Override
+            public void preOpen(ITextRenderer renderer) {
+                configurar(renderer.getWriter());
+                renderer.getWriter().setPageEvent(eventos);
+            }
+        });
+        if (renderer.getSharedContext().getUserAgentCallback() instanceof AgenteUsuarioCache agente) {
+            agente.setCalidadJpeg(calidadJpeg);
+        }
+    }
+
+    private void configurar(PdfWriter writer) {
+        writer.setCompressionLevel(nivelCompresion);
+        if (compresionCompleta) {
+            writer.setFullCompression();
+        }
+    }
+
+    /**
+     * Perfil que declara el documento en su meta perfil-pdf
+     *
+     * @param documento DOM del HTML ya procesado
+     * @param porDefecto Perfil si el documento no declara uno válido
+     * @return Perfil del documento
+     */
+    static PerfilSalida de(Document documento, PerfilSalida porDefecto) {
+        Element meta = metaPerfil(head(documento));
+        return meta == null ? porDefecto : porNombre(meta.getAttribute("content"), porDefecto);
+    }
+
+    /**
+     * Fija el perfil del documento, sustituyendo el que declare la plantilla
+     *
+     * @param documento DOM del HTML ya procesado
+     * @param perfil Perfil con el que se escribirá el documento
+     */
+    static void fijar(Document documento, PerfilSalida perfil) {
+        Element head = head(documento);
+        if (head == null) {
+            Element raiz = documento.getDocumentElement();
+            head = documento.createElement("head");
+            raiz.insertBefore(head, raiz.getFirstChild());
+        }
+        Element meta = metaPerfil(head);
+        if (meta == null) {
+            meta = documento.createElement("meta");
+            meta.setAttribute("name", META_PERFIL);
+            head.appendChild(meta);
+        }
+        meta.setAttribute("content", perfil.name());
+    }
+
+    private static Element head(Document documento) {
+        Element raiz = documento.getDocumentElement();
+        return raiz == null ? null : hijo(raiz, "head", null);
+    }
+
+    private static Element metaPerfil(Element head) {
+        return head == null ? null : hijo(head, "meta", META_PERFIL);
+    }
+
+    /**
+     * Primer hijo con la etiqueta indicada y, si nombre no es null, con ese atributo name
+     */
+    private static Element hijo(Element padre, String etiqueta, String nombre) {
+        for (Node nodo = padre.getFirstChild(); nodo != null; nodo = nodo.getNextSibling()) {
+            if (nodo instanceof Element elemento && etiqueta.equalsIgnoreCase(elemento.getNodeName())
+                    && (nombre == null || nombre.equals(elemento.getAttribute("name")))) {
+                return elemento;
+            }
+        }
+        return null;
+    }
+
+    private static PerfilSalida porNombre(String nombre, PerfilSalida porDefecto) {
+        try {
+            return valueOf(nombre.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Perfil de salida desconocido '{}'; se usa {}", nombre, porDefecto);
+            return porDefecto;
+        }
+    }
+}
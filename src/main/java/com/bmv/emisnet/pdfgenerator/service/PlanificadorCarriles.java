@@ -0,0 +1,240 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Array;
+import java.time.Duration;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Planificador que reparte los documentos en carriles según su costo estimado
+ *
+ * Un reporte grande ocupa un hilo durante segundos; si comparte cola con los
+ * documentos de una página, éstos esperan detrás de él. Aquí cada carril tiene
+ * sus propios hilos y su propia cola acotada, de modo que los reportes grandes
+ * sólo compiten entre sí y la latencia de los documentos pequeños no depende de
+ * cuántos reportes grandes haya en curso.
+ *
+ * El costo de un documento es el costo base de su plantilla más el número de
+ * elementos de las colecciones de sus datos (filas de tabla, archivos...),
+ * contando colecciones anidadas hasta {@link #PROFUNDIDAD_MAXIMA} niveles. El
+ * documento va al primer carril cuyo costo máximo lo admite, o al último.
+ *
+ * Los carriles comparten el pool de renderers del generador: la suma de sus
+ * hilos no debería superar tamanoPoolRenderizadores, para que un carril nunca
+ * espere un renderer ocupado por otro.
+ */
+@Slf4j
+public class PlanificadorCarriles {
+
+    /** Niveles de anidamiento que se recorren al contar elementos */
+    static final int PROFUNDIDAD_MAXIMA = 3;
+
+    private final GeneradorReportesPDF generador;
+    private final List<Carril> carriles;
+    private final List<EjecutorAsincronoPDF> ejecutores;
+    private final Map<String, Long> costoPorPlantilla;
+
+    /**
+     * Planificador con los carriles por defecto, sin costo base por plantilla
+     *
+     * @param generador Generador que produce los PDFs
+     * @param registro Registro donde se publican las métricas de cada carril
+     */
+    public PlanificadorCarriles(GeneradorReportesPDF generador, MeterRegistry registro) {
+        this(generador, carrilesPorDefecto(), Map.of(), registro);
+    }
+
+    /**
+     * @param generador Generador que produce los PDFs
+     * @param carriles Carriles en orden creciente de costo máximo
+     * @param costoPorPlantilla Costo base de cada plantilla, sumado al de sus datos
+     * @param registro Registro donde se publican las métricas de cada carril
+     */
+    public PlanificadorCarriles(GeneradorReportesPDF generador, List<Carril> carriles,
+                                Map<String, Long> costoPorPlantilla, MeterRegistry registro) {
+        if (carriles.isEmpty()) {
+            throw new IllegalArgumentException("Se requiere al menos un carril");
+        }
+        this.generador = generador;
+        this.carriles = List.copyOf(carriles);
+        this.costoPorPlantilla = Map.copyOf(costoPorPlantilla);
+        this.ejecutores = new ArrayList<>(carriles.size());
+        for (Carril carril : carriles) {
+            ejecutores.add(new EjecutorAsincronoPDF(carril.nombre(), carril.hilos(), carril.capacidadCola(),
+                    registro, generador.getNombre()));
+        }
+    }
+
+    /**
+     * Carriles por defecto: "pequeno" hasta 500 elementos con la mayoría de los
+     * núcleos y "grande" para el resto con una cuarta parte
+     *
+     * @return Carriles por defecto
+     */
+    public static List<Carril> carrilesPorDefecto() {
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        int hilosGrande = Math.max(1, nucleos / 4);
+        return List.of(
+                new Carril("pequeno", 500, Math.max(1, nucleos - hilosGrande), 200),
+                new Carril("grande", Long.MAX_VALUE, hilosGrande, 20));
+    }
+
+    /**
+     * Genera un PDF en el carril que le corresponde por su costo
+     *
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return Futuro con el PDF; fallido con RejectedExecutionException si la cola del carril está llena
+     */
+    public CompletableFuture<byte[]> generarPDF(String nombrePlantilla, Map<String, Object> datos) {
+        return generarPDF(nombrePlantilla, datos, null);
+    }
+
+    /**
+     * Genera un PDF en el carril que le corresponde por su costo, con un tiempo máximo
+     *
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @param tiempoMaximo Tiempo máximo desde el envío, incluida la espera en cola; null sin límite
+     * @return Futuro con el PDF
+     */
+    public CompletableFuture<byte[]> generarPDF(String nombrePlantilla, Map<String, Object> datos,
+                                                Duration tiempoMaximo) {
+        long costo = estimarCosto(nombrePlantilla, datos);
+        int indice = indiceCarril(costo);
+        log.debug("Plantilla {} con costo {} al carril {}", nombrePlantilla, costo, carriles.get(indice).nombre());
+        return ejecutores.get(indice).enviar(() -> generador.generarPDF(nombrePlantilla, datos), tiempoMaximo);
+    }
+
+    /**
+     * Carril al que iría un documento
+     *
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return Carril elegido
+     */
+    public Carril carrilDe(String nombrePlantilla, Map<String, Object> datos) {
+        return carriles.get(indiceCarril(estimarCosto(nombrePlantilla, datos)));
+    }
+
+    /**
+     * Costo estimado de un documento
+     *
+     * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+     * @param datos Datos a inyectar en la plantilla
+     * @return Costo base de la plantilla más los elementos de las colecciones de los datos
+     */
+    public long estimarCosto(String nombrePlantilla, Map<String, Object> datos) {
+        return costoPorPlantilla.getOrDefault(nombrePlantilla, 0L) + contarElementos(datos, 0);
+    }
+
+    /**
+     * Deja de admitir documentos en los carriles y retira sus métricas del
+     * registro; los documentos en cola o en curso terminan
+     */
+    public void cerrar() {
+        ejecutores.forEach(EjecutorAsincronoPDF::cerrar);
+    }
+
+    public List<Carril> getCarriles() {
+        return carriles;
+    }
+
+    EjecutorAsincronoPDF getEjecutor(String carril) {
+        for (int i = 0; i < carriles.size(); i++) {
+            if (carriles.get(i).nombre().equals(carril)) {
+                return ejecutores.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Carril inexistente: " + carril);
+    }
+
+    private int indiceCarril(long costo) {
+        for (int i = 0; i < carriles.size() - 1; i++) {
+            if (costo <= carriles.get(i).costoMaximo()) {
+                return i;
+            }
+        }
+        return carriles.size() - 1;
+    }
+
+    /**
+     * Cuenta los elementos de las colecciones y arreglos alcanzables desde un valor
+     * En el último nivel sólo se suma el tamaño, sin recorrer los elementos
+     */
+    static long contarElementos(Object valor, int profundidad) {
+        if (valor == null || esSimple(valor)) {
+            return 0;
+        }
+
+        // Las filas de una tabla por columnas sólo tienen valores simples
+        if (valor instanceof TablaColumnar tabla) {
+            return tabla.size();
+        }
+
+        if (valor instanceof Collection<?> coleccion) {
+            long total = coleccion.size();
+            if (profundidad < PROFUNDIDAD_MAXIMA) {
+                for (Object elemento : coleccion) {
+                    total += contarElementos(elemento, profundidad + 1);
+                }
+            }
+            return total;
+        }
+
+        if (valor.getClass().isArray()) {
+            int longitud = Array.getLength(valor);
+            long total = longitud;
+            if (profundidad < PROFUNDIDAD_MAXIMA && !valor.getClass().getComponentType().isPrimitive()) {
+                for (int i = 0; i < longitud; i++) {
+                    total += contarElementos(Array.get(valor, i), profundidad + 1);
+                }
+            }
+            return total;
+        }
+
+        if (profundidad >= PROFUNDIDAD_MAXIMA) {
+            return 0;
+        }
+
+        long total = 0;
+        if (valor instanceof Map<?, ?> mapa) {
+            for (Object campo : mapa.values()) {
+                total += contarElementos(campo, profundidad + 1);
+            }
+            return total;
+        }
+
+        // Objeto de datos: sus campos se leen con el plan de acceso cacheado del convertidor
+        ObjectToMapConverter.PlanAcceso plan = ObjectToMapConverter.planPara(valor.getClass(), false, Set.of());
+        for (String nombre : plan.nombres()) {
+            total += contarElementos(plan.leer(valor, nombre), profundidad + 1);
+        }
+        return total;
+    }
+
+    private static boolean esSimple(Object valor) {
+        return valor instanceof CharSequence || valor instanceof Number || valor instanceof Boolean
+                || valor instanceof Character || valor instanceof Enum<?> || valor instanceof TemporalAccessor
+                || valor instanceof java.util.Date || valor.getClass().getName().startsWith("java.lang.");
+    }
+
+    /**
+     * Carril de generación
+     *
+     * @param nombre Nombre del carril; etiqueta de sus métricas y prefijo de sus hilos
+     * @param costoMaximo Costo máximo de los documentos que admite
+     * @param hilos Documentos del carril generados a la vez
+     * @param capacidadCola Documentos del carril que pueden esperar turno
+     */
+    public record Carril(String nombre, long costoMaximo, int hilos, int capacidadCola) {
+    }
+}
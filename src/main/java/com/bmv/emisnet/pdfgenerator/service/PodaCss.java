@@ -0,0 +1,429 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Poda de las reglas CSS que no pueden aplicarse a una plantilla
+ *
+ * Todas las plantillas incluyen base-styles completo, y en la cascada Flying
+ * Saucer compara cada selector contra cada elemento del documento: en una tabla
+ * de miles de filas, cientos de selectores que la plantilla nunca usa cuestan
+ * tiempo de maquetación. La poda se queda sólo con los selectores cuyas
+ * etiquetas, clases e ids aparecen en la plantilla o en sus fragmentos.
+ *
+ * El vocabulario se extrae del fuente de la plantilla, no del documento, así que
+ * incluye también lo que sólo aparece en ramas th:if, más las etiquetas que el
+ * documento tiene aunque no estén escritas (tbody en tablas sin él, por
+ * ejemplo). Si la plantilla puede producir clases, ids o marcado que no están
+ * escritos en ella (th:class, th:attr, th:utext, fragmentos con nombre
+ * dinámico...), no se poda. Los fragmentos referenciados por nombre, con o sin
+ * ~{...} y con cualquier selector, forman parte de las fuentes.
+ *
+ * Cada bloque &lt;style&gt; se poda una sola vez por plantilla. En modo
+ * verificación cada documento se genera con y sin poda y se comparan los PDFs;
+ * si difieren, la poda se desactiva para esa plantilla.
+ */
+@Slf4j
+public class PodaCss {
+
+    /**
+     * Uso de la poda en el generador
+     */
+    public enum Modo {
+        /** Las hojas se usan completas */
+        DESACTIVADA,
+        /** Se podan las reglas que no pueden aplicarse a la plantilla */
+        ACTIVA,
+        /** Se genera con y sin poda, se comparan los PDFs y se entrega el generado sin poda */
+        VERIFICACION
+    }
+
+    /**
+     * Atributos que producen clases, ids o marcado no escritos en la plantilla:
+     * los de clases e ids calculados, th:utext y las inclusiones cuyo nombre de
+     * plantilla es una expresión (~{...} o la sintaxis sin ~{}); "::" sin nombre
+     * se refiere a la propia plantilla
+     */
+    private static final Pattern VOCABULARIO_DINAMICO = Pattern.compile(
+            "th:(utext|class|classappend|attr|attrappend|attrprepend|id)\\s*="
+                    + "|~\\{\\s*(?!::)[^\\w\\s]"
+                    + "|th:(insert|replace|include)\\s*=\\s*\"\\s*(?!::|~\\{)[^\\w\\s]");
+    /** Etiquetas presentes en el documento aunque la plantilla no las escriba */
+    private static final Set<String> ETIQUETAS_IMPLICITAS = Set.of("html", "head", "body", "tbody");
+    private static final Pattern ETIQUETA = Pattern.compile("<([a-zA-Z][\\w:-]*)");
+    private static final Pattern CLASE = Pattern.compile("\\sclass\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern ID = Pattern.compile("\\sid\\s*=\\s*\"([^\"]*)\"");
+
+    private final String plantilla;
+    private final Set<String> etiquetas;
+    private final Set<String> clases;
+    private final Set<String> ids;
+    private final Map<String, String> podadas = new ConcurrentHashMap<>();
+    private volatile boolean activa;
+
+    private final LongAdder selectoresRevisados = new LongAdder();
+    private final LongAdder selectoresPodados = new LongAdder();
+    private final LongAdder verificaciones = new LongAdder();
+    private final LongAdder diferencias = new LongAdder();
+
+    private PodaCss(String plantilla, Set<String> etiquetas, Set<String> clases, Set<String> ids, boolean activa) {
+        this.plantilla = plantilla;
+        this.etiquetas = etiquetas;
+        this.clases = clases;
+        this.ids = ids;
+        this.activa = activa;
+    }
+
+    /**
+     * Calcula el vocabulario de una plantilla
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param fuentes Contenido de la plantilla y de todos los fragmentos que usa
+     * @return Poda de la plantilla; inactiva si su vocabulario no se puede conocer de antemano
+     */
+    static PodaCss para(String plantilla, List<String> fuentes) {
+        Set<String> etiquetas = new HashSet<>(ETIQUETAS_IMPLICITAS);
+        Set<String> clases = new HashSet<>();
+        Set<String> ids = new HashSet<>();
+        boolean activa = true;
+        for (String fuente : fuentes) {
+            if (VOCABULARIO_DINAMICO.matcher(fuente).find()) {
+                activa = false;
+            }
+            Matcher etiqueta = ETIQUETA.matcher(fuente);
+            while (etiqueta.find()) {
+                etiquetas.add(etiqueta.group(1).toLowerCase(Locale.ROOT));
+            }
+            Matcher clase = CLASE.matcher(fuente);
+            while (clase.find()) {
+                clases.addAll(Arrays.asList(clase.group(1).trim().split("\\s+")));
+            }
+            Matcher id = ID.matcher(fuente);
+            while (id.find()) {
+                ids.add(id.group(1).trim());
+            }
+        }
+        if (!activa) {
+            log.debug("Plantilla {} con vocabulario dinámico; sus hojas de estilo no se podan", plantilla);
+        }
+        return new PodaCss(plantilla, etiquetas, clases, ids, activa);
+    }
+
+    /**
+     * Indica si la poda se aplica a la plantilla
+     */
+    boolean isActiva() {
+        return activa;
+    }
+
+    /**
+     * Hoja de estilo sin las reglas que no pueden aplicarse a la plantilla
+     *
+     * @param css Contenido del bloque &lt;style&gt;, con el que se recuerda su versión podada
+     * @return CSS podado, o el original si la poda no está activa
+     */
+    String podar(String css) {
+        if (!activa) {
+            return css;
+        }
+        return podadas.computeIfAbsent(css, this::podarReglas);
+    }
+
+    /**
+     * Registra el resultado de comparar un PDF generado con poda contra el
+     * generado sin ella; si difieren, la poda se desactiva para la plantilla
+     *
+     * @param iguales Si los PDFs coincidieron
+     */
+    void registrarVerificacion(boolean iguales) {
+        verificaciones.increment();
+        if (!iguales) {
+            diferencias.increment();
+            if (activa) {
+                activa = false;
+                log.warn("La poda de CSS cambia los PDFs de la plantilla {}; se desactiva para ella", plantilla);
+            }
+        }
+    }
+
+    /**
+     * Compara dos PDFs sin las fechas ni el identificador del documento, que
+     * dependen del reloj
+     */
+    static boolean mismoContenido(byte[] pdf, byte[] otro) {
+        return Arrays.equals(sinMarcasDeTiempo(pdf), sinMarcasDeTiempo(otro));
+    }
+
+    public long getSelectoresRevisados() {
+        return selectoresRevisados.sum();
+    }
+
+    public long getSelectoresPodados() {
+        return selectoresPodados.sum();
+    }
+
+    public long getVerificaciones() {
+        return verificaciones.sum();
+    }
+
+    public long getDiferencias() {
+        return diferencias.sum();
+    }
+
+    /**
+     * Recorre las reglas de una hoja: conserva las at-rules (salvo @media y
+     * @supports, cuyo contenido se poda) y de cada regla sólo los selectores que
+     * pueden aplicarse; la regla desaparece si no le queda ninguno
+     */
+    private String podarReglas(String css) {
+        StringBuilder resultado = new StringBuilder(css.length());
+        int i = 0;
+        while (i < css.length()) {
+            int inicio = saltarEspacios(css, i);
+            if (inicio >= css.length()) {
+                break;
+            }
+            int llave = buscar(css, inicio, '{');
+            if (css.charAt(inicio) == '@') {
+                int puntoYComa = buscar(css, inicio, ';');
+                if (puntoYComa < llave) {
+                    // @import, @charset...
+                    resultado.append(css, inicio, puntoYComa + 1);
+                    i = puntoYComa + 1;
+                    continue;
+                }
+            }
+            if (llave >= css.length()) {
+                resultado.append(css, inicio, css.length());
+                break;
+            }
+            int cierre = cierreBloque(css, llave);
+            String preludio = css.substring(inicio, llave).trim();
+            String bloque = css.substring(llave + 1, Math.min(cierre, css.length()));
+
+            if (preludio.startsWith("@")) {
+                String regla = preludio.toLowerCase(Locale.ROOT);
+                if (regla.startsWith("@media") || regla.startsWith("@supports")) {
+                    String interior = podarReglas(bloque);
+                    if (!interior.isBlank()) {
+                        resultado.append(preludio).append('{').append(interior).append('}');
+                    }
+                } else {
+                    resultado.append(preludio).append('{').append(bloque).append('}');
+                }
+            } else {
+                StringBuilder selectores = new StringBuilder();
+                for (String selector : dividirSelectores(preludio)) {
+                    selectoresRevisados.increment();
+                    if (puedeAplicarse(selector)) {
+                        if (!selectores.isEmpty()) {
+                            selectores.append(',');
+                        }
+                        selectores.append(selector.trim());
+                    } else {
+                        selectoresPodados.increment();
+                    }
+                }
+                if (!selectores.isEmpty()) {
+                    resultado.append(selectores).append('{').append(bloque).append('}');
+                }
+            }
+            i = cierre + 1;
+        }
+        return resultado.toString();
+    }
+
+    /**
+     * Un selector puede aplicarse si cada etiqueta, clase e id que exige aparece
+     * en la plantilla; lo que va entre paréntesis o corchetes (:not(), atributos)
+     * no se exige. Ante una sintaxis que no se analiza, se conserva
+     */
+    boolean puedeAplicarse(String selector) {
+        if (selector.indexOf('\\') >= 0 || selector.indexOf('|') >= 0) {
+            return true;
+        }
+        int profundidad = 0;
+        boolean inicioCompuesto = true;
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == '(' || c == '[') {
+                profundidad++;
+                continue;
+            }
+            if (c == ')' || c == ']') {
+                profundidad--;
+                continue;
+            }
+            if (profundidad > 0) {
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == '>' || c == '+' || c == '~') {
+                inicioCompuesto = true;
+                continue;
+            }
+            if (c == '.' || c == '#' || c == ':') {
+                // Las pseudoclases y pseudoelementos (:first-child, ::before) no se exigen
+                int desde = c == ':' && i + 1 < selector.length() && selector.charAt(i + 1) == ':' ? i + 2 : i + 1;
+                int fin = finIdentificador(selector, desde);
+                String nombre = selector.substring(desde, fin);
+                if ((c == '.' && !clases.contains(nombre)) || (c == '#' && !ids.contains(nombre))) {
+                    return false;
+                }
+                i = fin - 1;
+                inicioCompuesto = false;
+                continue;
+            }
+            if (inicioCompuesto && c != '*') {
+                int fin = finIdentificador(selector, i);
+                if (fin == i) {
+                    return true;
+                }
+                if (!etiquetas.contains(selector.substring(i, fin).toLowerCase(Locale.ROOT))) {
+                    return false;
+                }
+                i = fin - 1;
+            }
+            inicioCompuesto = false;
+        }
+        return true;
+    }
+
+    private static int finIdentificador(String texto, int desde) {
+        int i = desde;
+        while (i < texto.length() && (Character.isLetterOrDigit(texto.charAt(i))
+                || texto.charAt(i) == '-' || texto.charAt(i) == '_')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Divide una lista de selectores por las comas que no están entre paréntesis,
+     * corchetes ni comillas
+     */
+    private static List<String> dividirSelectores(String preludio) {
+        List<String> selectores = new ArrayList<>();
+        int profundidad = 0;
+        char comilla = 0;
+        int inicio = 0;
+        for (int i = 0; i < preludio.length(); i++) {
+            char c = preludio.charAt(i);
+            if (comilla != 0) {
+                if (c == comilla) {
+                    comilla = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                comilla = c;
+            } else if (c == '(' || c == '[') {
+                profundidad++;
+            } else if (c == ')' || c == ']') {
+                profundidad--;
+            } else if (c == ',' && profundidad == 0) {
+                selectores.add(preludio.substring(inicio, i));
+                inicio = i + 1;
+            }
+        }
+        selectores.add(preludio.substring(inicio));
+        return selectores;
+    }
+
+    /**
+     * Salta espacios y comentarios
+     */
+    private static int saltarEspacios(String css, int desde) {
+        int i = desde;
+        while (i < css.length()) {
+            if (Character.isWhitespace(css.charAt(i))) {
+                i++;
+            } else if (css.startsWith("/*", i)) {
+                int cierre = css.indexOf("*/", i + 2);
+                i = cierre < 0 ? css.length() : cierre + 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Primera aparición de un carácter fuera de comillas y comentarios
+     *
+     * @return Posición, o la longitud del texto si no aparece
+     */
+    private static int buscar(String css, int desde, char buscado) {
+        char comilla = 0;
+        for (int i = desde; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (comilla != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == comilla) {
+                    comilla = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                comilla = c;
+            } else if (css.startsWith("/*", i)) {
+                int cierre = css.indexOf("*/", i + 2);
+                i = cierre < 0 ? css.length() : cierre + 1;
+            } else if (c == buscado) {
+                return i;
+            }
+        }
+        return css.length();
+    }
+
+    /**
+     * Posición de la llave que cierra el bloque abierto en la posición dada,
+     * sin contar las llaves entre comillas o en comentarios
+     *
+     * @return Posición, o la longitud del texto si el bloque no se cierra
+     */
+    private static int cierreBloque(String css, int llave) {
+        int profundidad = 0;
+        char comilla = 0;
+        for (int i = llave; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (comilla != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == comilla) {
+                    comilla = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                comilla = c;
+            } else if (css.startsWith("/*", i)) {
+                int cierre = css.indexOf("*/", i + 2);
+                i = cierre < 0 ? css.length() : cierre + 1;
+            } else if (c == '{') {
+                profundidad++;
+            } else if (c == '}' && --profundidad == 0) {
+                return i;
+            }
+        }
+        return css.length();
+    }
+
+    /**
+     * Sustituye la fecha de creación y el identificador del PDF, que OpenPDF
+     * genera a partir del reloj; las pruebas comparan los PDFs con él
+     */
+    static byte[] sinMarcasDeTiempo(byte[] pdf) {
+        String contenido = new String(pdf, StandardCharsets.ISO_8859_1)
+                .replaceAll("/(CreationDate|ModDate)\\(D:[^)]*\\)", "/$1()")
+                .replaceAll("/ID ?\\[<[0-9a-fA-F]+> ?<[0-9a-fA-F]+>\\]", "/ID[]");
+        return contenido.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,304 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.thymeleaf.context.IContext;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de buffers de salida para los PDFs generados en memoria
+ *
+ * Un ByteArrayOutputStream nuevo empieza con 32 bytes y duplica su arreglo, con
+ * una copia cada vez, hasta alcanzar el tamaño del PDF. Aquí cada documento
+ * recibe un buffer ya dimensionado para el tamaño que se espera y, al
+ * devolverlo, el arreglo queda disponible para el siguiente documento.
+ *
+ * El tamaño esperado sale de un histograma de los tamaños observados por
+ * plantilla y cardinalidad de los datos (orden de magnitud, en potencias de 2,
+ * del número de elementos de sus colecciones): se usa el percentil 95, de modo
+ * que casi ningún documento necesita crecer su buffer. Los buffers libres se
+ * agrupan por capacidad en potencias de 2 y un documento toma uno de al menos
+ * la capacidad prevista; el total retenido se acota.
+ *
+ * Publica en Micrometer la tasa de aciertos, los bytes retenidos y la capacidad
+ * desperdiciada (capacidad de los buffers que no llegó a usarse), con el
+ * generador como etiqueta; se retiran del registro al cerrarlo.
+ */
+final class PoolBuffersSalida {
+
+    /** Tamaño esperado sin observaciones previas de la plantilla */
+    private static final int TAMANO_INICIAL = 64 * 1024;
+    private static final int CLASES_CAPACIDAD = 31;
+
+    private final long capacidadBytes;
+    private final Map<String, Histograma> histogramas = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedDeque<Buffer>[] libres = new ConcurrentLinkedDeque[CLASES_CAPACIDAD];
+    private final AtomicLong bytesRetenidos = new AtomicLong();
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder crecimientos = new LongAdder();
+    private final LongAdder capacidadDesperdiciada = new LongAdder();
+    private final LongAdder documentos = new LongAdder();
+    private final MeterRegistry registro;
+    private final List<Meter> medidores;
+
+    /**
+     * @param capacidadBytes Bytes máximos retenidos en buffers libres
+     * @param registro Registro donde se publican la tasa de aciertos, los bytes retenidos y el desperdicio
+     * @param generador Nombre del generador dueño del pool, etiqueta de sus métricas
+     */
+    PoolBuffersSalida(long capacidadBytes, MeterRegistry registro, String generador) {
+        this.capacidadBytes = capacidadBytes;
+        for (int i = 0; i < CLASES_CAPACIDAD; i++) {
+            libres[i] = new ConcurrentLinkedDeque<>();
+        }
+
+        Tags etiquetas = Tags.of("generador", generador);
+        this.registro = registro;
+        this.medidores = List.of(
+                Gauge.builder("pdf.buffers.tasa.aciertos", this, PoolBuffersSalida::getTasaAciertos)
+                        .description("Fracción de buffers servidos desde el pool")
+                        .tags(etiquetas)
+                        .register(registro),
+                Gauge.builder("pdf.buffers.retenidos", bytesRetenidos, AtomicLong::get)
+                        .description("Bytes retenidos en buffers libres")
+                        .baseUnit("bytes")
+                        .tags(etiquetas)
+                        .register(registro),
+                FunctionCounter.builder("pdf.buffers.desperdiciados", capacidadDesperdiciada, LongAdder::sum)
+                        .description("Capacidad de buffer que los documentos no llegaron a usar")
+                        .baseUnit("bytes")
+                        .tags(etiquetas)
+                        .register(registro),
+                FunctionCounter.builder("pdf.buffers.crecimientos", crecimientos, LongAdder::sum)
+                        .description("Documentos que superaron la capacidad prevista de su buffer")
+                        .tags(etiquetas)
+                        .register(registro));
+    }
+
+    /**
+     * Presta un buffer dimensionado para un documento de la plantilla
+     *
+     * @param plantilla Nombre de la plantilla
+     * @param cardinalidad Elementos de las colecciones de los datos (ver {@link #cardinalidad(IContext)})
+     * @return Buffer vacío; debe devolverse con {@link Buffer#devolver()}
+     */
+    Buffer obtener(String plantilla, int cardinalidad) {
+        String llave = plantilla + "#" + (32 - Integer.numberOfLeadingZeros(cardinalidad));
+        Histograma histograma = histogramas.computeIfAbsent(llave, nueva -> new Histograma());
+        int capacidad = histograma.estimar();
+        int clase = clase(capacidad);
+
+        // En la clase de la capacidad prevista puede haber buffers algo menores; en la siguiente, no
+        for (int candidata = clase; candidata <= Math.min(clase + 1, CLASES_CAPACIDAD - 1); candidata++) {
+            Buffer buffer = libres[candidata].pollFirst();
+            if (buffer != null && buffer.capacidad() < capacidad) {
+                libres[candidata].offerLast(buffer);
+            } else if (buffer != null) {
+                bytesRetenidos.addAndGet(-buffer.capacidad());
+                aciertos.increment();
+                buffer.prestar(histograma);
+                return buffer;
+            }
+        }
+        fallos.increment();
+        Buffer buffer = new Buffer(capacidad);
+        buffer.prestar(histograma);
+        return buffer;
+    }
+
+    /**
+     * Retira sus métricas del registro; los buffers prestados aún pueden devolverse
+     */
+    void cerrar() {
+        medidores.forEach(registro::remove);
+    }
+
+    /**
+     * Cardinalidad de los datos de un documento: elementos de sus colecciones,
+     * contados como para el costo de PlanificadorCarriles
+     *
+     * @param contexto Contexto con los datos del documento
+     * @return Número aproximado de elementos
+     */
+    static int cardinalidad(IContext contexto) {
+        long total = 0;
+        for (String nombre : contexto.getVariableNames()) {
+            // Cada variable equivale a un valor del mapa de datos
+            total += PlanificadorCarriles.contarElementos(contexto.getVariable(nombre), 1);
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    private void liberar(Buffer buffer) {
+        documentos.increment();
+        capacidadDesperdiciada.add(buffer.capacidad() - buffer.size());
+        if (buffer.capacidad() > buffer.capacidadPrestada) {
+            crecimientos.increment();
+        }
+
+        if (bytesRetenidos.addAndGet(buffer.capacidad()) > capacidadBytes) {
+            bytesRetenidos.addAndGet(-buffer.capacidad());
+            return;
+        }
+        buffer.reset();
+        libres[clase(buffer.capacidad())].offerFirst(buffer);
+    }
+
+    /**
+     * Clase de capacidad: potencia de 2 inmediatamente inferior
+     */
+    private static int clase(int capacidad) {
+        return Math.min(31 - Integer.numberOfLeadingZeros(Math.max(capacidad, 1)), CLASES_CAPACIDAD - 1);
+    }
+
+    long getAciertos() {
+        return aciertos.sum();
+    }
+
+    long getFallos() {
+        return fallos.sum();
+    }
+
+    /**
+     * @return Fracción de buffers servidos desde el pool, entre 0 y 1
+     */
+    double getTasaAciertos() {
+        long total = aciertos.sum() + fallos.sum();
+        return total == 0 ? 0 : (double) aciertos.sum() / total;
+    }
+
+    /**
+     * @return Documentos que superaron la capacidad prevista y debieron crecer su buffer
+     */
+    long getCrecimientos() {
+        return crecimientos.sum();
+    }
+
+    /**
+     * @return Capacidad total que los documentos devueltos no llegaron a usar, en bytes
+     */
+    long getCapacidadDesperdiciada() {
+        return capacidadDesperdiciada.sum();
+    }
+
+    /**
+     * @return Documentos cuyo buffer ya se devolvió
+     */
+    long getDocumentos() {
+        return documentos.sum();
+    }
+
+    long getBytesRetenidos() {
+        return bytesRetenidos.get();
+    }
+
+    /**
+     * Buffer de salida prestado por el pool
+     *
+     * Como createPDF cierra su stream al terminar, close() no tiene efecto; el
+     * buffer vuelve al pool con devolver(), tras lo cual no debe usarse.
+     */
+    final class Buffer extends ByteArrayOutputStream {
+
+        private Histograma histograma;
+        private int capacidadPrestada;
+
+        private Buffer(int capacidad) {
+            super(capacidad);
+        }
+
+        private void prestar(Histograma histograma) {
+            this.histograma = histograma;
+            this.capacidadPrestada = buf.length;
+        }
+
+        /**
+         * Arreglo interno, válido hasta size() y mientras el buffer esté prestado
+         */
+        byte[] contenido() {
+            if (histograma == null) {
+                throw new IllegalStateException("El buffer ya se devolvió al pool");
+            }
+            return buf;
+        }
+
+        /**
+         * Registra el tamaño del documento terminado en la estimación de su plantilla
+         */
+        void terminar() {
+            if (histograma != null) {
+                histograma.registrar(count);
+            }
+        }
+
+        /**
+         * Devuelve el buffer al pool; sin efecto si ya se devolvió
+         */
+        void devolver() {
+            if (histograma != null) {
+                histograma = null;
+                liberar(this);
+            }
+        }
+
+        private int capacidad() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Histograma de tamaños en clases de un cuarto de potencia de 2 (~19 %), con
+     * envejecimiento: al llegar a MAX_OBSERVACIONES se reducen a la mitad, para
+     * que pese más lo reciente
+     */
+    private static final class Histograma {
+
+        private static final int CLASES = 4 * 40;
+        private static final int MAX_OBSERVACIONES = 1024;
+        private static final double PERCENTIL = 0.95;
+
+        private final int[] cuentas = new int[CLASES];
+        private int total;
+        private volatile int estimado = TAMANO_INICIAL;
+
+        synchronized void registrar(int tamano) {
+            int clase = (int) Math.min(CLASES - 1, Math.floor(4 * Math.log(Math.max(tamano, 1)) / Math.log(2)));
+            cuentas[clase]++;
+            if (++total >= MAX_OBSERVACIONES) {
+                total = 0;
+                for (int i = 0; i < CLASES; i++) {
+                    cuentas[i] /= 2;
+                    total += cuentas[i];
+                }
+            }
+
+            int umbral = (int) Math.ceil(PERCENTIL * total);
+            int acumuladas = 0;
+            for (int i = 0; i < CLASES; i++) {
+                acumuladas += cuentas[i];
+                if (acumuladas >= umbral) {
+                    // Límite superior de la clase
+                    estimado = (int) Math.min(Integer.MAX_VALUE - 8, Math.ceil(Math.pow(2, (i + 1) / 4.0)));
+                    return;
+                }
+            }
+        }
+
+        int estimar() {
+            return estimado;
+        }
+    }
+}
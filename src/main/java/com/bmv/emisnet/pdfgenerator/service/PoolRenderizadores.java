@@ -0,0 +1,264 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.pdf.PdfDestination;
+import lombok.extern.slf4j.Slf4j;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Cleaner;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Pool acotado de instancias ITextRenderer reutilizables
+ *
+ * Crear un ITextRenderer implica un SharedContext, un resolvedor de fuentes,
+ * una fábrica de elementos reemplazados y un user agent nuevos. El pool mantiene
+ * como máximo {@code tamano} instancias y las presta por documento; al devolverlas
+ * se limpian los ajustes por documento para que el siguiente préstamo parta de
+ * un estado conocido.
+ *
+ * Los préstamos que nunca se devuelven se detectan cuando el recolector de basura
+ * reclama el objeto Prestamo: se registra la fuga y se libera su cupo.
+ */
+@Slf4j
+public class PoolRenderizadores {
+
+    private static final Cleaner LIMPIADOR = Cleaner.create();
+    /** Versión de Flying Saucer cuyos campos privados limpia reiniciarDispositivo() */
+    static final String VERSION_FLYING_SAUCER = "9.1.22";
+    private static final MethodHandle FIJAR_DESTINO_POR_DEFECTO =
+            accesoDispositivo("_defaultDestination", PdfDestination.class, true);
+    private static final MethodHandle LEER_METADATOS = accesoDispositivo("_metadata", List.class, false);
+
+    private final Supplier<ITextRenderer> fabrica;
+    private final Semaphore cupos;
+    private final Deque<ITextRenderer> disponibles = new ConcurrentLinkedDeque<>();
+    private final Duration esperaMaxima;
+    private final int maxPaginasReutilizacion;
+
+    private final LongAdder creados = new LongAdder();
+    private final LongAdder reutilizados = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder fugas = new LongAdder();
+
+    /**
+     * @param fabrica Crea un renderer nuevo cuando no hay uno disponible
+     * @param tamano Número máximo de renderers prestados a la vez
+     * @param esperaMaxima Tiempo máximo de espera por un cupo libre
+     * @param maxPaginasReutilizacion Páginas a partir de las cuales el renderer se descarta al devolverse
+     */
+    public PoolRenderizadores(Supplier<ITextRenderer> fabrica, int tamano, Duration esperaMaxima,
+                              int maxPaginasReutilizacion) {
+        if (tamano < 1) {
+            throw new IllegalArgumentException("El tamaño del pool debe ser mayor a cero: " + tamano);
+        }
+        this.fabrica = fabrica;
+        this.cupos = new Semaphore(tamano, true);
+        this.esperaMaxima = esperaMaxima;
+        this.maxPaginasReutilizacion = maxPaginasReutilizacion;
+    }
+
+    /**
+     * Presta un renderer, esperando si todos están en uso
+     *
+     * @return Préstamo que debe cerrarse para devolver el renderer
+     * @throws InterruptedIOException Si se agota la espera o se interrumpe el hilo
+     */
+    public Prestamo obtener() throws InterruptedIOException {
+        try {
+            if (!cupos.tryAcquire(esperaMaxima.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new InterruptedIOException(
+                        "No hay renderers disponibles tras esperar " + esperaMaxima.toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando un renderer del pool");
+        }
+
+        ITextRenderer renderer = disponibles.pollFirst();
+        try {
+            if (renderer == null) {
+                renderer = fabrica.get();
+                creados.increment();
+            } else {
+                reutilizados.increment();
+            }
+        } catch (RuntimeException e) {
+            cupos.release();
+            throw e;
+        }
+
+        return new Prestamo(renderer);
+    }
+
+    public long getCreados() {
+        return creados.sum();
+    }
+
+    public long getReutilizados() {
+        return reutilizados.sum();
+    }
+
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    public long getFugas() {
+        return fugas.sum();
+    }
+
+    public int getDisponibles() {
+        return disponibles.size();
+    }
+
+    private void devolver(ITextRenderer renderer, boolean invalido) {
+        try {
+            if (invalido || maquetoDemasiadasPaginas(renderer)) {
+                descartados.increment();
+            } else {
+                reiniciar(renderer);
+                disponibles.offerFirst(renderer);
+            }
+        } finally {
+            cupos.release();
+        }
+    }
+
+    private boolean maquetoDemasiadasPaginas(ITextRenderer renderer) {
+        return renderer.getRootBox() != null
+                && renderer.getRootBox().getLayer().getPages().size() > maxPaginasReutilizacion;
+    }
+
+    /**
+     * Limpia los ajustes que un documento pudo dejar en el renderer. El DOM, el
+     * layout y el PdfWriter del documento anterior se sustituyen en el siguiente
+     * setDocument/layout/createPDF.
+     */
+    private static void reiniciar(ITextRenderer renderer) {
+        renderer.setListener(null);
+        renderer.setPDFEncryption(null);
+        renderer.setTimeouted(false);
+        reiniciarDispositivo(renderer.getOutputDevice());
+    }
+
+    /**
+     * ITextOutputDevice conserva estado de un documento a otro que no se
+     * sustituye al maquetar el siguiente:
+     * - el destino por defecto (la primera página, usada por los marcadores sin
+     *   destino propio) se crea sólo en el primer documento, así que los
+     *   siguientes apuntarían a una página del PdfWriter anterior y numerarían
+     *   sus objetos en otro orden;
+     * - los metadatos del head (title y meta) se acumulan sin vaciarse, así que
+     *   el título del primer documento se repetiría en todos los demás.
+     * Al limpiarlos, cada documento de un renderer reutilizado sale igual que en uno nuevo.
+     * ITextRenderer no permite sustituir su dispositivo, así que se limpian sus
+     * campos privados; si faltan, el pool no se inicializa (ver accesoDispositivo).
+     */
+    private static void reiniciarDispositivo(ITextOutputDevice dispositivo) {
+        if (dispositivo == null) {
+            return;
+        }
+        try {
+            FIJAR_DESTINO_POR_DEFECTO.invokeExact(dispositivo, (PdfDestination) null);
+            ((List<?>) LEER_METADATOS.invokeExact(dispositivo)).clear();
+        } catch (Throwable e) {
+            throw new IllegalStateException("No se pudo reiniciar el dispositivo de salida del renderer", e);
+        }
+    }
+
+    /**
+     * Acceso a un campo privado de ITextOutputDevice; falla al cargar la clase
+     * si una versión de Flying Saucer distinta de VERSION_FLYING_SAUCER lo
+     * renombró o cambió de tipo, en vez de reutilizar renderers con estado ajeno
+     */
+    private static MethodHandle accesoDispositivo(String nombre, Class<?> tipo, boolean escritura) {
+        try {
+            Field campo = ITextOutputDevice.class.getDeclaredField(nombre);
+            if (campo.getType() != tipo) {
+                throw new NoSuchFieldException(nombre + " es de tipo " + campo.getType().getName());
+            }
+            campo.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return escritura ? lookup.unreflectSetter(campo) : lookup.unreflectGetter(campo);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("ITextOutputDevice no coincide con Flying Saucer "
+                    + VERSION_FLYING_SAUCER + "; revise PoolRenderizadores.reiniciarDispositivo: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Préstamo de un renderer; se devuelve al pool con close()
+     */
+    public final class Prestamo implements AutoCloseable {
+
+        private final ITextRenderer renderer;
+        private final EstadoPrestamo estado;
+        private final Cleaner.Cleanable registro;
+        private boolean invalido;
+
+        private Prestamo(ITextRenderer renderer) {
+            this.renderer = renderer;
+            this.estado = new EstadoPrestamo(cupos, fugas, Thread.currentThread().getName());
+            this.registro = LIMPIADOR.register(this, estado);
+        }
+
+        public ITextRenderer getRenderer() {
+            return renderer;
+        }
+
+        /**
+         * Marca el renderer como no reutilizable (por ejemplo, tras un error a mitad
+         * de renderizado); al cerrarse el préstamo se descarta en vez de volver al pool
+         */
+        public void invalidar() {
+            invalido = true;
+        }
+
+        @Override
+        public void close() {
+            if (estado.devuelto.compareAndSet(false, true)) {
+                registro.clean();
+                devolver(renderer, invalido);
+            }
+        }
+    }
+
+    /**
+     * Estado compartido con el Cleaner; no referencia al Prestamo para que éste
+     * pueda ser reclamado si el llamador olvida cerrarlo
+     */
+    private static final class EstadoPrestamo implements Runnable {
+
+        private final AtomicBoolean devuelto = new AtomicBoolean();
+        private final Semaphore cupos;
+        private final LongAdder fugas;
+        private final String hilo;
+
+        private EstadoPrestamo(Semaphore cupos, LongAdder fugas, String hilo) {
+            this.cupos = cupos;
+            this.fugas = fugas;
+            this.hilo = hilo;
+        }
+
+        @Override
+        public void run() {
+            if (devuelto.compareAndSet(false, true)) {
+                fugas.increment();
+                cupos.release();
+                log.warn("Préstamo de renderer obtenido en el hilo {} nunca fue devuelto; se libera su cupo", hilo);
+            }
+        }
+    }
+}
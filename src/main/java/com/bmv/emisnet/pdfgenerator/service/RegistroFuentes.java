@@ -0,0 +1,229 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.lowagie.text.pdf.BaseFont;
+import lombok.extern.slf4j.Slf4j;
+import org.xhtmlrenderer.css.constants.IdentValue;
+import org.xhtmlrenderer.pdf.ITextFontResolver;
+import org.xhtmlrenderer.pdf.ITextFontResolver.FontDescription;
+import org.xhtmlrenderer.pdf.TrueTypeUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Registro de fuentes compartido por todos los renderers
+ *
+ * Flying Saucer crea un resolutor de fuentes por renderer y, si se le agregan
+ * directorios, vuelve a leer y parsear cada archivo de fuente en cada uno. Este
+ * registro lee los archivos TrueType/OpenType de sus directorios una sola vez y
+ * comparte las métricas ya parseadas con todos los renderers.
+ *
+ * Los alias permiten que las familias que usan las plantillas (Arial, Courier
+ * New) se resuelvan a otra familia cuando no hay un archivo con ese nombre; sin
+ * directorios, se resuelven a las fuentes estándar de PDF (Helvetica, Courier),
+ * que es lo que Flying Saucer ya usaba por descarte.
+ */
+@Slf4j
+public class RegistroFuentes {
+
+    /**
+     * Cómo se incluyen en el PDF las fuentes cargadas desde archivo
+     */
+    public enum PoliticaIncrustacion {
+        /** No se incrustan: PDF mínimo, pero el lector debe tener la fuente instalada */
+        NINGUNA,
+        /** Sólo los glifos usados en el documento: buen equilibrio entre tamaño y CPU */
+        SUBCONJUNTO,
+        /** La fuente completa: PDF más grande, sin el costo de calcular el subconjunto */
+        COMPLETA
+    }
+
+    /** Alias por defecto para las familias que usan las plantillas incluidas */
+    public static final Map<String, String> ALIAS_POR_DEFECTO = Map.of(
+            "Arial", "Helvetica",
+            "Courier New", "Courier");
+
+    private static final RegistroFuentes GLOBAL = new RegistroFuentes(
+            PoliticaIncrustacion.SUBCONJUNTO, ALIAS_POR_DEFECTO, List.of());
+
+    private final PoliticaIncrustacion politica;
+    private final Map<String, String> alias;
+    private final Map<String, List<FontDescription>> familias;
+    private final Map<String, FontDescription> resueltas = new ConcurrentHashMap<>();
+    private final String huella;
+
+    /**
+     * Carga una sola vez todas las fuentes .ttf, .otf y .ttc de los directorios
+     * (incluyendo subdirectorios)
+     *
+     * @param politica Política de incrustación de las fuentes cargadas
+     * @param alias Familia a usar en lugar de otra cuando ésta no se cargó desde archivo
+     * @param directorios Directorios con archivos de fuentes
+     */
+    public RegistroFuentes(PoliticaIncrustacion politica, Map<String, String> alias, List<Path> directorios) {
+        this.politica = politica;
+        this.alias = Map.copyOf(alias);
+
+        Map<String, List<FontDescription>> cargadas = new HashMap<>();
+        List<String> rutas = new ArrayList<>();
+        for (Path directorio : directorios) {
+            cargarDirectorio(directorio, cargadas, rutas);
+        }
+        cargadas.values().forEach(descripciones -> descripciones.sort(Comparator.comparingInt(FontDescription::getWeight)));
+        this.familias = Map.copyOf(cargadas);
+        this.huella = HuellaDatos.de(politica.name(), this.alias, rutas);
+
+        log.debug("Registro de fuentes con {} familias ({})", familias.size(), politica);
+    }
+
+    /**
+     * Registro compartido por toda la JVM, sin directorios y con los alias por defecto
+     *
+     * @return Instancia global
+     */
+    public static RegistroFuentes global() {
+        return GLOBAL;
+    }
+
+    public PoliticaIncrustacion getPolitica() {
+        return politica;
+    }
+
+    /**
+     * Huella de la política, los alias y los archivos de fuente cargados: dos
+     * registros con la misma huella producen los mismos PDFs
+     */
+    String getHuella() {
+        return huella;
+    }
+
+    /**
+     * Familias cargadas desde archivo
+     *
+     * @return Nombres de familia, tal como se usan en CSS
+     */
+    public Set<String> getFamilias() {
+        return familias.keySet();
+    }
+
+    /**
+     * Aplica el alias de una familia si ésta no se cargó desde archivo
+     *
+     * @param familia Familia normalizada
+     * @return Familia a buscar
+     */
+    String resolverAlias(String familia) {
+        return familias.containsKey(familia) ? familia : alias.getOrDefault(familia, familia);
+    }
+
+    /**
+     * Busca la variante de una familia cargada que mejor corresponde al peso y
+     * estilo pedidos, con el mismo criterio que Flying Saucer
+     *
+     * @return Descripción de la fuente, o null si la familia no se cargó desde archivo
+     */
+    FontDescription buscar(String familia, IdentValue peso, IdentValue estilo) {
+        List<FontDescription> descripciones = familias.get(familia);
+        if (descripciones == null) {
+            return null;
+        }
+        int pesoNumerico = ITextFontResolver.convertWeightToInt(peso);
+        return resueltas.computeIfAbsent(familia + "-" + pesoNumerico + "-" + estilo,
+                llave -> elegir(descripciones, pesoNumerico, estilo));
+    }
+
+    private static FontDescription elegir(List<FontDescription> descripciones, int peso, IdentValue estilo) {
+        List<FontDescription> candidatas = descripciones.stream()
+                .filter(descripcion -> descripcion.getStyle() == estilo)
+                .toList();
+        if (candidatas.isEmpty()) {
+            if (estilo == IdentValue.ITALIC) {
+                return elegir(descripciones, peso, IdentValue.OBLIQUE);
+            }
+            if (estilo == IdentValue.OBLIQUE) {
+                return elegir(descripciones, peso, IdentValue.NORMAL);
+            }
+            candidatas = descripciones;
+        }
+
+        for (FontDescription candidata : candidatas) {
+            if (candidata.getWeight() == peso) {
+                return candidata;
+            }
+        }
+
+        // Sin peso exacto: hasta 500 se prefiere la más gruesa de las más ligeras,
+        // por encima la más ligera de las más gruesas (candidatas ordenadas por peso)
+        int ultima = candidatas.size() - 1;
+        if (peso <= 500) {
+            int i = 0;
+            while (i <= ultima && candidatas.get(i).getWeight() < peso) {
+                i++;
+            }
+            return candidatas.get(i > ultima ? ultima : Math.max(i - 1, 0));
+        }
+        int i = ultima;
+        while (i >= 0 && candidatas.get(i).getWeight() > peso) {
+            i--;
+        }
+        return candidatas.get(i < 0 ? 0 : Math.min(i + 1, ultima));
+    }
+
+    private void cargarDirectorio(Path directorio, Map<String, List<FontDescription>> cargadas, List<String> rutas) {
+        List<Path> archivos;
+        try (Stream<Path> recorrido = Files.walk(directorio)) {
+            archivos = recorrido.filter(Files::isRegularFile).filter(RegistroFuentes::esFuente).sorted().toList();
+        } catch (IOException e) {
+            log.warn("No se pudo recorrer el directorio de fuentes {}: {}", directorio, e.getMessage());
+            return;
+        }
+
+        for (Path archivo : archivos) {
+            String ruta = archivo.toString();
+            try {
+                if (ruta.toLowerCase(Locale.ROOT).endsWith(".ttc")) {
+                    String[] nombres = BaseFont.enumerateTTCNames(ruta);
+                    for (int i = 0; i < nombres.length; i++) {
+                        cargarFuente(ruta + "," + i, cargadas);
+                    }
+                } else {
+                    cargarFuente(ruta, cargadas);
+                }
+                rutas.add(ruta);
+            } catch (Exception e) {
+                log.warn("No se pudo cargar la fuente {}: {}", archivo, e.getMessage());
+            }
+        }
+    }
+
+    private void cargarFuente(String ruta, Map<String, List<FontDescription>> cargadas) throws Exception {
+        boolean incrustar = politica != PoliticaIncrustacion.NINGUNA;
+        // Identity-H cubre cualquier carácter, pero exige incrustar la fuente
+        String codificacion = incrustar ? BaseFont.IDENTITY_H : BaseFont.CP1252;
+
+        // Sin la caché estática de OpenPDF: la política de subconjunto es propia de este registro
+        BaseFont fuente = BaseFont.createFont(ruta, codificacion, incrustar, false, null, null);
+        fuente.setSubset(politica != PoliticaIncrustacion.COMPLETA);
+
+        for (String familia : TrueTypeUtil.getFamilyNames(fuente)) {
+            FontDescription descripcion = new FontDescription(fuente);
+            TrueTypeUtil.populateDescription(ruta, fuente, descripcion);
+            cargadas.computeIfAbsent(familia, nombre -> new ArrayList<>()).add(descripcion);
+        }
+    }
+
+    private static boolean esFuente(Path archivo) {
+        String nombre = archivo.getFileName().toString().toLowerCase(Locale.ROOT);
+        return nombre.endsWith(".ttf") || nombre.endsWith(".otf") || nombre.endsWith(".ttc");
+    }
+}
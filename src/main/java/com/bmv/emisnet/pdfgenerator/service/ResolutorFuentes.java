@@ -0,0 +1,77 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import org.xhtmlrenderer.css.constants.IdentValue;
+import org.xhtmlrenderer.css.value.FontSpecification;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.pdf.ITextFSFont;
+import org.xhtmlrenderer.pdf.ITextFontResolver;
+import org.xhtmlrenderer.pdf.ITextFontResolver.FontDescription;
+import org.xhtmlrenderer.render.FSFont;
+
+/**
+ * Resolutor de fuentes de un renderer que consulta primero el registro compartido
+ *
+ * Las familias cargadas en el RegistroFuentes se sirven desde ahí sin volver a
+ * leer ningún archivo; el resto (fuentes estándar de PDF, @font-face) se
+ * resuelve como siempre, después de aplicar los alias del registro.
+ */
+class ResolutorFuentes extends ITextFontResolver {
+
+    private final RegistroFuentes registro;
+
+    ResolutorFuentes(SharedContext sharedContext, RegistroFuentes registro) {
+        super(sharedContext);
+        this.registro = registro;
+    }
+
+    @Override
+    public FSFont resolveFont(SharedContext renderingContext, FontSpecification spec) {
+        if (spec.families == null) {
+            return super.resolveFont(renderingContext, spec);
+        }
+
+        IdentValue estilo = spec.fontStyle == IdentValue.ITALIC || spec.fontStyle == IdentValue.OBLIQUE
+                ? spec.fontStyle : IdentValue.NORMAL;
+        String[] familias = new String[spec.families.length];
+        for (int i = 0; i < familias.length; i++) {
+            familias[i] = registro.resolverAlias(normalizar(spec.families[i]));
+            FontDescription descripcion = registro.buscar(familias[i], spec.fontWeight, estilo);
+            if (descripcion != null) {
+                return new ITextFSFont(descripcion, spec.size);
+            }
+        }
+
+        FontSpecification conAlias = new FontSpecification();
+        conAlias.size = spec.size;
+        conAlias.fontWeight = spec.fontWeight;
+        conAlias.fontStyle = spec.fontStyle;
+        conAlias.variant = spec.variant;
+        conAlias.families = familias;
+        return super.resolveFont(renderingContext, conAlias);
+    }
+
+    /**
+     * Misma normalización que ITextFontResolver: sin comillas y con los nombres
+     * genéricos de CSS traducidos a los de Java
+     */
+    private static String normalizar(String familia) {
+        String resultado = familia;
+        if (resultado.startsWith("\"") || resultado.startsWith("'")) {
+            resultado = resultado.substring(1);
+        }
+        if (resultado.endsWith("\"") || resultado.endsWith("'")) {
+            resultado = resultado.substring(0, resultado.length() - 1);
+        }
+
+        if (resultado.equalsIgnoreCase("serif")) {
+            return "Serif";
+        }
+        if (resultado.equalsIgnoreCase("sans-serif")) {
+            return "SansSerif";
+        }
+        if (resultado.equalsIgnoreCase("monospace")) {
+            return "Monospaced";
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,129 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.thymeleaf.IEngineConfiguration;
+import org.thymeleaf.cache.AlwaysValidCacheEntryValidity;
+import org.thymeleaf.cache.ICacheEntryValidity;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.AbstractTemplateResolver;
+import org.thymeleaf.templateresource.ITemplateResource;
+import org.thymeleaf.templateresource.StringTemplateResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Resolutor de Thymeleaf sobre el paquete de plantillas precompiladas
+ *
+ * Sirve desde memoria las plantillas y fragmentos que generó
+ * {@link CompiladorPlantillas} en el build. Las plantillas que no están en el
+ * paquete no se resuelven aquí, y Thymeleaf pasa al siguiente resolutor (el
+ * del classpath), que es también el que se usa si el paquete no existe.
+ *
+ * Cuando el paquete está en un directorio (target/classes al ejecutar desde el
+ * IDE o con mvn sin volver a empaquetar), se descarta si alguna .html junto a
+ * él es más reciente: aplana fragmentos, así que cualquier plantilla editada
+ * puede haberlo dejado viejo. Dentro de un jar, paquete y plantillas salen del
+ * mismo build y no se comparan.
+ */
+@Slf4j
+final class ResolutorPlantillasPrecompiladas extends AbstractTemplateResolver {
+
+    private volatile Map<String, String> plantillas;
+
+    /**
+     * @param plantillas Plantillas compiladas por nombre, sin extensión
+     */
+    ResolutorPlantillasPrecompiladas(Map<String, String> plantillas) {
+        this.plantillas = Map.copyOf(plantillas);
+        setName("plantillas-precompiladas");
+    }
+
+    /**
+     * Carga el paquete del classpath
+     *
+     * @param classLoader Class loader donde buscar el paquete
+     * @return Resolutor, o null si el paquete no existe, está desactualizado o no se puede leer
+     */
+    static ResolutorPlantillasPrecompiladas cargar(ClassLoader classLoader) {
+        URL recurso = classLoader.getResource(CompiladorPlantillas.RECURSO_PAQUETE);
+        if (recurso == null) {
+            log.debug("Sin paquete de plantillas precompiladas; se leen del classpath");
+            return null;
+        }
+        try (InputStream entrada = recurso.openStream()) {
+            if ("file".equals(recurso.getProtocol()) && !vigente(Path.of(recurso.toURI()))) {
+                log.warn("Hay plantillas más recientes que {}; se leen del classpath hasta recompilar el paquete",
+                        recurso);
+                return null;
+            }
+            Map<String, String> plantillas = CompiladorPlantillas.leer(entrada);
+            log.debug("Paquete con {} plantillas precompiladas", plantillas.size());
+            return new ResolutorPlantillasPrecompiladas(plantillas);
+        } catch (IOException | UncheckedIOException | URISyntaxException e) {
+            log.warn("No se pudo leer el paquete de plantillas precompiladas: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Indica si ninguna plantilla del directorio del paquete es posterior a él
+     *
+     * @param paquete Archivo del paquete, dentro del directorio de plantillas
+     * @return true si el paquete es al menos tan reciente como todas las .html
+     */
+    static boolean vigente(Path paquete) throws IOException {
+        FileTime compilado = Files.getLastModifiedTime(paquete);
+        try (Stream<Path> recorrido = Files.walk(paquete.getParent())) {
+            return recorrido.filter(archivo -> archivo.getFileName().toString().endsWith(".html"))
+                    .noneMatch(archivo -> modificado(archivo).compareTo(compilado) > 0);
+        }
+    }
+
+    private static FileTime modificado(Path archivo) {
+        try {
+            return Files.getLastModifiedTime(archivo);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deja de servir el paquete, por ejemplo porque las plantillas del classpath
+     * cambiaron; a partir de aquí todas se resuelven con el siguiente resolutor
+     */
+    void descartar() {
+        plantillas = Map.of();
+    }
+
+    boolean contiene(String plantilla) {
+        return plantillas.containsKey(plantilla);
+    }
+
+    @Override
+    protected ITemplateResource computeTemplateResource(IEngineConfiguration configuration, String ownerTemplate,
+                                                        String template, Map<String, Object> templateResolutionAttributes) {
+        String contenido = plantillas.get(template);
+        return contenido == null ? null : new StringTemplateResource(contenido);
+    }
+
+    @Override
+    protected TemplateMode computeTemplateMode(IEngineConfiguration configuration, String ownerTemplate,
+                                               String template, Map<String, Object> templateResolutionAttributes) {
+        return TemplateMode.HTML;
+    }
+
+    @Override
+    protected ICacheEntryValidity computeValidity(IEngineConfiguration configuration, String ownerTemplate,
+                                                  String template, Map<String, Object> templateResolutionAttributes) {
+        return AlwaysValidCacheEntryValidity.INSTANCE;
+    }
+}
@@ -0,0 +1,197 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PDF generado que puede residir en memoria o en un archivo temporal
+ *
+ * Los documentos que no superan el umbral configurado se conservan en memoria;
+ * los que lo superan se desbordan a un archivo temporal para no mantener el
+ * documento completo en el heap. Al cerrar el resultado se elimina el archivo
+ * temporal, si lo hay, o se devuelve al pool el buffer que contiene el PDF.
+ *
+ * Con el PDF en un buffer del pool, el resultado y cada stream abierto con
+ * abrirStream() retienen el buffer: vuelve al pool cuando se cierran el
+ * resultado y todos sus streams, en cualquier orden. Un stream abierto antes
+ * de cerrar el resultado sigue leyendo el PDF completo; después de cerrarlo no
+ * pueden abrirse streams nuevos ni leerse el contenido.
+ */
+@Slf4j
+public final class ResultadoPDF implements AutoCloseable {
+
+    private final byte[] bytes;
+    private final Path archivo;
+    private final PoolBuffersSalida.Buffer buffer;
+    private final long tamano;
+    /** Referencias al buffer: la del resultado más una por stream abierto */
+    private final AtomicInteger referencias = new AtomicInteger(1);
+    private final AtomicBoolean cerrado = new AtomicBoolean();
+
+    private ResultadoPDF(byte[] bytes, Path archivo, PoolBuffersSalida.Buffer buffer, long tamano) {
+        this.bytes = bytes;
+        this.archivo = archivo;
+        this.buffer = buffer;
+        this.tamano = tamano;
+    }
+
+    static ResultadoPDF enMemoria(byte[] bytes) {
+        return new ResultadoPDF(bytes, null, null, bytes.length);
+    }
+
+    static ResultadoPDF enArchivo(Path archivo, long tamano) {
+        return new ResultadoPDF(null, archivo, null, tamano);
+    }
+
+    /**
+     * PDF en un buffer del pool, que vuelve al pool al cerrar el resultado y
+     * sus streams
+     */
+    static ResultadoPDF enBuffer(PoolBuffersSalida.Buffer buffer) {
+        return new ResultadoPDF(null, null, buffer, buffer.size());
+    }
+
+    /**
+     * @return true si el PDF quedó en memoria, false si se desbordó a archivo
+     */
+    public boolean isEnMemoria() {
+        return archivo == null;
+    }
+
+    /**
+     * @return Tamaño del PDF en bytes
+     */
+    public long getTamano() {
+        return tamano;
+    }
+
+    /**
+     * Ruta del archivo temporal con el PDF
+     *
+     * @return Ruta del archivo
+     * @throws IllegalStateException Si el PDF quedó en memoria
+     */
+    public Path getArchivo() {
+        if (archivo == null) {
+            throw new IllegalStateException("El PDF está en memoria; use getBytes()");
+        }
+        return archivo;
+    }
+
+    /**
+     * Contenido del PDF; si está en archivo se lee completo a memoria y si
+     * está en un buffer del pool se copia
+     *
+     * @return Array de bytes con el contenido del PDF
+     * @throws IOException Si hay error leyendo el archivo temporal
+     * @throws IllegalStateException Si el resultado en buffer ya se cerró
+     */
+    public byte[] getBytes() throws IOException {
+        if (buffer != null) {
+            retener();
+            try {
+                return Arrays.copyOf(buffer.contenido(), (int) tamano);
+            } finally {
+                liberar();
+            }
+        }
+        return bytes != null ? bytes : Files.readAllBytes(archivo);
+    }
+
+    /**
+     * Abre un stream de lectura sobre el PDF sin importar dónde resida; si está
+     * en un buffer del pool, el buffer no vuelve al pool hasta cerrar el stream
+     *
+     * @return Stream con el contenido del PDF, que debe cerrarse
+     * @throws IOException Si hay error abriendo el archivo temporal
+     * @throws IllegalStateException Si el resultado en buffer ya se cerró
+     */
+    public InputStream abrirStream() throws IOException {
+        if (buffer != null) {
+            retener();
+            return new FilterInputStream(new ByteArrayInputStream(buffer.contenido(), 0, (int) tamano)) {
+                private final AtomicBoolean streamCerrado = new AtomicBoolean();
+
+                @Override
+                public void close() {
+                    if (streamCerrado.compareAndSet(false, true)) {
+                        liberar();
+                    }
+                }
+            };
+        }
+        return bytes != null ? new ByteArrayInputStream(bytes) : Files.newInputStream(archivo);
+    }
+
+    /**
+     * Copia el PDF a un stream de salida
+     *
+     * @param salida Destino del PDF
+     * @throws IOException Si hay error de I/O
+     * @throws IllegalStateException Si el resultado en buffer ya se cerró
+     */
+    public void escribirEn(OutputStream salida) throws IOException {
+        if (buffer != null) {
+            retener();
+            try {
+                salida.write(buffer.contenido(), 0, (int) tamano);
+            } finally {
+                liberar();
+            }
+        } else if (bytes != null) {
+            salida.write(bytes);
+        } else {
+            Files.copy(archivo, salida);
+        }
+    }
+
+    /**
+     * Libera el PDF; sin efecto si ya se cerró. El buffer del pool se devuelve
+     * cuando se cierra además el último stream abierto sobre él
+     */
+    @Override
+    public void close() {
+        if (!cerrado.compareAndSet(false, true)) {
+            return;
+        }
+        if (buffer != null) {
+            liberar();
+        }
+        if (archivo != null) {
+            try {
+                Files.deleteIfExists(archivo);
+            } catch (IOException e) {
+                log.warn("No se pudo eliminar el archivo temporal {}: {}", archivo, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Toma una referencia al buffer mientras el resultado siga abierto
+     */
+    private void retener() {
+        int actuales;
+        do {
+            actuales = referencias.get();
+            if (actuales == 0 || cerrado.get()) {
+                throw new IllegalStateException("El resultado ya se cerró");
+            }
+        } while (!referencias.compareAndSet(actuales, actuales + 1));
+    }
+
+    private void liberar() {
+        if (referencias.decrementAndGet() == 0) {
+            buffer.devolver();
+        }
+    }
+}
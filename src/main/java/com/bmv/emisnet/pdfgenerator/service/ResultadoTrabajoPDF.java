@@ -0,0 +1,45 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import lombok.Getter;
+
+/**
+ * Resultado de un trabajo dentro de un lote de generación
+ *
+ * Un trabajo fallido no interrumpe el lote: su resultado lleva la excepción
+ * en lugar del PDF.
+ */
+@Getter
+public final class ResultadoTrabajoPDF {
+
+    /**
+     * Posición del trabajo en la lista original del lote
+     */
+    private final int indice;
+    private final TrabajoPDF trabajo;
+    private final byte[] pdf;
+    private final Exception error;
+
+    private ResultadoTrabajoPDF(int indice, TrabajoPDF trabajo, byte[] pdf, Exception error) {
+        this.indice = indice;
+        this.trabajo = trabajo;
+        this.pdf = pdf;
+        this.error = error;
+    }
+
+    static ResultadoTrabajoPDF exito(int indice, TrabajoPDF trabajo, byte[] pdf) {
+        return new ResultadoTrabajoPDF(indice, trabajo, pdf, null);
+    }
+
+    static ResultadoTrabajoPDF fallo(int indice, TrabajoPDF trabajo, Exception error) {
+        return new ResultadoTrabajoPDF(indice, trabajo, null, error);
+    }
+
+    /**
+     * Indica si el PDF se generó correctamente
+     *
+     * @return true si hay PDF, false si el trabajo falló
+     */
+    public boolean isExitoso() {
+        return error == null;
+    }
+}
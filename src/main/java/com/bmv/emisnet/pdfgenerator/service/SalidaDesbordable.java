@@ -0,0 +1,86 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * OutputStream que acumula en memoria hasta un umbral y, al superarlo,
+ * continúa escribiendo en un archivo temporal
+ */
+class SalidaDesbordable extends OutputStream {
+
+    private final long umbralBytes;
+    private ByteArrayOutputStream memoria = new ByteArrayOutputStream();
+    private OutputStream archivo;
+    private Path ruta;
+    private long escritos;
+
+    SalidaDesbordable(long umbralBytes) {
+        this.umbralBytes = umbralBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        prepararEscritura(1).write(b);
+        escritos++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        prepararEscritura(len).write(b, off, len);
+        escritos += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (archivo != null) {
+            archivo.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (archivo != null) {
+            archivo.close();
+        }
+    }
+
+    /**
+     * Cierra el stream y entrega el resultado
+     *
+     * @return PDF en memoria o en archivo, según si se superó el umbral
+     * @throws IOException Si hay error cerrando el archivo temporal
+     */
+    ResultadoPDF finalizar() throws IOException {
+        close();
+        return ruta != null ? ResultadoPDF.enArchivo(ruta, escritos) : ResultadoPDF.enMemoria(memoria.toByteArray());
+    }
+
+    /**
+     * Elimina el archivo temporal tras un error de escritura
+     */
+    void descartar() {
+        try {
+            close();
+        } catch (IOException ignorada) {
+            // El archivo se elimina de todos modos
+        }
+        if (ruta != null) {
+            ResultadoPDF.enArchivo(ruta, escritos).close();
+        }
+    }
+
+    private OutputStream prepararEscritura(int len) throws IOException {
+        if (archivo == null && escritos + len > umbralBytes) {
+            ruta = Files.createTempFile("pdf-generator-", ".pdf");
+            archivo = new BufferedOutputStream(Files.newOutputStream(ruta));
+            memoria.writeTo(archivo);
+            memoria = null;
+        }
+        return archivo != null ? archivo : memoria;
+    }
+}
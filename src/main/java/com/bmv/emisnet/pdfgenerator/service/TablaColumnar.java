@@ -0,0 +1,363 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Tabla de filas guardada por columnas, para reportes con muchas filas
+ *
+ * Una lista de POJOs con N filas y C campos numéricos mantiene en el heap N
+ * objetos y hasta N × C Integer. Aquí cada columna es un solo arreglo: int[] o
+ * long[] (con un BitSet para los nulos) para los números enteros, y códigos
+ * int[] sobre un diccionario para los textos, que en estos reportes se repiten
+ * mucho (emisoras, series). Las demás columnas quedan como Object[].
+ *
+ * Para la plantilla es una lista de mapas: ${fila.campo} se resuelve igual que
+ * con la lista de mapas o de POJOs. El iterador devuelve siempre la misma vista
+ * de fila, que avanza sobre la tabla, de modo que recorrerla con th:each no crea
+ * un objeto por fila. Por eso la fila del iterador no debe conservarse después
+ * de avanzar; get(i) sí devuelve una vista propia de la fila i.
+ *
+ * Leer un número entero de una columna primitiva lo vuelve a encajonar. Los
+ * valores en [-128, 1024), que cubren ceros, contadores y porcentajes, salen de
+ * cajas compartidas sin asignar memoria; los demás crean un Integer o Long de
+ * vida corta por lectura. TablaColumnarBenchmark mide el balance con -prof gc.
+ *
+ * subList devuelve otra tabla sobre las mismas columnas, sin copiarlas, así que
+ * los tramos de {@link TramosPorFilas} tampoco copian filas.
+ *
+ * Se construye con {@link ObjectToMapConverter#convertToColumnar(List)}.
+ */
+public final class TablaColumnar extends AbstractList<Map<String, Object>> implements RandomAccess {
+
+    private static final TablaColumnar VACIA = new TablaColumnar(new String[0], new Columna[0], 0);
+
+    private final String[] nombres;
+    private final Map<String, Integer> indices;
+    private final Columna[] columnas;
+    private final int desde;
+    private final int filas;
+
+    /**
+     * @param nombres Nombres de las columnas
+     * @param columnas Columnas, en el orden de los nombres
+     * @param filas Filas de cada columna
+     */
+    TablaColumnar(String[] nombres, Columna[] columnas, int filas) {
+        this(nombres, indicesDe(nombres), columnas, 0, filas);
+    }
+
+    private TablaColumnar(String[] nombres, Map<String, Integer> indices, Columna[] columnas, int desde, int filas) {
+        this.nombres = nombres;
+        this.indices = indices;
+        this.columnas = columnas;
+        this.desde = desde;
+        this.filas = filas;
+    }
+
+    /**
+     * Tabla sin filas ni columnas
+     *
+     * @return Instancia compartida
+     */
+    static TablaColumnar vacia() {
+        return VACIA;
+    }
+
+    /**
+     * Crea la columna que corresponde a los valores: int[] si todos los no nulos
+     * son Integer, long[] si son Integer o Long, diccionario si son String y
+     * Object[] en otro caso
+     *
+     * @param valores Valores de la columna; sólo se leen las primeras filas posiciones
+     * @param filas Número de filas
+     * @return Columna con una copia de los valores
+     */
+    static Columna columna(Object[] valores, int filas) {
+        boolean enteros = true;
+        boolean largos = true;
+        boolean textos = true;
+        for (int i = 0; i < filas; i++) {
+            Object valor = valores[i];
+            if (valor == null) {
+                continue;
+            }
+            enteros &= valor instanceof Integer;
+            largos &= valor instanceof Integer || valor instanceof Long;
+            textos &= valor instanceof String;
+        }
+
+        // Una columna toda nula queda como texto: un solo código por fila y diccionario vacío
+        if (textos) {
+            return new ColumnaTexto(valores, filas);
+        }
+        if (enteros) {
+            return new ColumnaEntera(valores, filas);
+        }
+        if (largos) {
+            return new ColumnaLarga(valores, filas);
+        }
+        return new ColumnaObjetos(Arrays.copyOf(valores, filas));
+    }
+
+    /**
+     * Nombres de las columnas, en el orden de los campos de la clase de origen
+     *
+     * @return Nombres de columnas
+     */
+    public List<String> getColumnas() {
+        return List.of(nombres);
+    }
+
+    @Override
+    public int size() {
+        return filas;
+    }
+
+    /**
+     * Vista de una fila; a diferencia de la del iterador, no cambia de fila
+     */
+    @Override
+    public Map<String, Object> get(int indice) {
+        if (indice < 0 || indice >= filas) {
+            throw new IndexOutOfBoundsException("Fila " + indice + " de " + filas);
+        }
+        Fila fila = new Fila();
+        fila.actual = desde + indice;
+        return fila;
+    }
+
+    /**
+     * Iterador que devuelve siempre la misma vista, posicionada en la fila actual
+     */
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        return new Iterator<>() {
+
+            private final Fila fila = new Fila();
+            private int siguiente = desde;
+
+            @Override
+            public boolean hasNext() {
+                return siguiente < desde + filas;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                fila.actual = siguiente++;
+                return fila;
+            }
+        };
+    }
+
+    /**
+     * Tabla con un rango de filas, sobre las mismas columnas
+     */
+    @Override
+    public TablaColumnar subList(int desdeIndice, int hastaIndice) {
+        if (desdeIndice < 0 || hastaIndice > filas || desdeIndice > hastaIndice) {
+            throw new IndexOutOfBoundsException("Rango [" + desdeIndice + ", " + hastaIndice + ") de " + filas);
+        }
+        return new TablaColumnar(nombres, indices, columnas, desde + desdeIndice, hastaIndice - desdeIndice);
+    }
+
+    private static Map<String, Integer> indicesDe(String[] nombres) {
+        Map<String, Integer> indices = HashMap.newHashMap(nombres.length);
+        for (int i = 0; i < nombres.length; i++) {
+            indices.put(nombres[i], i);
+        }
+        return indices;
+    }
+
+    /**
+     * Vista de mapa sobre una fila de la tabla
+     */
+    private final class Fila extends AbstractMap<String, Object> {
+
+        private int actual;
+
+        @Override
+        public Object get(Object clave) {
+            Integer columna = indices.get(clave);
+            return columna == null ? null : columnas[columna].valor(actual);
+        }
+
+        @Override
+        public boolean containsKey(Object clave) {
+            return indices.containsKey(clave);
+        }
+
+        @Override
+        public int size() {
+            return nombres.length;
+        }
+
+        /**
+         * Entradas con los valores de la fila en el momento de recorrerlas
+         */
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            int fila = actual;
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+
+                        private int columna;
+
+                        @Override
+                        public boolean hasNext() {
+                            return columna < nombres.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int indice = columna++;
+                            return new SimpleImmutableEntry<>(nombres[indice], columnas[indice].valor(fila));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return nombres.length;
+                }
+            };
+        }
+    }
+
+    /**
+     * Columna de la tabla
+     */
+    abstract static class Columna {
+
+        /** Menor valor con caja compartida; coincide con el caché de Integer.valueOf */
+        private static final int MINIMO_CAJA = -128;
+
+        /** Valores con caja compartida, desde MINIMO_CAJA */
+        private static final int CAJAS = 1152;
+
+        private static final Integer[] ENTEROS = new Integer[CAJAS];
+        private static final Long[] LARGOS = new Long[CAJAS];
+
+        static {
+            // Integer.valueOf y Long.valueOf ya devuelven sus propias cajas en [-128, 127]
+            for (int i = 0; i < CAJAS; i++) {
+                ENTEROS[i] = Integer.valueOf(MINIMO_CAJA + i);
+                LARGOS[i] = Long.valueOf(MINIMO_CAJA + i);
+            }
+        }
+
+        abstract Object valor(int fila);
+
+        static Integer enCaja(int valor) {
+            // Con desbordamiento el índice queda negativo y cae en valueOf
+            int indice = valor - MINIMO_CAJA;
+            return indice >= 0 && indice < CAJAS ? ENTEROS[indice] : Integer.valueOf(valor);
+        }
+
+        static Long enCaja(long valor) {
+            long indice = valor - MINIMO_CAJA;
+            return indice >= 0 && indice < CAJAS ? LARGOS[(int) indice] : Long.valueOf(valor);
+        }
+    }
+
+    private static final class ColumnaEntera extends Columna {
+
+        private final int[] valores;
+        private final BitSet nulos = new BitSet();
+
+        private ColumnaEntera(Object[] origen, int filas) {
+            this.valores = new int[filas];
+            for (int i = 0; i < filas; i++) {
+                if (origen[i] == null) {
+                    nulos.set(i);
+                } else {
+                    valores[i] = (Integer) origen[i];
+                }
+            }
+        }
+
+        @Override
+        Object valor(int fila) {
+            return nulos.get(fila) ? null : enCaja(valores[fila]);
+        }
+    }
+
+    private static final class ColumnaLarga extends Columna {
+
+        private final long[] valores;
+        private final BitSet nulos = new BitSet();
+
+        private ColumnaLarga(Object[] origen, int filas) {
+            this.valores = new long[filas];
+            for (int i = 0; i < filas; i++) {
+                if (origen[i] == null) {
+                    nulos.set(i);
+                } else {
+                    valores[i] = ((Number) origen[i]).longValue();
+                }
+            }
+        }
+
+        @Override
+        Object valor(int fila) {
+            return nulos.get(fila) ? null : enCaja(valores[fila]);
+        }
+    }
+
+    private static final class ColumnaTexto extends Columna {
+
+        private final int[] codigos;
+        private final String[] diccionario;
+
+        private ColumnaTexto(Object[] origen, int filas) {
+            this.codigos = new int[filas];
+            Map<String, Integer> codigosPorTexto = new HashMap<>();
+            for (int i = 0; i < filas; i++) {
+                String texto = (String) origen[i];
+                // -1 representa el nulo
+                codigos[i] = texto == null ? -1
+                        : codigosPorTexto.computeIfAbsent(texto, nuevo -> codigosPorTexto.size());
+            }
+            this.diccionario = new String[codigosPorTexto.size()];
+            codigosPorTexto.forEach((texto, codigo) -> diccionario[codigo] = texto);
+        }
+
+        @Override
+        Object valor(int fila) {
+            int codigo = codigos[fila];
+            return codigo < 0 ? null : diccionario[codigo];
+        }
+    }
+
+    private static final class ColumnaObjetos extends Columna {
+
+        private final Object[] valores;
+
+        private ColumnaObjetos(Object[] valores) {
+            this.valores = valores;
+        }
+
+        @Override
+        Object valor(int fila) {
+            return valores[fila];
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.util.Map;
+
+/**
+ * Un documento dentro de un lote: la plantilla y los datos que se le inyectan
+ *
+ * Los datos no deben modificarse mientras el lote está en curso, ya que la
+ * plantilla puede leerlos desde otro hilo.
+ *
+ * @param nombrePlantilla Nombre de la plantilla (sin extensión .html)
+ * @param datos Datos a inyectar en la plantilla
+ */
+public record TrabajoPDF(String nombrePlantilla, Map<String, Object> datos) {
+}
@@ -0,0 +1,146 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Divide los datos de un reporte agrupado en tramos con un número acotado de filas
+ *
+ * Los datos tienen una lista de grupos y cada grupo una lista de filas (por
+ * ejemplo gruposPosiciones y posiciones). Cada tramo es una copia superficial
+ * de los datos cuya lista de grupos sólo contiene las filas del tramo; un grupo
+ * puede quedar repartido entre tramos consecutivos. Las filas no se copian: cada
+ * tramo usa vistas (subList) de las listas originales, y los tramos se crean
+ * a medida que se piden.
+ *
+ * Si la plantilla muestra las filas de cada grupo en varias secciones (por
+ * ejemplo una tabla tras otra), cada sección se reparte por separado: un grupo
+ * aparece en el tramo una vez por sección, con las filas de esa sección, y todas
+ * las filas de una sección preceden a la siguiente, igual que en el documento
+ * completo. Cada grupo del tramo lleva tramoSeccion (sección que muestra,
+ * desde 1), tramoInicioGrupo (empieza el grupo) y tramoInicioSeccion (empieza
+ * la sección), con los que la plantilla muestra sólo esa sección y no repite
+ * sus títulos.
+ *
+ * Cada tramo incluye además dos variables para la plantilla:
+ * tramoContinuacion (no es el primer tramo) y tramoPendiente (quedan tramos por
+ * generar), con las que se omiten el encabezado y el pie en los tramos intermedios.
+ */
+final class TramosPorFilas implements Iterator<Map<String, Object>> {
+
+    static final String VARIABLE_CONTINUACION = "tramoContinuacion";
+    static final String VARIABLE_PENDIENTE = "tramoPendiente";
+    static final String VARIABLE_SECCION = "tramoSeccion";
+    static final String VARIABLE_INICIO_GRUPO = "tramoInicioGrupo";
+    static final String VARIABLE_INICIO_SECCION = "tramoInicioSeccion";
+
+    private final Map<String, Object> datos;
+    private final List<?> grupos;
+    private final String claveGrupos;
+    private final String claveFilas;
+    private final int filasPorTramo;
+    private final int secciones;
+
+    private int grupo;
+    private int seccion;
+    private int fila;
+    private int tramo;
+
+    /**
+     * @param datos Datos completos del reporte
+     * @param claveGrupos Clave de la lista de grupos en los datos
+     * @param claveFilas Nombre de la lista de filas dentro de cada grupo
+     * @param filasPorTramo Máximo de filas por tramo
+     */
+    TramosPorFilas(Map<String, Object> datos, String claveGrupos, String claveFilas, int filasPorTramo) {
+        this(datos, claveGrupos, claveFilas, filasPorTramo, 1);
+    }
+
+    /**
+     * @param datos Datos completos del reporte
+     * @param claveGrupos Clave de la lista de grupos en los datos
+     * @param claveFilas Nombre de la lista de filas dentro de cada grupo
+     * @param filasPorTramo Máximo de filas por tramo, sumadas las de todas las secciones
+     * @param secciones Veces que la plantilla muestra las filas de cada grupo
+     */
+    TramosPorFilas(Map<String, Object> datos, String claveGrupos, String claveFilas, int filasPorTramo,
+            int secciones) {
+        if (filasPorTramo <= 0) {
+            throw new IllegalArgumentException("filasPorTramo debe ser positivo: " + filasPorTramo);
+        }
+        if (secciones <= 0) {
+            throw new IllegalArgumentException("secciones debe ser positivo: " + secciones);
+        }
+        this.datos = datos;
+        this.grupos = datos.get(claveGrupos) instanceof List<?> lista ? lista : List.of();
+        this.claveGrupos = claveGrupos;
+        this.claveFilas = claveFilas;
+        this.filasPorTramo = filasPorTramo;
+        this.secciones = secciones;
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Siempre hay al menos un tramo, aunque el reporte no tenga filas
+        return tramo == 0 || grupo < grupos.size();
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        List<Map<String, Object>> gruposTramo = new ArrayList<>();
+        int filas = 0;
+        while (grupo < grupos.size() && filas < filasPorTramo) {
+            Map<String, Object> datosGrupo = comoMapa(grupos.get(grupo));
+            List<?> filasGrupo = filasDe(datosGrupo);
+
+            int tomar = Math.min(filasPorTramo - filas, filasGrupo.size() - fila);
+            Map<String, Object> grupoTramo = new HashMap<>(datosGrupo);
+            grupoTramo.put(claveFilas, filasGrupo.subList(fila, fila + tomar));
+            grupoTramo.put(VARIABLE_SECCION, seccion + 1);
+            grupoTramo.put(VARIABLE_INICIO_GRUPO, seccion == 0 && fila == 0);
+            grupoTramo.put(VARIABLE_INICIO_SECCION, fila == 0);
+            gruposTramo.add(grupoTramo);
+
+            filas += tomar;
+            fila += tomar;
+            if (fila >= filasGrupo.size()) {
+                fila = 0;
+                if (++seccion == secciones) {
+                    seccion = 0;
+                    grupo++;
+                }
+            }
+        }
+
+        Map<String, Object> datosTramo = new HashMap<>(datos);
+        datosTramo.put(claveGrupos, gruposTramo);
+        datosTramo.put(VARIABLE_CONTINUACION, tramo > 0);
+        tramo++;
+        datosTramo.put(VARIABLE_PENDIENTE, hasNext());
+        return datosTramo;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> comoMapa(Object grupo) {
+        return grupo instanceof Map<?, ?> mapa
+                ? (Map<String, Object>) mapa
+                : ObjectToMapConverter.convertToMap(grupo);
+    }
+
+    private List<?> filasDe(Map<String, Object> datosGrupo) {
+        Object filas = datosGrupo.get(claveFilas);
+        if (filas instanceof List<?> lista) {
+            return lista;
+        }
+        return filas instanceof Collection<?> coleccion ? new ArrayList<>(coleccion) : List.of();
+    }
+}
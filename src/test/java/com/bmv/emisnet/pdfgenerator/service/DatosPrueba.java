@@ -0,0 +1,80 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.bmv.emisnet.pdfgenerator.model.AvisoExtemporaneidadTest;
+import com.bmv.emisnet.pdfgenerator.model.ConfirmacionEnvioTest;
+import com.bmv.emisnet.pdfgenerator.model.ReportePosicionesTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Datos de prueba de las plantillas incluidas, compartidos por las pruebas
+ * unitarias y los benchmarks JMH (src/jmh/java se compila junto con las pruebas)
+ */
+final class DatosPrueba {
+
+    private DatosPrueba() {
+    }
+
+    static Object crear(String plantilla) {
+        return switch (plantilla) {
+            case "aviso-extemporaneidad" -> crearAvisoExtemporaneidad();
+            case "confirmacion-envio" -> crearConfirmacionEnvio();
+            case "reporte-posiciones" -> crearReportePosiciones(10);
+            default -> throw new IllegalArgumentException("Plantilla sin datos de prueba: " + plantilla);
+        };
+    }
+
+    static AvisoExtemporaneidadTest crearAvisoExtemporaneidad() {
+        AvisoExtemporaneidadTest aviso = new AvisoExtemporaneidadTest();
+        aviso.setFechaGeneracion("15/01/2024");
+        aviso.setClaveCotizacion("ACTINVER");
+        aviso.setRazonSocial("ACTINVER CASA DE BOLSA, S.A. DE C.V.");
+        aviso.setTipoInformacion("Información financiera trimestral");
+        aviso.setCausasIncumplimiento("Problemas técnicos en el sistema de reportes que impidieron el envío oportuno de la información requerida.");
+        aviso.setObservaciones("Se realizará el envío tan pronto como se resuelvan los problemas técnicos identificados.");
+        return aviso;
+    }
+
+    static ConfirmacionEnvioTest crearConfirmacionEnvio() {
+        ConfirmacionEnvioTest confirmacion = new ConfirmacionEnvioTest();
+        confirmacion.setFechaHoraEnvio("15/01/2024 10:30:00");
+        confirmacion.setClave("ACTINVER");
+        confirmacion.setRazonSocial("ACTINVER CASA DE BOLSA, S.A. DE C.V.");
+        confirmacion.setFolioRecepcion("14529044");
+        confirmacion.setResponsable("ACTINVER EQUITY Peyrani");
+        confirmacion.setPeriodo("Ejercicio 2025-02");
+
+        ConfirmacionEnvioTest.ArchivoRecibido archivo = new ConfirmacionEnvioTest.ArchivoRecibido();
+        archivo.setNombre("constrim.pdf");
+        archivo.setDescripcion("Constancia Trimestral");
+        archivo.setTamano(1024000L);
+        archivo.setTipoArchivo("PDF");
+        confirmacion.setArchivos(List.of(archivo));
+        return confirmacion;
+    }
+
+    static ReportePosicionesTest crearReportePosiciones(int filas) {
+        ReportePosicionesTest reporte = new ReportePosicionesTest();
+        reporte.setFechaOperacion("15/01/2024");
+        reporte.setCasaBolsa("ACTIN");
+        reporte.setRazonSocial("ACTINVER CASA DE BOLSA, S.A. DE C.V.");
+
+        List<ReportePosicionesTest.PosicionDetalle> posiciones = new ArrayList<>(filas);
+        for (int i = 0; i < filas; i++) {
+            posiciones.add(new ReportePosicionesTest.PosicionDetalle(
+                    "EMISORA" + (i % 50), String.valueOf(i % 7), "1",
+                    i * 10, 0, i * 10, 0,
+                    i, 0, 0, i,
+                    0, 0, 0, 0,
+                    0, 0, 0, 0,
+                    0, i * 10, 0, i * 10));
+        }
+
+        ReportePosicionesTest.GrupoPosiciones grupo = new ReportePosicionesTest.GrupoPosiciones();
+        grupo.setNombre("Grupo de Valores Gubernamentales");
+        grupo.setPosiciones(posiciones);
+        reporte.setGruposPosiciones(List.of(grupo));
+        return reporte;
+    }
+}
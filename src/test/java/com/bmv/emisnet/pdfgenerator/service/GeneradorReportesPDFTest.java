@@ -3,24 +3,90 @@ package com.bmv.emisnet.pdfgenerator.service;
 import com.bmv.emisnet.pdfgenerator.model.ReportePosicionesTest;
 import com.bmv.emisnet.pdfgenerator.model.AvisoExtemporaneidadTest;
 import com.bmv.emisnet.pdfgenerator.model.ConfirmacionEnvioTest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfDestination;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfIndirectReference;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfStream;
+import com.lowagie.text.pdf.SimpleBookmark;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.resource.XMLResource;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
 import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import static com.bmv.emisnet.pdfgenerator.service.DatosPrueba.crearConfirmacionEnvio;
+import static com.bmv.emisnet.pdfgenerator.service.DatosPrueba.crearReportePosiciones;
+import static com.bmv.emisnet.pdfgenerator.service.PodaCss.sinMarcasDeTiempo;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 /**
  * Pruebas unitarias para el servicio GeneradorReportesPDF
@@ -272,5 +338,1470 @@ class GeneradorReportesPDFTest {
         System.out.println("✓ Prueba unitaria manejo de error: EXITOSA");
         System.out.println("  Método llamado: generarPDF() con plantilla inexistente");
     }
+
+    /**
+     * Prueba unitaria: Reutilización de hojas de estilo parseadas entre renderizados
+     * Genera dos veces el mismo documento y verifica que el segundo no vuelve a parsear CSS
+     */
+    @Test
+    void testCacheHojasEstiloCompartida() throws Exception {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("fechaGeneracion", "15/01/2024");
+        datos.put("claveCotizacion", "ACTINVER");
+        
+        CacheHojasEstilo cache = generadorPDF.getCacheHojasEstilo();
+        
+        generadorPDF.generarPDF("aviso-extemporaneidad", datos);
+        long fallosPrimerRender = cache.getFallos();
+        long aciertosPrimerRender = cache.getAciertos();
+        
+        generadorPDF.generarPDF("aviso-extemporaneidad", datos);
+        
+        assertTrue(fallosPrimerRender > 0, "El primer renderizado debe parsear los bloques CSS");
+        assertEquals(fallosPrimerRender, cache.getFallos(), "El segundo renderizado no debe volver a parsear CSS");
+        assertEquals(aciertosPrimerRender + fallosPrimerRender, cache.getAciertos(),
+                "Cada bloque CSS del segundo renderizado debe salir de la caché");
+        
+        // Sin bloqueo en setDocument: plantillas distintas en paralelo salen igual que en secuencia
+        List<String> plantillas = List.of("aviso-extemporaneidad", "confirmacion-envio", "reporte-posiciones");
+        Map<String, byte[]> secuenciales = new HashMap<>();
+        for (String plantilla : plantillas) {
+            secuenciales.put(plantilla, sinMarcasDeTiempo(
+                    generadorPDF.generarPDF(plantilla, CalentadorPlantillas.datosSinteticos(plantilla))));
+        }
+        GeneradorReportesPDF generadorParalelo = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .tamanoPoolRenderizadores(6)
+                .build());
+        List<Future<byte[]>> pdfs = new ArrayList<>();
+        try (ExecutorService hilos = Executors.newFixedThreadPool(6)) {
+            for (int i = 0; i < 12; i++) {
+                String plantilla = plantillas.get(i % plantillas.size());
+                pdfs.add(hilos.submit(() ->
+                        generadorParalelo.generarPDF(plantilla, CalentadorPlantillas.datosSinteticos(plantilla))));
+            }
+            for (int i = 0; i < pdfs.size(); i++) {
+                String plantilla = plantillas.get(i % plantillas.size());
+                assertArrayEquals(secuenciales.get(plantilla), sinMarcasDeTiempo(pdfs.get(i).get(2, TimeUnit.MINUTES)),
+                        "El PDF generado en paralelo debe coincidir con el secuencial: " + plantilla);
+            }
+        }
+        
+        System.out.println("✓ Prueba unitaria caché de hojas de estilo: EXITOSA");
+        System.out.println("  Bloques CSS cacheados: " + cache.getTamano());
+    }
+
+    /**
+     * Prueba unitaria: Reutilización de renderers del pool entre documentos
+     * Genera varios documentos seguidos y verifica que sólo se crea un renderer
+     */
+    @Test
+    void testPoolRenderizadoresReutiliza() throws Exception {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("fechaGeneracion", "15/01/2024");
+        
+        List<byte[]> pdfs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pdfs.add(generadorPDF.generarPDF("aviso-extemporaneidad", datos));
+        }
+        
+        // Un renderer reutilizado produce el mismo PDF que uno nuevo
+        assertArrayEquals(sinMarcasDeTiempo(pdfs.get(0)), sinMarcasDeTiempo(pdfs.get(1)));
+        assertArrayEquals(sinMarcasDeTiempo(pdfs.get(0)), sinMarcasDeTiempo(pdfs.get(2)));
+        
+        // Ni los metadatos (title) de otra plantilla pasan al documento siguiente
+        generadorPDF.generarPDF("confirmacion-envio", ObjectToMapConverter.convertToMap(crearConfirmacionEnvio()));
+        byte[] trasOtraPlantilla = generadorPDF.generarPDF("aviso-extemporaneidad", datos);
+        assertArrayEquals(sinMarcasDeTiempo(pdfs.get(0)), sinMarcasDeTiempo(trasOtraPlantilla));
+        
+        // Los campos privados que limpia el pool siguen existiendo en la versión de Flying Saucer en uso
+        assertEquals(PdfDestination.class, ITextOutputDevice.class.getDeclaredField("_defaultDestination").getType(),
+                "Revise PoolRenderizadores.reiniciarDispositivo al actualizar Flying Saucer");
+        assertEquals(List.class, ITextOutputDevice.class.getDeclaredField("_metadata").getType(),
+                "Revise PoolRenderizadores.reiniciarDispositivo al actualizar Flying Saucer");
+        
+        PoolRenderizadores pool = generadorPDF.getPoolRenderizadores();
+        assertEquals(1, pool.getCreados(), "Los documentos secuenciales deben compartir un renderer");
+        assertEquals(4, pool.getReutilizados(), "Los préstamos posteriores deben reutilizar el renderer");
+        assertEquals(1, pool.getDisponibles(), "El renderer debe volver al pool");
+        
+        // Una falla a mitad de escritura, aunque no sea RuntimeException, descarta el renderer
+        OutputStream fallida = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new AssertionError("Escritura interrumpida");
+            }
+        };
+        assertThrows(AssertionError.class, () -> generadorPDF.generarPDF("aviso-extemporaneidad", datos, fallida));
+        assertEquals(1, pool.getDescartados(), "El renderer que falló no debe volver al pool");
+        assertEquals(0, pool.getDisponibles());
+        
+        System.out.println("✓ Prueba unitaria pool de renderers: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Detección de préstamos nunca devueltos
+     * Abandona un préstamo y verifica que el pool recupera su cupo
+     */
+    @Test
+    void testPoolRenderizadoresDetectaFugas() throws Exception {
+        PoolRenderizadores pool = new PoolRenderizadores(
+                ITextRenderer::new, 1, Duration.ofMillis(100), 50);
+        
+        pool.obtener();
+        
+        // El único cupo sigue ocupado mientras el préstamo abandonado no se recolecte
+        assertThrows(InterruptedIOException.class, pool::obtener);
+        
+        for (int i = 0; i < 50 && pool.getFugas() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        
+        assertEquals(1, pool.getFugas(), "El préstamo abandonado debe reportarse como fuga");
+        try (PoolRenderizadores.Prestamo prestamo = pool.obtener()) {
+            assertNotNull(prestamo.getRenderer(), "El cupo liberado debe poder prestarse de nuevo");
+        }
+        
+        System.out.println("✓ Prueba unitaria fugas del pool: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Caché de recursos del classpath compartida entre renderers
+     * Usa una caché propia y verifica que el logo se lee y decodifica una sola vez
+     */
+    @Test
+    void testCacheRecursosLogo() throws Exception {
+        CacheRecursos cache = new CacheRecursos(CacheRecursos.CAPACIDAD_POR_DEFECTO);
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheRecursos(cache)
+                .maxPaginasReutilizacion(0)
+                .build());
+        
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("fechaGeneracion", "15/01/2024");
+        
+        // Con maxPaginasReutilizacion en cero cada documento usa un renderer nuevo,
+        // así que los aciertos sólo pueden venir de la caché compartida
+        generador.generarPDF("aviso-extemporaneidad", datos);
+        assertEquals(1, cache.getFallosImagenes(), "El primer documento debe decodificar el logo");
+        assertEquals(0, cache.getAciertosImagenes());
+        long fallosPrimerRender = cache.getFallos();
+        long aciertosPrimerRender = cache.getAciertos();
+        generador.generarPDF("aviso-extemporaneidad", datos);
+        
+        assertEquals(1, cache.getTamano(), "El logo debe quedar en la caché");
+        assertEquals(1, cache.getAciertosImagenes(), "El segundo documento debe servir el logo ya decodificado");
+        assertEquals(1, cache.getFallosImagenes(), "El segundo documento no debe volver a decodificar el logo");
+        assertEquals(fallosPrimerRender, cache.getFallos(), "El segundo documento no debe volver a leer el logo");
+        assertEquals(aciertosPrimerRender, cache.getAciertos(),
+                "La imagen decodificada no debe contarse además como búsqueda de bytes");
+        assertEquals(2, generador.getPoolRenderizadores().getCreados(), "Cada documento debe usar un renderer nuevo");
+        
+        // Sólo se cachean los archivos del classpath; los demás pueden cambiar
+        String logo = getClass().getClassLoader().getResource("templates/resources/images/logoBMV.jpg").toString();
+        assertTrue(AgenteUsuarioCache.esCacheable(logo));
+        assertFalse(AgenteUsuarioCache.esCacheable(tempDir.resolve("logo.jpg").toUri().toString()));
+        assertFalse(AgenteUsuarioCache.esCacheable(logo.replace("templates/", "templates/../../../")));
+        
+        // Un JPEG que no se reduce al recomprimirlo no se cachea dos veces
+        CacheRecursos cacheRecompresion = new CacheRecursos(CacheRecursos.CAPACIDAD_POR_DEFECTO);
+        ITextOutputDevice dispositivo = new ITextOutputDevice(ITextRenderer.DEFAULT_DOTS_PER_POINT);
+        AgenteUsuarioCache agente = new AgenteUsuarioCache(dispositivo, cacheRecompresion);
+        // El renderer le asigna al user agent el contexto con el que escala las imágenes
+        new ITextRenderer(ITextRenderer.DEFAULT_DOTS_PER_POINT, ITextRenderer.DEFAULT_DOTS_PER_PIXEL, dispositivo, agente);
+        agente.setBaseURL(getClass().getClassLoader().getResource("templates/").toString());
+        agente.setCalidadJpeg(1f);
+        agente.getImageResource("resources/images/logoBMV.jpg");
+        agente.getImageResource("resources/images/logoBMV.jpg");
+        assertEquals(2, cacheRecompresion.getTamano(), "El logo y la marca de que no se reduce");
+        try (InputStream bytesLogo = new URL(logo).openStream()) {
+            assertEquals(bytesLogo.readAllBytes().length, cacheRecompresion.getBytesOcupados(),
+                    "La marca no debe ocupar capacidad de la caché");
+        }
+        
+        System.out.println("✓ Prueba unitaria caché de recursos: EXITOSA");
+        System.out.println("  Bytes: " + cache.getAciertos() + " aciertos, " + cache.getFallos() + " fallos; imágenes: "
+                + cache.getAciertosImagenes() + " aciertos, " + cache.getFallosImagenes() + " fallos");
+    }
+
+    /**
+     * Prueba unitaria: Generación directa a stream y desborde a archivo temporal
+     * Llama a las variantes de generarPDF() que no retornan byte[]
+     */
+    @Test
+    void testGenerarPDFEnStreamYConDesborde() throws Exception {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("fechaGeneracion", "15/01/2024");
+        datos.put("claveCotizacion", "ACTINVER");
+        
+        // Stream del llamador: recibe el PDF y sigue abierto
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        generadorPDF.generarPDF("aviso-extemporaneidad", datos, salida);
+        assertTrue(new String(salida.toByteArray(), 0, 5).startsWith("%PDF-"), "El stream debe contener un PDF");
+        
+        // Umbral amplio: el resultado queda en memoria
+        try (ResultadoPDF resultado = generadorPDF.generarPDFConDesborde("aviso-extemporaneidad", datos, 1_000_000)) {
+            assertTrue(resultado.isEnMemoria(), "Un PDF bajo el umbral debe quedar en memoria");
+            assertEquals(resultado.getTamano(), resultado.getBytes().length);
+        }
+        
+        // Umbral mínimo: el resultado se desborda a archivo y se elimina al cerrar
+        Path archivo;
+        try (ResultadoPDF resultado = generadorPDF.generarPDFConDesborde("aviso-extemporaneidad", datos, 1024)) {
+            assertFalse(resultado.isEnMemoria(), "Un PDF sobre el umbral debe desbordarse a archivo");
+            archivo = resultado.getArchivo();
+            assertEquals(resultado.getTamano(), Files.size(archivo));
+            assertTrue(new String(resultado.getBytes(), 0, 5).startsWith("%PDF-"), "El archivo debe contener un PDF");
+        }
+        assertFalse(Files.exists(archivo), "El archivo temporal debe eliminarse al cerrar el resultado");
+        
+        System.out.println("✓ Prueba unitaria generación en stream y con desborde: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Procesamiento por bloques contra el camino clásico vía String
+     * Ambos caminos deben producir el mismo PDF byte a byte
+     */
+    @Test
+    void testProcesamientoPorBloquesProduceMismoPDF() throws Exception {
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearReportePosiciones(200));
+        
+        GeneradorReportesPDF generadorViaString = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .procesamientoPorBloques(false)
+                .build());
+        
+        byte[] pdfPorBloques = generadorPDF.generarPDF("reporte-posiciones", datos);
+        byte[] pdfViaString = generadorViaString.generarPDF("reporte-posiciones", datos);
+        
+        assertArrayEquals(sinMarcasDeTiempo(pdfViaString), sinMarcasDeTiempo(pdfPorBloques),
+                "El procesamiento por bloques debe producir el mismo PDF que el camino vía String");
+        
+        System.out.println("✓ Prueba unitaria procesamiento por bloques: EXITOSA");
+        System.out.println("  Tamaño PDF: " + pdfPorBloques.length + " bytes");
+    }
+
+    /**
+     * Prueba unitaria: Contexto perezoso respaldado por el objeto
+     * Debe producir el mismo PDF que la conversión previa a Map, también con exclusiones
+     */
+    @Test
+    void testGenerarPDFDesdeObjetoSinConversion() throws Exception {
+        ReportePosicionesTest reporte = crearReportePosiciones(50);
+        
+        byte[] pdfDesdeMapa = generadorPDF.generarPDF("reporte-posiciones", ObjectToMapConverter.convertToMap(reporte));
+        byte[] pdfDesdeObjeto = generadorPDF.generarPDFDesdeObjeto("reporte-posiciones", reporte);
+        assertArrayEquals(sinMarcasDeTiempo(pdfDesdeMapa), sinMarcasDeTiempo(pdfDesdeObjeto),
+                "El contexto perezoso debe producir el mismo PDF que el Map");
+        
+        byte[] pdfMapaExcluyendo = generadorPDF.generarPDF("reporte-posiciones",
+                ObjectToMapConverter.convertToMapExcluding(reporte, "razonSocial"));
+        byte[] pdfObjetoExcluyendo = generadorPDF.generarPDFDesdeObjetoExcluyendo("reporte-posiciones", reporte, "razonSocial");
+        assertArrayEquals(sinMarcasDeTiempo(pdfMapaExcluyendo), sinMarcasDeTiempo(pdfObjetoExcluyendo),
+                "Los campos excluidos no deben resolverse desde la plantilla");
+        
+        ContextoObjeto contexto = ContextoObjeto.excluyendo(reporte, "razonSocial");
+        assertFalse(contexto.containsVariable("razonSocial"));
+        assertNull(contexto.getVariable("razonSocial"));
+        assertEquals("ACTIN", contexto.getVariable("casaBolsa"));
+        
+        System.out.println("✓ Prueba unitaria contexto perezoso desde objeto: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Lote con un trabajo fallido
+     * Los resultados respetan el orden de los trabajos y el fallo no interrumpe el lote
+     */
+    @Test
+    void testGenerarLoteConFallo() throws Exception {
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        List<TrabajoPDF> trabajos = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            trabajos.add(new TrabajoPDF(i == 3 ? "plantilla-inexistente" : "confirmacion-envio", datos));
+        }
+        
+        List<ResultadoTrabajoPDF> resultados = generadorPDF.generarLote(trabajos);
+        
+        assertEquals(trabajos.size(), resultados.size());
+        for (int i = 0; i < resultados.size(); i++) {
+            ResultadoTrabajoPDF resultado = resultados.get(i);
+            assertEquals(i, resultado.getIndice(), "Los resultados deben conservar el orden de los trabajos");
+            assertSame(trabajos.get(i), resultado.getTrabajo());
+            assertEquals(i != 3, resultado.isExitoso());
+        }
+        assertNotNull(resultados.get(3).getError(), "El trabajo fallido debe llevar su excepción");
+        
+        // En orden de terminación, desde el hilo llamador
+        List<Integer> indices = new ArrayList<>();
+        Thread llamador = Thread.currentThread();
+        generadorPDF.generarLote(trabajos, resultado -> {
+            assertSame(llamador, Thread.currentThread(), "El consumidor debe ejecutarse en el hilo llamador");
+            indices.add(resultado.getIndice());
+        });
+        assertEquals(trabajos.size(), indices.size());
+        
+        System.out.println("✓ Prueba unitaria lote con fallo: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Lote con un hilo, con un hilo por núcleo y con hilos virtuales
+     * Cada trabajo produce el mismo PDF que su generación individual, en el orden
+     * de los trabajos, y un fallo sólo afecta a su trabajo
+     * El rendimiento según el paralelismo se mide en LoteBenchmark (src/jmh)
+     */
+    @Test
+    void testGenerarLoteConParalelismo() throws Exception {
+        int nucleos = Math.max(2, Runtime.getRuntime().availableProcessors());
+        Map<String, Object> confirmacion = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        Map<String, Object> aviso = Map.of("fechaGeneracion", "15/01/2024", "claveCotizacion", "ACTINVER");
+        List<TrabajoPDF> trabajos = new ArrayList<>();
+        for (int i = 0; i < 4 * nucleos; i++) {
+            trabajos.add(i == 5 ? new TrabajoPDF("plantilla-inexistente", aviso)
+                    : i % 2 == 0 ? new TrabajoPDF("confirmacion-envio", confirmacion)
+                    : new TrabajoPDF("aviso-extemporaneidad", aviso));
+        }
+        Map<String, byte[]> esperados = Map.of(
+                "confirmacion-envio", sinMarcasDeTiempo(generadorPDF.generarPDF("confirmacion-envio", confirmacion)),
+                "aviso-extemporaneidad", sinMarcasDeTiempo(generadorPDF.generarPDF("aviso-extemporaneidad", aviso)));
+        
+        for (ConfiguracionGenerador configuracion : List.of(
+                ConfiguracionGenerador.builder().paralelismoLote(1).tamanoPoolRenderizadores(1).build(),
+                ConfiguracionGenerador.builder().paralelismoLote(nucleos).tamanoPoolRenderizadores(nucleos).build(),
+                ConfiguracionGenerador.builder().paralelismoLote(nucleos).tamanoPoolRenderizadores(nucleos)
+                        .hilosVirtualesLote(true).build())) {
+            
+            List<ResultadoTrabajoPDF> resultados = new GeneradorReportesPDF(configuracion).generarLote(trabajos);
+            
+            assertEquals(trabajos.size(), resultados.size());
+            for (int i = 0; i < resultados.size(); i++) {
+                ResultadoTrabajoPDF resultado = resultados.get(i);
+                assertEquals(i, resultado.getIndice(), "Los resultados deben conservar el orden de los trabajos");
+                assertSame(trabajos.get(i), resultado.getTrabajo());
+                if (i == 5) {
+                    assertFalse(resultado.isExitoso(), "El trabajo con plantilla inexistente debe fallar");
+                    assertNotNull(resultado.getError());
+                } else {
+                    assertTrue(resultado.isExitoso(), "Un fallo no debe afectar a los demás trabajos: " + i);
+                    assertArrayEquals(esperados.get(trabajos.get(i).nombrePlantilla()),
+                            sinMarcasDeTiempo(resultado.getPdf()),
+                            "El lote debe producir el mismo PDF que la generación individual: " + i);
+                }
+            }
+        }
+        
+        System.out.println("✓ Prueba unitaria lote con paralelismo: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Reporte de posiciones por tramos
+     * El encabezado sólo aparece en la primera página y los grupos, tablas y
+     * filas siguen el orden del reporte generado de una vez
+     */
+    @Test
+    void testGenerarReportePosicionesPorTramos() throws Exception {
+        ReportePosicionesTest reporte = crearReportePosiciones(400);
+        reporte.setGruposPosiciones(List.of(reporte.getGruposPosiciones().get(0),
+                new ReportePosicionesTest.GrupoPosiciones("Grupo de Valores Corporativos",
+                        crearReportePosiciones(200).getGruposPosiciones().get(0).getPosiciones())));
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(reporte);
+        
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        generadorPDF.generarReportePosicionesPorTramos(datos, 150, salida);
+        byte[] pdfBytes = salida.toByteArray();
+        
+        PdfReader lector = new PdfReader(pdfBytes);
+        int paginas = lector.getNumberOfPages();
+        PdfTextExtractor extractor = new PdfTextExtractor(lector);
+        assertTrue(paginas >= 12, "Cada uno de los 12 tramos debe ocupar al menos una página");
+        for (int pagina = 1; pagina <= paginas; pagina++) {
+            String texto = extractor.getTextFromPage(pagina);
+            assertEquals(pagina == 1, texto.contains("Reporte de Consulta de Posiciones"),
+                    "El encabezado sólo debe aparecer en la primera página (página " + pagina + ")");
+        }
+        lector.close();
+        
+        List<String> secuencia = secuenciaPosiciones(pdfBytes);
+        assertEquals(secuenciaPosiciones(generadorPDF.generarPDF("reporte-posiciones", datos)), secuencia,
+                "Los grupos, tablas y filas deben seguir el orden del reporte completo");
+        assertEquals(2 + 2 * 3 + 3 * 600, secuencia.size());
+        
+        Path archivoPDF = outputDir.resolve("reporte-posiciones-tramos.pdf");
+        Files.write(archivoPDF, pdfBytes);
+        
+        System.out.println("✓ Prueba unitaria reporte-posiciones por tramos: EXITOSA");
+        System.out.println("  Páginas: " + paginas + ", tamaño: " + pdfBytes.length + " bytes");
+    }
+
+    /**
+     * Nombres de grupo, títulos de tabla y emisoras de un reporte de posiciones,
+     * en el orden en que aparecen en el texto del PDF
+     */
+    private static List<String> secuenciaPosiciones(byte[] pdf) throws IOException {
+        Pattern marcas = Pattern.compile("Grupo de Valores \\p{L}+|EMISI.N - [^\\n]*?(?=\\n|$)|EMISORA\\d+");
+        PdfReader lector = new PdfReader(pdf);
+        PdfTextExtractor extractor = new PdfTextExtractor(lector);
+        List<String> secuencia = new ArrayList<>();
+        for (int pagina = 1; pagina <= lector.getNumberOfPages(); pagina++) {
+            Matcher marca = marcas.matcher(extractor.getTextFromPage(pagina));
+            while (marca.find()) {
+                secuencia.add(marca.group().trim());
+            }
+        }
+        lector.close();
+        return secuencia;
+    }
+
+    /**
+     * Prueba unitaria: División en tramos
+     * Los grupos se reparten entre tramos sin perder ni duplicar filas
+     */
+    @Test
+    void testTramosPorFilas() {
+        ReportePosicionesTest reporte = crearReportePosiciones(250);
+        ReportePosicionesTest.GrupoPosiciones vacio = new ReportePosicionesTest.GrupoPosiciones("Vacío", List.of());
+        reporte.setGruposPosiciones(List.of(reporte.getGruposPosiciones().get(0), vacio,
+                reporte.getGruposPosiciones().get(0)));
+        
+        TramosPorFilas tramos = new TramosPorFilas(ObjectToMapConverter.convertToMap(reporte),
+                "gruposPosiciones", "posiciones", 100);
+        List<Integer> filasPorTramo = new ArrayList<>();
+        List<Object> continuacion = new ArrayList<>();
+        List<Object> pendiente = new ArrayList<>();
+        while (tramos.hasNext()) {
+            Map<String, Object> tramo = tramos.next();
+            int filas = 0;
+            for (Object grupo : (List<?>) tramo.get("gruposPosiciones")) {
+                filas += ((List<?>) ((Map<?, ?>) grupo).get("posiciones")).size();
+            }
+            filasPorTramo.add(filas);
+            continuacion.add(tramo.get(TramosPorFilas.VARIABLE_CONTINUACION));
+            pendiente.add(tramo.get(TramosPorFilas.VARIABLE_PENDIENTE));
+        }
+        
+        assertEquals(List.of(100, 100, 100, 100, 100), filasPorTramo);
+        assertEquals(List.of(false, true, true, true, true), continuacion);
+        assertEquals(List.of(true, true, true, true, false), pendiente);
+        
+        // Con varias secciones, cada una se reparte completa antes de la siguiente
+        tramos = new TramosPorFilas(ObjectToMapConverter.convertToMap(reporte),
+                "gruposPosiciones", "posiciones", 100, 3);
+        filasPorTramo.clear();
+        List<String> secciones = new ArrayList<>();
+        while (tramos.hasNext()) {
+            int filas = 0;
+            for (Object grupo : (List<?>) tramos.next().get("gruposPosiciones")) {
+                Map<?, ?> datosGrupo = (Map<?, ?>) grupo;
+                filas += ((List<?>) datosGrupo.get("posiciones")).size();
+                if ((Boolean) datosGrupo.get(TramosPorFilas.VARIABLE_INICIO_SECCION)) {
+                    secciones.add(datosGrupo.get("nombre") + "#" + datosGrupo.get(TramosPorFilas.VARIABLE_SECCION));
+                }
+            }
+            filasPorTramo.add(filas);
+        }
+        assertEquals(Collections.nCopies(15, 100), filasPorTramo);
+        String nombre = reporte.getGruposPosiciones().get(0).getNombre();
+        assertEquals(List.of(nombre + "#1", nombre + "#2", nombre + "#3", "Vacío#1", "Vacío#2", "Vacío#3",
+                nombre + "#1", nombre + "#2", nombre + "#3"), secciones);
+        
+        System.out.println("✓ Prueba unitaria división en tramos: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Maquetación en paralelo de un reporte grande
+     * Debe producir el mismo documento que la generación secuencial por tramos,
+     * con el contenido del reporte completo; el tiempo se mide en TramosBenchmark
+     */
+    @Test
+    void testGenerarReportePosicionesEnParalelo() throws Exception {
+        int nucleos = Math.max(2, Runtime.getRuntime().availableProcessors());
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearReportePosiciones(600));
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .paralelismoLote(nucleos)
+                .tamanoPoolRenderizadores(nucleos)
+                .build());
+        
+        ByteArrayOutputStream secuencial = new ByteArrayOutputStream();
+        generador.generarReportePosicionesPorTramos(datos, 100, secuencial);
+        ByteArrayOutputStream paralelo = new ByteArrayOutputStream();
+        generador.generarReportePosicionesEnParalelo(datos, 100, paralelo);
+        
+        assertArrayEquals(sinMarcasDeTiempo(secuencial.toByteArray()), sinMarcasDeTiempo(paralelo.toByteArray()),
+                "La maquetación en paralelo debe producir el mismo PDF que la secuencial");
+        assertEquals(secuenciaPosiciones(generador.generarPDF("reporte-posiciones", datos)),
+                secuenciaPosiciones(paralelo.toByteArray()),
+                "Los grupos, tablas y filas deben seguir el orden del reporte completo");
+        PoolRenderizadores pool = generador.getPoolRenderizadores();
+        assertEquals(pool.getCreados() - pool.getDescartados(), pool.getDisponibles(),
+                "Todos los renderers deben volver al pool");
+        
+        System.out.println("✓ Prueba unitaria reporte-posiciones en paralelo: EXITOSA");
+        System.out.println("  Tamaño PDF: " + paralelo.size() + " bytes");
+    }
+
+    /**
+     * Prueba unitaria: Caché de resultados en memoria y disco
+     * Un documento repetido no vuelve a maquetarse; datos distintos sí
+     */
+    @Test
+    void testCacheResultadosPDF() throws Exception {
+        Path directorioCache = tempDir.resolve("cache-pdf");
+        CacheResultadosPDF cache = new CacheResultadosPDF(1024 * 1024, directorioCache, 10L * 1024 * 1024);
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheResultados(cache)
+                .build());
+        
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        byte[] primero = generador.generarPDF("confirmacion-envio", datos);
+        long creados = generador.getPoolRenderizadores().getCreados();
+        
+        // Mismo contenido en un mapa distinto: acierto sin maquetar
+        byte[] repetido = generador.generarPDF("confirmacion-envio", new HashMap<>(datos));
+        assertArrayEquals(primero, repetido);
+        assertEquals(1, cache.getAciertosMemoria());
+        assertEquals(creados, generador.getPoolRenderizadores().getCreados());
+        assertEquals(0, generador.getPoolRenderizadores().getReutilizados(), "El acierto no debe usar un renderer");
+        
+        // Datos distintos: fallo
+        Map<String, Object> otros = new HashMap<>(datos);
+        otros.put("folioRecepcion", "99999999");
+        generador.generarPDF("confirmacion-envio", otros);
+        assertEquals(2, cache.getFallos());
+        
+        // El nivel en disco sobrevive a una nueva instancia de la caché
+        CacheResultadosPDF cacheNueva = new CacheResultadosPDF(1024 * 1024, directorioCache, 10L * 1024 * 1024);
+        GeneradorReportesPDF generadorNuevo = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheResultados(cacheNueva)
+                .build());
+        assertArrayEquals(primero, generadorNuevo.generarPDF("confirmacion-envio", datos));
+        assertEquals(1, cacheNueva.getAciertosDisco());
+        
+        // La invalidación descarta ambos niveles
+        generadorNuevo.invalidarPlantilla("confirmacion-envio");
+        assertEquals(0, cacheNueva.getTamanoMemoria());
+        assertEquals(0, cacheNueva.getBytesDisco());
+        generadorNuevo.generarPDF("confirmacion-envio", datos);
+        assertEquals(1, cacheNueva.getFallos());
+        
+        System.out.println("✓ Prueba unitaria caché de resultados: EXITOSA");
+        System.out.println("  Aciertos memoria/disco: " + cache.getAciertosMemoria() + "/" + cacheNueva.getAciertosDisco());
+    }
+
+    /**
+     * Prueba unitaria: Caché de resultados compartida por generadores con distinto perfil
+     * Cada generador sólo recibe los PDFs que él mismo habría producido
+     */
+    @Test
+    void testCacheResultadosPDFCompartida() throws Exception {
+        CacheResultadosPDF cache = new CacheResultadosPDF(1024 * 1024);
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        GeneradorReportesPDF estandar = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheResultados(cache)
+                .registroMetricas(registro)
+                .build());
+        GeneradorReportesPDF compacto = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheResultados(cache)
+                .registroMetricas(registro)
+                .perfilSalida(PerfilSalida.COMPACTO)
+                .build());
+        
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        byte[] pdfEstandar = estandar.generarPDF("confirmacion-envio", datos);
+        byte[] pdfCompacto = compacto.generarPDF("confirmacion-envio", datos);
+        assertEquals(2, cache.getFallos(), "Otro perfil no debe acertar con el PDF del primer generador");
+        assertFalse(Arrays.equals(sinMarcasDeTiempo(pdfEstandar), sinMarcasDeTiempo(pdfCompacto)));
+        assertArrayEquals(sinMarcasDeTiempo(new GeneradorReportesPDF().generarPDF("confirmacion-envio", datos,
+                PerfilSalida.COMPACTO)), sinMarcasDeTiempo(pdfCompacto));
+        
+        // Cada generador acierta con su propio PDF
+        assertArrayEquals(pdfEstandar, estandar.generarPDF("confirmacion-envio", datos));
+        assertArrayEquals(pdfCompacto, compacto.generarPDF("confirmacion-envio", datos));
+        assertEquals(2, cache.getAciertosMemoria());
+        
+        assertEquals(2.0, registro.get("pdf.cache.resultados")
+                .tags("plantilla", "confirmacion-envio", "resultado", "acierto").counter().count());
+        assertEquals(2.0, registro.get("pdf.cache.resultados")
+                .tags("plantilla", "confirmacion-envio", "resultado", "fallo").counter().count());
+        
+        System.out.println("✓ Prueba unitaria caché de resultados compartida: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Desalojo e invalidación por plantilla de la caché de resultados
+     */
+    @Test
+    void testCacheResultadosPDFDesalojo() throws Exception {
+        byte[] pdf = new byte[400];
+        CacheResultadosPDF cache = new CacheResultadosPDF(1000, tempDir.resolve("desalojo"), 1000);
+        
+        cache.guardar("plantilla", "a", pdf);
+        cache.guardar("plantilla", "b", pdf);
+        assertNotNull(cache.obtener("plantilla", "a"));
+        cache.guardar("plantilla", "c", pdf);
+        
+        assertEquals(1, cache.getDesalojosMemoria());
+        assertEquals(1, cache.getDesalojosDisco());
+        assertTrue(cache.getBytesMemoria() <= 1000);
+        assertTrue(cache.getBytesDisco() <= 1000);
+        
+        // Invalidar una plantilla no alcanza a otra cuyo nombre se parece al sanearlo
+        CacheResultadosPDF cacheNombres = new CacheResultadosPDF(10_000, tempDir.resolve("nombres"), 10_000);
+        cacheNombres.guardar("reportes/a", "x", pdf);
+        cacheNombres.guardar("reportes_a", "x", pdf);
+        cacheNombres.guardar("reportes/ab", "x", pdf);
+        cacheNombres.invalidarPlantilla("reportes/a");
+        assertNull(cacheNombres.obtener("reportes/a", "x"));
+        assertNotNull(cacheNombres.obtener("reportes_a", "x"));
+        assertNotNull(cacheNombres.obtener("reportes/ab", "x"));
+        assertEquals(2 * pdf.length, cacheNombres.getBytesDisco());
+        
+        System.out.println("✓ Prueba unitaria desalojo de la caché de resultados: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Registro de fuentes compartido y política de incrustación
+     * Requiere las fuentes DejaVu del sistema; se omite si no están instaladas
+     */
+    @Test
+    void testRegistroFuentesPoliticaIncrustacion() throws Exception {
+        Path directorioFuentes = Paths.get("/usr/share/fonts/truetype/dejavu");
+        assumeTrue(Files.isDirectory(directorioFuentes), "Fuentes DejaVu no disponibles");
+        
+        Map<String, String> alias = Map.of("Arial", "DejaVu Sans", "Courier New", "DejaVu Sans Mono");
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        Map<RegistroFuentes.PoliticaIncrustacion, byte[]> pdfs = new EnumMap<>(RegistroFuentes.PoliticaIncrustacion.class);
+        
+        for (RegistroFuentes.PoliticaIncrustacion politica : RegistroFuentes.PoliticaIncrustacion.values()) {
+            RegistroFuentes registro = new RegistroFuentes(politica, alias, List.of(directorioFuentes));
+            assertTrue(registro.getFamilias().contains("DejaVu Sans"));
+            
+            GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                    .registroFuentes(registro)
+                    .build());
+            pdfs.put(politica, generador.generarPDF("confirmacion-envio", datos));
+        }
+        
+        String sinIncrustar = new String(pdfs.get(RegistroFuentes.PoliticaIncrustacion.NINGUNA), StandardCharsets.ISO_8859_1);
+        String subconjunto = new String(pdfs.get(RegistroFuentes.PoliticaIncrustacion.SUBCONJUNTO), StandardCharsets.ISO_8859_1);
+        assertTrue(sinIncrustar.contains("/BaseFont/DejaVuSans") && !sinIncrustar.contains("/FontFile2"),
+                "Sin incrustar, la fuente sólo se referencia por nombre");
+        assertTrue(subconjunto.matches("(?s).*/BaseFont/[A-Z]{6}\\+DejaVuSans.*"),
+                "El subconjunto lleva el prefijo de seis letras en el nombre de la fuente");
+        assertTrue(pdfs.get(RegistroFuentes.PoliticaIncrustacion.NINGUNA).length
+                < pdfs.get(RegistroFuentes.PoliticaIncrustacion.SUBCONJUNTO).length);
+        assertTrue(pdfs.get(RegistroFuentes.PoliticaIncrustacion.SUBCONJUNTO).length
+                < pdfs.get(RegistroFuentes.PoliticaIncrustacion.COMPLETA).length);
+        
+        System.out.println("✓ Prueba unitaria registro de fuentes: EXITOSA");
+        pdfs.forEach((politica, pdf) -> System.out.println("  " + politica + ": " + pdf.length + " bytes"));
+    }
+
+    /**
+     * Prueba unitaria: Métricas por fase de la generación
+     * Cada fase, el total, el tamaño y las páginas se registran con la plantilla como etiqueta
+     */
+    @Test
+    void testMetricasPorFase() throws Exception {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .registroMetricas(registro)
+                .metricasEnLog(true)
+                .build());
+        
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        byte[] pdf = generador.generarPDF("confirmacion-envio", datos);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        generador.generarPDF("confirmacion-envio", datos, salida);
+        
+        for (MetricasGenerador.Fase fase : MetricasGenerador.Fase.values()) {
+            Timer timer = registro.get("pdf.generacion.fase")
+                    .tags("plantilla", "confirmacion-envio", "fase", fase.name().toLowerCase())
+                    .timer();
+            assertEquals(2, timer.count(), "Fase " + fase);
+        }
+        Timer total = registro.get("pdf.generacion").tags("plantilla", "confirmacion-envio", "resultado", "exito").timer();
+        assertEquals(2, total.count());
+        assertTrue(total.totalTime(TimeUnit.NANOSECONDS) > 0);
+        
+        DistributionSummary tamano = registro.get("pdf.generacion.tamano").tag("plantilla", "confirmacion-envio").summary();
+        assertEquals(pdf.length + salida.size(), tamano.totalAmount(), 0.5);
+        assertEquals(1, registro.get("pdf.generacion.paginas").tag("plantilla", "confirmacion-envio").summary().max(), 0.5);
+        
+        // Un fallo se registra con su propio resultado
+        assertThrows(Exception.class, () -> generador.generarPDF("plantilla-inexistente", datos));
+        assertEquals(1, registro.get("pdf.generacion").tags("plantilla", "plantilla-inexistente", "resultado", "error")
+                .timer().count());
+        
+        System.out.println("✓ Prueba unitaria métricas por fase: EXITOSA");
+        System.out.printf("  Tiempo medio: %.1f ms%n", total.mean(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Prueba unitaria: Calentamiento de plantillas para arranques en frío
+     * Descubre todas las plantillas y las calienta con datos sintéticos. Los
+     * callbacks de checkpoint/restore se invocan directamente: un checkpoint real
+     * (jcmd JDK.checkpoint) requiere una JVM con CRaC y queda fuera de esta prueba
+     */
+    @Test
+    void testCalentadorPlantillas() throws Exception {
+        GeneradorReportesPDF generador = new GeneradorReportesPDF();
+        CalentadorPlantillas calentador = new CalentadorPlantillas(generador, List.of());
+        
+        assertEquals(List.of("aviso-extemporaneidad", "confirmacion-envio", "reporte-posiciones"),
+                calentador.getPlantillas(), "Deben descubrirse las plantillas de templates/ sin los fragmentos");
+        assertFalse(calentador.isCalentado());
+        
+        // Los datos sintéticos llenan las tablas: el reporte ocupa varias páginas
+        PdfReader reporte = new PdfReader(generador.generarPDF("reporte-posiciones",
+                CalentadorPlantillas.datosSinteticos("reporte-posiciones")));
+        assertTrue(reporte.getNumberOfPages() > 2, "Las tablas sintéticas deben ocupar varias páginas");
+        assertTrue(new PdfTextExtractor(reporte).getTextFromPage(2).contains("EMISORA"));
+        reporte.close();
+        
+        // Sin calentar antes, el checkpoint calienta
+        calentador.beforeCheckpoint(null);
+        assertTrue(calentador.isCalentado());
+        long creados = generador.getPoolRenderizadores().getCreados();
+        assertTrue(creados > 0);
+        
+        calentador.afterRestore(null);
+        assertEquals(creados, generador.getPoolRenderizadores().getCreados(), "Tras restaurar se reutilizan los renderers");
+        
+        // Lista configurada y datos sintéticos propios
+        CalentadorPlantillas soloConfirmacion = new CalentadorPlantillas(generador, List.of("confirmacion-envio"),
+                plantilla -> ObjectToMapConverter.convertToMap(crearConfirmacionEnvio()));
+        List<CalentadorPlantillas.TiemposCalentamiento> tiempos = soloConfirmacion.calentar();
+        assertEquals(1, tiempos.size());
+        assertEquals("confirmacion-envio", tiempos.get(0).plantilla());
+        
+        // Con caché de resultados, el calentamiento no la llena ni la mide
+        CacheResultadosPDF cache = new CacheResultadosPDF(1024 * 1024);
+        GeneradorReportesPDF generadorConCache = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .cacheResultados(cache)
+                .build());
+        CalentadorPlantillas conCache = new CalentadorPlantillas(generadorConCache, List.of("aviso-extemporaneidad"));
+        conCache.calentar();
+        conCache.afterRestore(null);
+        assertEquals(0, cache.getTamanoMemoria(), "Los documentos sintéticos no deben quedar en la caché");
+        assertEquals(0, cache.getAciertosMemoria() + cache.getFallos());
+        
+        System.out.println("✓ Prueba unitaria calentamiento de plantillas: EXITOSA");
+        tiempos.forEach(t -> System.out.println("  " + t.plantilla() + ": " + t.enFrio().toMillis()
+                + " ms -> " + t.caliente().toMillis() + " ms"));
+    }
+
+    /**
+     * Prueba unitaria: Generación asíncrona con control de admisión
+     * Con la cola llena se rechaza de inmediato; cancelar o vencer libera la cola
+     */
+    @Test
+    void testGenerarPDFAsincronoConAdmision() throws Exception {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .hilosAsincronos(1)
+                .capacidadColaAsincrona(1)
+                .registroMetricas(registro)
+                .build());
+        Map<String, Object> grande = ObjectToMapConverter.convertToMap(crearReportePosiciones(2000));
+        Map<String, Object> pequeno = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        
+        // Uno en curso y uno en cola; el tercero no cabe
+        CompletableFuture<byte[]> enCurso = generador.generarPDFAsincrono("reporte-posiciones", grande);
+        CompletableFuture<byte[]> enCola = generador.generarPDFAsincrono("confirmacion-envio", pequeno);
+        CompletableFuture<byte[]> rechazado = generador.generarPDFAsincrono("confirmacion-envio", pequeno);
+        
+        ExecutionException rechazo = assertThrows(ExecutionException.class, () -> rechazado.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, rechazo.getCause());
+        assertEquals(1, registro.get("pdf.asincrono.rechazados").functionCounter().count(), 0.5);
+        assertEquals(1, registro.get("pdf.asincrono.cola").gauge().value(), 0.5);
+        
+        // Cancelar el documento en cola libera su lugar
+        assertTrue(enCola.cancel(true));
+        assertEquals(0, generador.getEjecutorAsincrono().getEnCola());
+        
+        // Un tiempo máximo que vence en la cola falla con TimeoutException
+        CompletableFuture<byte[]> vencido = generador.generarPDFAsincrono("confirmacion-envio", pequeno, Duration.ofMillis(1));
+        ExecutionException vencimiento = assertThrows(ExecutionException.class, () -> vencido.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, vencimiento.getCause());
+        
+        byte[] pdf = enCurso.get(60, TimeUnit.SECONDS);
+        assertTrue(pdf.length > 0);
+        assertArrayEquals("%PDF".getBytes(StandardCharsets.US_ASCII), Arrays.copyOf(pdf, 4));
+        assertTrue(generador.generarPDFAsincrono("confirmacion-envio", pequeno).get(30, TimeUnit.SECONDS).length > 0,
+                "Tras la carga la cola vuelve a admitir documentos");
+        assertEquals(0, generador.getEjecutorAsincrono().getEnCurso());
+        
+        // Otro generador en el mismo registro publica sus propias métricas y las retira al cerrarse
+        GeneradorReportesPDF otro = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .nombre("otro")
+                .registroMetricas(registro)
+                .build());
+        assertEquals(2, registro.find("pdf.asincrono.cola").gauges().size());
+        assertEquals(0, registro.get("pdf.asincrono.cola").tag("generador", "otro").gauge().value(), 0.5);
+        otro.cerrar();
+        assertNull(registro.find("pdf.asincrono.cola").tag("generador", "otro").gauge());
+        assertNotNull(registro.find("pdf.asincrono.cola").tag("generador", generador.getNombre()).gauge());
+        assertInstanceOf(RejectedExecutionException.class, assertThrows(ExecutionException.class,
+                () -> otro.generarPDFAsincrono("confirmacion-envio", pequeno).get(1, TimeUnit.SECONDS)).getCause());
+        
+        generador.cerrar();
+        assertTrue(registro.find("pdf.asincrono.cola").gauges().isEmpty());
+        
+        System.out.println("✓ Prueba unitaria generación asíncrona con admisión: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Carriles por tamaño de documento
+     * Un documento pequeño no espera detrás de los reportes grandes en curso;
+     * los reportes grandes quedan detenidos hasta que terminan los pequeños
+     */
+    @Test
+    void testPlanificadorCarriles() throws Exception {
+        CountDownLatch grandeIniciado = new CountDownLatch(1);
+        CountDownLatch liberarGrandes = new CountDownLatch(1);
+        GeneradorReportesPDF generador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .tamanoPoolRenderizadores(2)
+                .build()) {
+            @Override
+            public byte[] generarPDF(String nombrePlantilla, Map<String, Object> datos)
+                    throws IOException, DocumentException {
+                if (nombrePlantilla.equals("reporte-posiciones")) {
+                    grandeIniciado.countDown();
+                    try {
+                        liberarGrandes.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Reporte grande interrumpido");
+                    }
+                }
+                return super.generarPDF(nombrePlantilla, datos);
+            }
+        };
+        PlanificadorCarriles planificador = new PlanificadorCarriles(generador, List.of(
+                new PlanificadorCarriles.Carril("pequeno", 100, 1, 10),
+                new PlanificadorCarriles.Carril("grande", Long.MAX_VALUE, 1, 10)),
+                Map.of(), new SimpleMeterRegistry());
+        
+        Map<String, Object> grande = ObjectToMapConverter.convertToMap(crearReportePosiciones(400));
+        Map<String, Object> pequeno = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        
+        // Las filas anidadas en los grupos cuentan para el costo
+        assertEquals(401, planificador.estimarCosto("reporte-posiciones", grande));
+        assertEquals(1, planificador.estimarCosto("confirmacion-envio", pequeno));
+        assertEquals("grande", planificador.carrilDe("reporte-posiciones", grande).nombre());
+        assertEquals("pequeno", planificador.carrilDe("confirmacion-envio", pequeno).nombre());
+        
+        // El primer reporte grande ocupa el único hilo de su carril y el segundo espera en cola
+        List<CompletableFuture<byte[]>> grandes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            grandes.add(planificador.generarPDF("reporte-posiciones", grande));
+        }
+        assertTrue(grandeIniciado.await(30, TimeUnit.SECONDS));
+        assertEquals(1, planificador.getEjecutor("grande").getEnCurso());
+        assertEquals(1, planificador.getEjecutor("grande").getEnCola());
+        
+        // Mientras tanto, los pequeños se generan en su propio carril
+        for (int i = 0; i < 5; i++) {
+            assertTrue(planificador.generarPDF("confirmacion-envio", pequeno).get(60, TimeUnit.SECONDS).length > 0);
+        }
+        assertTrue(grandes.stream().noneMatch(CompletableFuture::isDone),
+                "Los pequeños no deben esperar a los reportes grandes");
+        assertEquals(1, planificador.getEjecutor("grande").getEnCola());
+        
+        liberarGrandes.countDown();
+        CompletableFuture.allOf(grandes.toArray(new CompletableFuture[0])).get(120, TimeUnit.SECONDS);
+        assertEquals(0, planificador.getEjecutor("grande").getEnCurso());
+        planificador.cerrar();
+        
+        System.out.println("✓ Prueba unitaria carriles por tamaño: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Reporte con filas por columnas
+     * Debe producir el mismo PDF que la lista de POJOs convertida a mapas
+     */
+    @Test
+    void testTablaColumnarProduceMismoPDF() throws Exception {
+        ReportePosicionesTest reporte = crearReportePosiciones(200);
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(reporte);
+        
+        Map<String, Object> datosColumnares = new HashMap<>(datos);
+        List<Map<String, Object>> grupos = new ArrayList<>();
+        for (ReportePosicionesTest.GrupoPosiciones grupo : reporte.getGruposPosiciones()) {
+            grupos.add(Map.of(
+                    "nombre", grupo.getNombre(),
+                    "posiciones", ObjectToMapConverter.convertToColumnar(grupo.getPosiciones())));
+        }
+        datosColumnares.put("gruposPosiciones", grupos);
+        
+        byte[] pdfPojos = generadorPDF.generarPDF("reporte-posiciones", datos);
+        byte[] pdfColumnar = generadorPDF.generarPDF("reporte-posiciones", datosColumnares);
+        assertArrayEquals(sinMarcasDeTiempo(pdfPojos), sinMarcasDeTiempo(pdfColumnar),
+                "La tabla por columnas debe producir el mismo PDF que la lista de POJOs");
+        
+        // Por tramos, cada tramo es una vista de la misma tabla
+        ByteArrayOutputStream tramos = new ByteArrayOutputStream();
+        generadorPDF.generarReportePosicionesPorTramos(datosColumnares, 80, tramos);
+        assertTrue(tramos.size() > 0);
+        
+        System.out.println("✓ Prueba unitaria tabla por columnas: EXITOSA");
+        System.out.println("  Tamaño PDF: " + pdfColumnar.length + " bytes");
+    }
+
+    /**
+     * Prueba unitaria: Plantillas precompiladas
+     * El paquete del build debe producir los mismos PDFs que las plantillas sin aplanar
+     */
+    @Test
+    void testPlantillasPrecompiladasProducenMismoPDF() throws Exception {
+        Map<String, String> compiladas = CompiladorPlantillas.compilar(Paths.get("src/main/resources/templates"));
+        for (String plantilla : List.of("aviso-extemporaneidad", "confirmacion-envio", "reporte-posiciones")) {
+            assertFalse(compiladas.get(plantilla).contains("th:replace"),
+                    "Las inclusiones estáticas deben quedar aplanadas en " + plantilla);
+            assertTrue(compiladas.get(plantilla).contains("th:text"), "Las expresiones deben conservarse");
+        }
+        assertFalse(compiladas.get("reporte-posiciones").contains("/*"), "El CSS debe quedar sin comentarios");
+        assertTrue(compiladas.containsKey("fragments/header"));
+        assertEquals("a b>c{color:red}d,e{font-family:'Courier  New'}",
+                CompiladorPlantillas.minificarCss(" a  b>c {\n color:red ;\n}  /* x */ d, e{font-family:'Courier  New'}"));
+        
+        GeneradorReportesPDF precompilado = new GeneradorReportesPDF();
+        GeneradorReportesPDF sinPrecompilar = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .plantillasPrecompiladas(false)
+                .build());
+        assertTrue(precompilado.esPrecompilada("reporte-posiciones"), "El build debe empaquetar las plantillas");
+        assertFalse(sinPrecompilar.esPrecompilada("reporte-posiciones"));
+        
+        Map<String, Map<String, Object>> datosPorPlantilla = Map.of(
+                "aviso-extemporaneidad", Map.of("claveCotizacion", "ACTINVER", "razonSocial", "ACTINVER CASA DE BOLSA"),
+                "confirmacion-envio", ObjectToMapConverter.convertToMap(crearConfirmacionEnvio()),
+                "reporte-posiciones", ObjectToMapConverter.convertToMap(crearReportePosiciones(50)));
+        for (Map.Entry<String, Map<String, Object>> entrada : datosPorPlantilla.entrySet()) {
+            assertArrayEquals(sinMarcasDeTiempo(sinPrecompilar.generarPDF(entrada.getKey(), entrada.getValue())),
+                    sinMarcasDeTiempo(precompilado.generarPDF(entrada.getKey(), entrada.getValue())),
+                    "La plantilla precompilada debe producir el mismo PDF: " + entrada.getKey());
+        }
+        
+        // Tras invalidar, las plantillas vuelven a leerse del classpath
+        precompilado.invalidarPlantilla("reporte-posiciones");
+        assertFalse(precompilado.esPrecompilada("reporte-posiciones"));
+
+        // Un paquete más viejo que alguna plantilla junto a él no se usa
+        Path plantillas = Files.createDirectories(tempDir.resolve("templates/fragments"));
+        Path paquete = Files.write(tempDir.resolve("templates/plantillas-precompiladas.bin"), new byte[0]);
+        Path fragmento = Files.writeString(plantillas.resolve("header.html"), "<div></div>");
+        FileTime compilado = Files.getLastModifiedTime(paquete);
+        Files.setLastModifiedTime(fragmento, FileTime.fromMillis(compilado.toMillis() - 1000));
+        assertTrue(ResolutorPlantillasPrecompiladas.vigente(paquete));
+        Files.setLastModifiedTime(fragmento, FileTime.fromMillis(compilado.toMillis() + 1000));
+        assertFalse(ResolutorPlantillasPrecompiladas.vigente(paquete), "Un fragmento editado debe invalidar el paquete");
+        
+        System.out.println("✓ Prueba unitaria plantillas precompiladas: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Poda de CSS por plantilla
+     * Los selectores que la plantilla no puede usar se quitan sin cambiar el PDF
+     * de ninguna de las plantillas de templates/
+     */
+    @Test
+    void testPodaCssNoCambiaElPDF() throws Exception {
+        PodaCss poda = PodaCss.para("prueba", List.of(
+                "<table class=\"tabla datos\"><tr><td id=\"total\" th:text=\"${total}\"></td></tr></table>"));
+        assertTrue(poda.puedeAplicarse("table.tabla > tr td:first-child"));
+        assertTrue(poda.puedeAplicarse("#total::before"));
+        assertTrue(poda.puedeAplicarse("td:not(.inexistente)"));
+        assertTrue(poda.puedeAplicarse("table tbody td"), "tbody existe aunque la plantilla no lo escriba");
+        assertFalse(poda.puedeAplicarse(".tabla .inexistente"));
+        assertFalse(poda.puedeAplicarse("ul li"));
+        assertEquals("td{ color:red }@media print{table{margin:0}}@page{size:A4}",
+                poda.podar("td, ul { color:red } .otra{x:y} @media print { table{margin:0} li{a:b} } "
+                        + "@media screen { li{a:b} } @page{size:A4}"));
+        assertFalse(PodaCss.para("dinamica", List.of("<td th:classappend=\"${clase}\"></td>")).isActiva(),
+                "Con clases dinámicas no se poda");
+        assertFalse(PodaCss.para("dinamica", List.of("<div th:replace=\"${fragmento} :: .aviso\"></div>")).isActiva(),
+                "Con un fragmento de nombre dinámico, aun sin ~{}, no se poda");
+        assertTrue(PodaCss.para("literal", List.of("<div th:insert=\"fragments/header :: .aviso\"></div>",
+                "<div th:replace=\"~{:: .aviso}\"></div>")).isActiva(),
+                "Un selector literal sobre un fragmento conocido no impide la poda");
+        
+        List<String> plantillas;
+        try (Stream<Path> archivos = Files.list(Paths.get("src/main/resources/templates"))) {
+            plantillas = archivos.map(archivo -> archivo.getFileName().toString())
+                    .filter(nombre -> nombre.endsWith(".html"))
+                    .map(nombre -> nombre.substring(0, nombre.length() - ".html".length()))
+                    .sorted()
+                    .toList();
+        }
+        assertFalse(plantillas.isEmpty());
+        
+        GeneradorReportesPDF verificando = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .podaCss(PodaCss.Modo.VERIFICACION)
+                .build());
+        GeneradorReportesPDF podando = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .podaCss(PodaCss.Modo.ACTIVA)
+                .build());
+        GeneradorReportesPDF sinPoda = new GeneradorReportesPDF();
+        assertNull(sinPoda.podaPara("reporte-posiciones"), "La poda está desactivada por defecto");
+        for (String plantilla : plantillas) {
+            Map<String, Object> datos = CalentadorPlantillas.datosSinteticos(plantilla);
+            byte[] verificado = verificando.generarPDF(plantilla, datos);
+            
+            PodaCss podaPlantilla = verificando.podaPara(plantilla);
+            assertTrue(podaPlantilla.isActiva(), plantilla);
+            assertEquals(1, podaPlantilla.getVerificaciones(), plantilla);
+            assertEquals(0, podaPlantilla.getDiferencias(), "El PDF con poda debe ser idéntico al PDF sin poda: " + plantilla);
+            assertTrue(podaPlantilla.getSelectoresPodados() > 0, plantilla);
+            
+            byte[] esperado = sinMarcasDeTiempo(sinPoda.generarPDF(plantilla, datos));
+            assertArrayEquals(esperado, sinMarcasDeTiempo(verificado), plantilla);
+            assertArrayEquals(esperado, sinMarcasDeTiempo(podando.generarPDF(plantilla, datos)), plantilla);
+        }
+        
+        PodaCss podaReporte = verificando.podaPara("reporte-posiciones");
+        assertTrue(podaReporte.getSelectoresPodados() > podaReporte.getSelectoresRevisados() / 4,
+                "Buena parte de los selectores de base-styles no aplican al reporte");
+        
+        System.out.println("✓ Prueba unitaria poda de CSS: EXITOSA");
+        System.out.printf("  %d plantillas verificadas; selectores podados en reporte-posiciones: %d de %d%n",
+                plantillas.size(), podaReporte.getSelectoresPodados(), podaReporte.getSelectoresRevisados());
+    }
+
+    /**
+     * Prueba unitaria: Generación directa a un destino, en S3 con subida
+     * multiparte (contra un S3 en memoria) y en un directorio local
+     * Si la generación o una subida fallan, el destino no conserva el documento
+     */
+    @Test
+    void testGenerarPDFEnDestinoS3YArchivo() throws Exception {
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearReportePosiciones(300));
+        S3EnMemoria s3 = new S3EnMemoria(8 * 1024);
+        DestinoS3 destino = new DestinoS3(s3, "reportes", "emisnet/", 8 * 1024, 2,
+                tarea -> Thread.ofVirtual().start(tarea), 8 * 1024);
+
+        String ubicacion = generadorPDF.generarPDF("reporte-posiciones", datos, destino, "posiciones.pdf");
+        byte[] esperado = generadorPDF.generarPDF("reporte-posiciones", datos);
+
+        assertEquals("s3://reportes/emisnet/posiciones.pdf", ubicacion);
+        assertEquals(1, s3.multipartesIniciadas.get(), "Un PDF de varias partes debe subirse en multiparte");
+        assertTrue(s3.partesSubidas.get() > 2, "El PDF debe subirse en varias partes");
+        assertArrayEquals(sinMarcasDeTiempo(esperado),
+                sinMarcasDeTiempo(s3.objetos.get("reportes/emisnet/posiciones.pdf")),
+                "El objeto subido debe ser el mismo PDF");
+
+        // Un PDF que cabe en una parte se sube con un único PutObject
+        Map<String, Object> aviso = new HashMap<>();
+        aviso.put("fechaGeneracion", "15/01/2024");
+        aviso.put("claveCotizacion", "ACTINVER");
+        generadorPDF.generarPDF("aviso-extemporaneidad", aviso,
+                new DestinoS3(s3, "reportes", "", 1024 * 1024, 2, Runnable::run, 8 * 1024), "aviso.pdf");
+        assertEquals(1, s3.multipartesIniciadas.get(), "Un PDF de una parte no debe iniciar una multiparte");
+        assertTrue(new String(s3.objetos.get("reportes/aviso.pdf"), 0, 5).startsWith("%PDF-"));
+
+        // Falla la subida de una parte: la multiparte se aborta y no queda el objeto
+        s3.fallarEnParte = 2;
+        assertThrows(IOException.class,
+                () -> generadorPDF.generarPDF("reporte-posiciones", datos, destino, "fallido.pdf"));
+        assertFalse(s3.objetos.containsKey("reportes/emisnet/fallido.pdf"), "No debe quedar un objeto parcial");
+        assertEquals(1, s3.abortadas.get(), "La subida multiparte debe abortarse");
+        assertTrue(s3.subidas.isEmpty(), "No deben quedar subidas pendientes");
+
+        // Una escritura abortada no admite más datos ni confirmarse
+        DestinoPDF.Escritura abortada = destino.abrir("abortado.pdf");
+        abortada.write(new byte[]{'%', 'P', 'D', 'F'});
+        abortada.abortar();
+        assertThrows(IllegalStateException.class, () -> abortada.write('x'));
+        assertThrows(IllegalStateException.class, abortada::confirmar);
+        assertFalse(s3.objetos.containsKey("reportes/emisnet/abortado.pdf"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new DestinoS3(s3, "reportes", "", 1024 * 1024, 2, Runnable::run),
+                "S3 no admite partes de menos de 5 MB");
+
+        // Directorio local: el archivo aparece completo al confirmar y nada queda si falla
+        DestinoArchivo directorio = new DestinoArchivo(tempDir.resolve("destino"));
+        String ruta = generadorPDF.generarPDF("reporte-posiciones", datos, directorio, "2024/posiciones.pdf");
+        assertArrayEquals(sinMarcasDeTiempo(esperado), sinMarcasDeTiempo(Files.readAllBytes(Path.of(ruta))),
+                "El archivo debe contener el mismo PDF");
+        assertThrows(Exception.class,
+                () -> generadorPDF.generarPDF("plantilla-inexistente", datos, directorio, "2024/fallido.pdf"));
+        try (var archivos = Files.list(tempDir.resolve("destino/2024"))) {
+            assertEquals(List.of("posiciones.pdf"), archivos.map(archivo -> archivo.getFileName().toString()).toList(),
+                    "Un documento fallido no debe dejar archivos en el destino");
+        }
+        assertThrows(IllegalArgumentException.class, () -> directorio.abrir("../fuera.pdf"));
+
+        System.out.println("✓ Prueba unitaria generación en destino S3 y archivo: EXITOSA");
+        System.out.println("  Partes subidas: " + s3.partesSubidas.get());
+    }
+
+    /**
+     * Prueba unitaria: Compendio de documentos independientes en un único PDF
+     * Los recursos repetidos se escriben una vez y cada documento tiene su marcador
+     */
+    @Test
+    void testGenerarCompendio() throws Exception {
+        Map<String, Object> confirmacion = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        Map<String, Object> aviso = new HashMap<>();
+        aviso.put("fechaGeneracion", "15/01/2024");
+        aviso.put("claveCotizacion", "ACTINVER");
+        
+        List<TrabajoPDF> trabajos = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            trabajos.add(i % 3 == 0 ? new TrabajoPDF("aviso-extemporaneidad", aviso)
+                    : new TrabajoPDF("confirmacion-envio", confirmacion));
+        }
+        
+        long sumaIndividuales = 0;
+        int paginasIndividuales = 0;
+        for (TrabajoPDF trabajo : trabajos) {
+            byte[] pdf = generadorPDF.generarPDF(trabajo.nombrePlantilla(), trabajo.datos());
+            sumaIndividuales += pdf.length;
+            PdfReader lector = new PdfReader(pdf);
+            paginasIndividuales += lector.getNumberOfPages();
+            lector.close();
+        }
+        
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        int[] numero = {0};
+        int documentos = generadorPDF.generarCompendio(trabajos.iterator(),
+                trabajo -> ++numero[0] + ". " + trabajo.nombrePlantilla(), salida);
+        
+        assertEquals(trabajos.size(), documentos);
+        PdfReader compendio = new PdfReader(salida.toByteArray());
+        assertEquals(paginasIndividuales, compendio.getNumberOfPages(), "El compendio debe tener todas las páginas");
+        List<Map<String, Object>> marcadores = SimpleBookmark.getBookmarkList(compendio);
+        assertEquals(trabajos.size(), marcadores.size(), "Cada documento debe tener su marcador");
+        assertEquals("1. aviso-extemporaneidad", marcadores.get(0).get("Title"));
+        assertEquals("2. confirmacion-envio", marcadores.get(1).get("Title"));
+        assertTrue(((String) marcadores.get(29).get("Page")).startsWith(compendio.getNumberOfPages() + " "),
+                "El último marcador debe apuntar a la última página");
+        compendio.close();
+        assertTrue(salida.size() < sumaIndividuales / 2,
+                "Los recursos compartidos deben escribirse una sola vez: " + salida.size() + " de " + sumaIndividuales);
+        
+        System.out.println("✓ Prueba unitaria compendio: EXITOSA");
+        System.out.println("  Compendio: " + salida.size() + " bytes; documentos por separado: " + sumaIndividuales);
+    }
+
+    /**
+     * Prueba unitaria: Perfiles de salida
+     * COMPACTO produce el PDF más pequeño, RAPIDO el más grande, con el mismo contenido
+     */
+    @Test
+    void testPerfilesSalida() throws Exception {
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearReportePosiciones(300));
+        Map<String, Object> confirmacion = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        
+        byte[] porDefecto = generadorPDF.generarPDF("reporte-posiciones", datos);
+        byte[] estandar = generadorPDF.generarPDF("reporte-posiciones", datos, PerfilSalida.ESTANDAR);
+        byte[] rapido = generadorPDF.generarPDF("reporte-posiciones", datos, PerfilSalida.RAPIDO);
+        byte[] compacto = generadorPDF.generarPDF("reporte-posiciones", datos, PerfilSalida.COMPACTO);
+        
+        assertArrayEquals(sinMarcasDeTiempo(porDefecto), sinMarcasDeTiempo(estandar),
+                "Sin perfil en la plantilla ni en la configuración se usa ESTANDAR");
+        assertTrue(compacto.length < estandar.length && estandar.length < rapido.length,
+                "Tamaños esperados COMPACTO < ESTANDAR < RAPIDO: " + compacto.length + ", " + estandar.length
+                        + ", " + rapido.length);
+        assertTrue(new String(compacto, 0, 8, StandardCharsets.ISO_8859_1).startsWith("%PDF-1.5"),
+                "La compresión completa requiere PDF 1.5");
+        for (byte[] pdf : List.of(rapido, compacto)) {
+            PdfReader lector = new PdfReader(pdf);
+            PdfReader referencia = new PdfReader(estandar);
+            assertEquals(referencia.getNumberOfPages(), lector.getNumberOfPages());
+            assertEquals(new PdfTextExtractor(referencia).getTextFromPage(1), new PdfTextExtractor(lector).getTextFromPage(1),
+                    "El perfil no debe cambiar el contenido");
+            lector.close();
+            referencia.close();
+        }
+        
+        // El logo JPEG se recomprime en COMPACTO
+        byte[] confirmacionEstandar = generadorPDF.generarPDF("confirmacion-envio", confirmacion);
+        byte[] confirmacionCompacta = generadorPDF.generarPDF("confirmacion-envio", confirmacion, PerfilSalida.COMPACTO);
+        assertTrue(confirmacionCompacta.length < confirmacionEstandar.length);
+        
+        // Perfil declarado por la plantilla, sustituible por uno explícito
+        Document documento = XMLResource.load(new StringReader(
+                "<html><head><meta name=\"perfil-pdf\" content=\"rapido\"/></head><body></body></html>")).getDocument();
+        assertEquals(PerfilSalida.RAPIDO, PerfilSalida.de(documento, PerfilSalida.ESTANDAR));
+        PerfilSalida.fijar(documento, PerfilSalida.COMPACTO);
+        assertEquals(PerfilSalida.COMPACTO, PerfilSalida.de(documento, PerfilSalida.ESTANDAR));
+        Document sinPerfil = XMLResource.load(new StringReader("<html><body></body></html>")).getDocument();
+        assertEquals(PerfilSalida.ESTANDAR, PerfilSalida.de(sinPerfil, PerfilSalida.ESTANDAR));
+        PerfilSalida.fijar(sinPerfil, PerfilSalida.RAPIDO);
+        assertEquals(PerfilSalida.RAPIDO, PerfilSalida.de(sinPerfil, PerfilSalida.ESTANDAR));
+        
+        System.out.println("✓ Prueba unitaria perfiles de salida: EXITOSA");
+        System.out.printf("  reporte-posiciones: RAPIDO %d, ESTANDAR %d, COMPACTO %d bytes%n",
+                rapido.length, estandar.length, compacto.length);
+        System.out.printf("  confirmacion-envio: ESTANDAR %d, COMPACTO %d bytes%n",
+                confirmacionEstandar.length, confirmacionCompacta.length);
+    }
+
+    /**
+     * Prueba unitaria: Membrete estampado
+     * Por defecto sólo la primera página lleva el membrete, como el header del
+     * HTML; con membreteEnTodasLasPaginas todas referencian el mismo form
+     * XObject. El membrete tiene el ancho de su hoja y el logo se escribe una
+     * sola vez por documento
+     */
+    @Test
+    void testMembreteEstampado() throws Exception {
+        Map<String, Object> datos = ObjectToMapConverter.convertToMap(crearReportePosiciones(300));
+        Map<String, Object> confirmacion = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        
+        for (boolean todasLasPaginas : new boolean[]{false, true}) {
+            SimpleMeterRegistry registro = new SimpleMeterRegistry();
+            GeneradorReportesPDF generadorMembrete = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                    .membreteEstampado(true)
+                    .membreteEnTodasLasPaginas(todasLasPaginas)
+                    .registroMetricas(registro)
+                    .build());
+            
+            for (String plantilla : List.of("reporte-posiciones", "confirmacion-envio")) {
+                Map<String, Object> datosPlantilla = plantilla.equals("confirmacion-envio") ? confirmacion : datos;
+                byte[] pdf = generadorMembrete.generarPDF(plantilla, datosPlantilla);
+                float margen = margenMembrete(generadorMembrete, plantilla, datosPlantilla);
+                PdfReader lector = new PdfReader(pdf);
+                if (!todasLasPaginas) {
+                    PdfReader sinMembrete = new PdfReader(generadorPDF.generarPDF(plantilla, datosPlantilla));
+                    assertEquals(sinMembrete.getNumberOfPages(), lector.getNumberOfPages(),
+                            "Con el membrete sólo en la primera página, el contenido debe ocupar las mismas páginas");
+                    sinMembrete.close();
+                }
+                
+                Set<Integer> membretes = new HashSet<>();
+                for (int pagina = 1; pagina <= lector.getNumberOfPages(); pagina++) {
+                    PdfDictionary xobjetos = lector.getPageN(pagina).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+                    boolean estampada = false;
+                    for (PdfName nombre : xobjetos == null ? Set.<PdfName>of() : xobjetos.getKeys()) {
+                        PdfIndirectReference referencia = (PdfIndirectReference) xobjetos.get(nombre);
+                        PdfStream xobjeto = (PdfStream) PdfReader.getPdfObject(referencia);
+                        if (PdfName.FORM.equals(xobjeto.getAsName(PdfName.SUBTYPE))) {
+                            estampada = true;
+                            membretes.add(referencia.getNumber());
+                            assertEquals(lector.getPageSize(pagina).getWidth(),
+                                    xobjeto.getAsArray(PdfName.BBOX).getAsNumber(2).floatValue(), 0.5f,
+                                    "El membrete debe tener el ancho de la hoja");
+                            assertEquals(margen, xobjeto.getAsArray(PdfName.BBOX).getAsNumber(3).floatValue(), 0.5f,
+                                    "El margen reservado debe ser el alto del membrete medido a ese ancho");
+                        }
+                    }
+                    assertEquals(todasLasPaginas || pagina == 1, estampada,
+                            "Membrete en la página " + pagina + " de " + plantilla);
+                }
+                assertEquals(1, membretes.size(), "Todas las páginas deben referenciar el mismo membrete");
+                
+                int imagenes = 0;
+                for (int objeto = 1; objeto < lector.getXrefSize(); objeto++) {
+                    if (lector.getPdfObject(objeto) instanceof PdfStream stream
+                            && PdfName.IMAGE.equals(stream.getAsName(PdfName.SUBTYPE))) {
+                        imagenes++;
+                    }
+                }
+                assertEquals(1, imagenes, "El logo debe escribirse una sola vez");
+                System.out.println("  " + plantilla + (todasLasPaginas ? " (todas las páginas): " : ": ")
+                        + lector.getNumberOfPages() + " páginas, " + pdf.length + " bytes");
+                lector.close();
+            }
+            
+            assertTrue(registro.find("pdf.generacion.fase").tag("plantilla", MembreteEstampado.PLANTILLA).meters().isEmpty(),
+                    "El membrete no debe medirse como un documento");
+        }
+        
+        System.out.println("✓ Prueba unitaria membrete estampado: EXITOSA");
+    }
+
+    /**
+     * Margen superior que el generador reserva para el membrete en los documentos de una plantilla
+     */
+    private static float margenMembrete(GeneradorReportesPDF generador, String plantilla, Map<String, Object> datos) {
+        Document documento = generador.construirDocumento(plantilla, GeneradorReportesPDF.crearContexto(datos));
+        NodeList estilos = documento.getElementsByTagName("style");
+        Matcher margen = Pattern.compile("margin-top: ([\\d.]+)pt")
+                .matcher(estilos.item(estilos.getLength() - 1).getTextContent());
+        assertTrue(margen.find(), "El documento debe reservar el margen del membrete");
+        return Float.parseFloat(margen.group(1));
+    }
+
+    /**
+     * Prueba unitaria: Pool de buffers de salida
+     * Tras los primeros documentos de cada plantilla y cardinalidad los buffers
+     * salen del pool, ya dimensionados, sin cambiar el PDF
+     */
+    @Test
+    void testPoolBuffersSalida() throws Exception {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        GeneradorReportesPDF generadorPool = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .registroMetricas(registro)
+                .build());
+        PoolBuffersSalida pool = generadorPool.getPoolBuffers();
+        Map<String, Object> confirmacion = ObjectToMapConverter.convertToMap(crearConfirmacionEnvio());
+        Map<String, Object> reporteCorto = ObjectToMapConverter.convertToMap(crearReportePosiciones(20));
+        Map<String, Object> reporteLargo = ObjectToMapConverter.convertToMap(crearReportePosiciones(300));
+        
+        // Distinta cardinalidad de datos, distinta estimación
+        assertTrue(PoolBuffersSalida.cardinalidad(GeneradorReportesPDF.crearContexto(reporteLargo))
+                > PoolBuffersSalida.cardinalidad(GeneradorReportesPDF.crearContexto(reporteCorto)));
+        
+        // Aprendizaje: dos documentos por plantilla y cardinalidad
+        byte[] referencia = null;
+        for (int i = 0; i < 2; i++) {
+            generadorPool.generarPDF("confirmacion-envio", confirmacion);
+            generadorPool.generarPDF("reporte-posiciones", reporteCorto);
+            referencia = generadorPool.generarPDF("reporte-posiciones", reporteLargo);
+        }
+        long aciertos = pool.getAciertos();
+        long crecimientos = pool.getCrecimientos();
+        long desperdicio = pool.getCapacidadDesperdiciada();
+        
+        long generados = 0;
+        for (int i = 0; i < 5; i++) {
+            generados += generadorPool.generarPDF("confirmacion-envio", confirmacion).length;
+            generados += generadorPool.generarPDF("reporte-posiciones", reporteCorto).length;
+            byte[] pdf = generadorPool.generarPDF("reporte-posiciones", reporteLargo);
+            generados += pdf.length;
+            assertArrayEquals(sinMarcasDeTiempo(referencia), sinMarcasDeTiempo(pdf), "El pool no debe cambiar el PDF");
+        }
+        assertEquals(aciertos + 15, pool.getAciertos(), "Con la estimación aprendida los buffers deben salir del pool");
+        assertEquals(crecimientos, pool.getCrecimientos(), "Ningún buffer debe crecer con la estimación aprendida");
+        long desperdicioNuevo = pool.getCapacidadDesperdiciada() - desperdicio;
+        assertTrue(desperdicioNuevo < generados / 4,
+                "La capacidad sin usar debe ser menor al 25 % de lo generado: " + desperdicioNuevo);
+        assertTrue(pool.getBytesRetenidos() > 0);
+        assertEquals(pool.getTasaAciertos(), registro.get("pdf.buffers.tasa.aciertos").gauge().value());
+        
+        // Resultado sobre el buffer del pool: se devuelve al cerrarlo
+        long retenidos = pool.getBytesRetenidos();
+        ResultadoPDF resultado = generadorPool.generarPDFEnBuffer("reporte-posiciones", reporteLargo);
+        assertTrue(pool.getBytesRetenidos() < retenidos, "El buffer prestado no debe contar como retenido");
+        assertArrayEquals(sinMarcasDeTiempo(referencia), sinMarcasDeTiempo(resultado.getBytes()));
+        ByteArrayOutputStream copia = new ByteArrayOutputStream();
+        resultado.escribirEn(copia);
+        assertEquals(resultado.getTamano(), copia.size());
+        resultado.close();
+        assertEquals(retenidos, pool.getBytesRetenidos(), "El buffer debe volver al pool al cerrar el resultado");
+        assertThrows(IllegalStateException.class, resultado::getBytes, "El resultado cerrado no debe leerse");
+        
+        // Un stream abierto antes de cerrar el resultado retiene el buffer hasta cerrarse
+        resultado = generadorPool.generarPDFEnBuffer("reporte-posiciones", reporteLargo);
+        InputStream stream = resultado.abrirStream();
+        long devueltos = pool.getDocumentos();
+        resultado.close();
+        assertEquals(devueltos, pool.getDocumentos(), "El buffer no debe volver al pool con un stream abierto");
+        assertThrows(IllegalStateException.class, resultado::abrirStream);
+        generadorPool.generarPDF("reporte-posiciones", reporteLargo);
+        assertArrayEquals(sinMarcasDeTiempo(referencia), sinMarcasDeTiempo(stream.readAllBytes()),
+                "El stream debe leer su PDF aunque el pool preste otros buffers");
+        stream.close();
+        stream.close();
+        assertEquals(devueltos + 2, pool.getDocumentos(), "El buffer debe volver al pool al cerrar el último stream");
+        
+        // Métricas por generador sobre un registro compartido, retiradas al cerrarlo
+        GeneradorReportesPDF otroGenerador = new GeneradorReportesPDF(ConfiguracionGenerador.builder()
+                .registroMetricas(registro)
+                .build());
+        assertEquals(2, registro.find("pdf.buffers.tasa.aciertos").gauges().size());
+        assertEquals(pool.getTasaAciertos(), registro.get("pdf.buffers.tasa.aciertos")
+                .tag("generador", generadorPool.getNombre()).gauge().value());
+        otroGenerador.cerrar();
+        assertNull(registro.find("pdf.buffers.retenidos").tag("generador", otroGenerador.getNombre()).gauge());
+        assertNotNull(registro.find("pdf.buffers.retenidos").tag("generador", generadorPool.getNombre()).gauge());
+        generadorPool.cerrar();
+        assertTrue(registro.find("pdf.buffers.crecimientos").functionCounters().isEmpty());
+        
+        System.out.println("✓ Prueba unitaria pool de buffers de salida: EXITOSA");
+        System.out.printf("  Aciertos: %d, fallos: %d, tasa: %.2f, desperdicio: %d de %d bytes%n",
+                pool.getAciertos(), pool.getFallos(), pool.getTasaAciertos(), desperdicioNuevo, generados);
+    }
+
+    /**
+     * S3 en memoria para las pruebas de {@link DestinoS3}: guarda los objetos y
+     * las partes de cada subida multiparte, y exige como S3 que todas las partes
+     * salvo la última tengan al menos el tamaño mínimo
+     */
+    private static final class S3EnMemoria implements S3Client {
+
+        private final int minimoParte;
+        private final Map<String, byte[]> objetos = new ConcurrentHashMap<>();
+        private final Map<String, Map<Integer, byte[]>> subidas = new ConcurrentHashMap<>();
+        private final AtomicInteger multipartesIniciadas = new AtomicInteger();
+        private final AtomicInteger partesSubidas = new AtomicInteger();
+        private final AtomicInteger abortadas = new AtomicInteger();
+        private volatile int fallarEnParte = -1;
+
+        private S3EnMemoria(int minimoParte) {
+            this.minimoParte = minimoParte;
+        }
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest solicitud, RequestBody cuerpo) {
+            objetos.put(solicitud.bucket() + "/" + solicitud.key(), leer(cuerpo));
+            return PutObjectResponse.builder().build();
+        }
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest solicitud) {
+            String id = UUID.randomUUID().toString();
+            subidas.put(id, new ConcurrentSkipListMap<>());
+            multipartesIniciadas.incrementAndGet();
+            return CreateMultipartUploadResponse.builder().uploadId(id).build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest solicitud, RequestBody cuerpo) {
+            if (solicitud.partNumber() == fallarEnParte) {
+                throw S3Exception.builder().statusCode(500).message("Fallo simulado").build();
+            }
+            Map<Integer, byte[]> partes = subidas.get(solicitud.uploadId());
+            if (partes == null) {
+                throw NoSuchUploadException.builder().message(solicitud.uploadId()).build();
+            }
+            partes.put(solicitud.partNumber(), leer(cuerpo));
+            partesSubidas.incrementAndGet();
+            return UploadPartResponse.builder().eTag("\"" + solicitud.partNumber() + "\"").build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest solicitud) {
+            Map<Integer, byte[]> partes = subidas.remove(solicitud.uploadId());
+            List<CompletedPart> completadas = solicitud.multipartUpload().parts();
+            if (partes == null || partes.size() != completadas.size()) {
+                throw S3Exception.builder().statusCode(400).message("InvalidPart").build();
+            }
+            ByteArrayOutputStream objeto = new ByteArrayOutputStream();
+            for (int i = 0; i < completadas.size(); i++) {
+                byte[] parte = partes.get(completadas.get(i).partNumber());
+                if (parte == null || i < completadas.size() - 1 && parte.length < minimoParte) {
+                    throw S3Exception.builder().statusCode(400).message("EntityTooSmall").build();
+                }
+                objeto.writeBytes(parte);
+            }
+            objetos.put(solicitud.bucket() + "/" + solicitud.key(), objeto.toByteArray());
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest solicitud) {
+            subidas.remove(solicitud.uploadId());
+            abortadas.incrementAndGet();
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static byte[] leer(RequestBody cuerpo) {
+            try (InputStream entrada = cuerpo.contentStreamProvider().newStream()) {
+                return entrada.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
     
 }
@@ -0,0 +1,140 @@
+package com.bmv.emisnet.pdfgenerator.service;
+
+import com.bmv.emisnet.pdfgenerator.model.AvisoExtemporaneidadTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas unitarias para ObjectToMapConverter
+ *
+ * Verifican que la conversión con planes de acceso cacheados conserva el
+ * comportamiento de la conversión por reflexión directa.
+ */
+class ObjectToMapConverterTest {
+
+    /**
+     * Prueba unitaria: Conversión de campos propios y exclusiones
+     */
+    @Test
+    void testConvertToMapYExcluyendo() {
+        AvisoExtemporaneidadTest aviso = new AvisoExtemporaneidadTest();
+        aviso.setClaveCotizacion("ACTINVER");
+        aviso.setRazonSocial("ACTINVER CASA DE BOLSA, S.A. DE C.V.");
+
+        Map<String, Object> mapa = ObjectToMapConverter.convertToMap(aviso);
+        assertEquals("ACTINVER", mapa.get("claveCotizacion"));
+        assertTrue(mapa.containsKey("observaciones"), "Los campos nulos también deben incluirse");
+
+        Map<String, Object> sinRazonSocial = ObjectToMapConverter.convertToMapExcluding(aviso, "razonSocial", "razonSocial");
+        assertFalse(sinRazonSocial.containsKey("razonSocial"), "El campo excluido no debe incluirse");
+        assertEquals(mapa.size() - 1, sinRazonSocial.size());
+
+        assertTrue(ObjectToMapConverter.convertToMap(null).isEmpty());
+
+        System.out.println("✓ Prueba unitaria convertToMap y exclusiones: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Conversión con herencia
+     * Un campo homónimo de la superclase prevalece, igual que con la reflexión directa
+     */
+    @Test
+    void testConvertToMapIncludingInheritance() {
+        Hija hija = new Hija();
+
+        Map<String, Object> soloPropios = ObjectToMapConverter.convertToMap(hija);
+        assertEquals(Set.of("nombre", "edad"), soloPropios.keySet());
+        assertEquals("hija", soloPropios.get("nombre"));
+
+        Map<String, Object> conHerencia = ObjectToMapConverter.convertToMapIncludingInheritance(hija);
+        assertEquals(Set.of("nombre", "edad", "apellido"), conHerencia.keySet());
+        assertEquals("madre", conHerencia.get("nombre"));
+        assertEquals(7, conHerencia.get("edad"));
+
+        System.out.println("✓ Prueba unitaria convertToMapIncludingInheritance: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: El plan de acceso se calcula una vez por clase y opciones
+     */
+    @Test
+    void testPlanAccesoReutilizado() {
+        assertSame(ObjectToMapConverter.planPara(Hija.class, true, Set.of()),
+                ObjectToMapConverter.planPara(Hija.class, true, Set.of()));
+        assertNotSame(ObjectToMapConverter.planPara(Hija.class, true, Set.of()),
+                ObjectToMapConverter.planPara(Hija.class, false, Set.of()));
+
+        // Las exclusiones se filtran del plan completo, sin cachear un plan por conjunto
+        ObjectToMapConverter.PlanAcceso completo = ObjectToMapConverter.planPara(Hija.class, true, Set.of());
+        assertSame(completo, ObjectToMapConverter.planPara(Hija.class, true, Set.of("inexistente")));
+        ObjectToMapConverter.PlanAcceso sinCampo = ObjectToMapConverter.planPara(Hija.class, true,
+                Set.of(completo.nombresOrdenados()[0]));
+        assertEquals(completo.nombres().size() - 1, sinCampo.nombres().size());
+        assertFalse(sinCampo.contiene(completo.nombresOrdenados()[0]));
+
+        System.out.println("✓ Prueba unitaria reutilización de planes: EXITOSA");
+    }
+
+    /**
+     * Prueba unitaria: Tabla por columnas desde una lista de POJOs
+     * Las filas se leen como mapas y el iterador reutiliza una sola vista
+     */
+    @Test
+    void testConvertToColumnar() {
+        List<Fila> filas = List.of(new Fila("A", 1, 10L), new Fila("B", null, null), new Fila("A", 3, 30L));
+
+        TablaColumnar tabla = ObjectToMapConverter.convertToColumnar(filas);
+        assertEquals(3, tabla.size());
+        assertEquals(List.of("clave", "cantidad", "monto"), tabla.getColumnas());
+        for (int i = 0; i < filas.size(); i++) {
+            assertEquals(ObjectToMapConverter.convertToMap(filas.get(i)), tabla.get(i),
+                    "Cada fila debe equivaler al mapa del POJO");
+        }
+        assertNull(tabla.get(1).get("cantidad"));
+        assertFalse(tabla.get(0).containsKey("inexistente"));
+
+        Iterator<Map<String, Object>> iterador = tabla.iterator();
+        Map<String, Object> primera = iterador.next();
+        assertEquals(1, primera.get("cantidad"));
+        assertSame(primera, iterador.next(), "El iterador debe reutilizar la vista de fila");
+        assertNull(primera.get("cantidad"));
+
+        TablaColumnar tramo = tabla.subList(1, 3);
+        assertEquals(2, tramo.size());
+        assertEquals("A", tramo.get(1).get("clave"));
+        assertEquals(30L, tramo.get(1).get("monto"));
+
+        TablaColumnar cajas = ObjectToMapConverter.convertToColumnar(
+                List.of(new Fila("A", 1000, 1000L), new Fila("B", 1000, 1000L), new Fila("C", 5000, 5000L)));
+        assertSame(cajas.get(0).get("cantidad"), cajas.get(1).get("cantidad"),
+                "Los enteros pequeños deben salir de cajas compartidas");
+        assertSame(cajas.get(0).get("monto"), cajas.get(1).get("monto"));
+        assertEquals(5000, cajas.get(2).get("cantidad"));
+        assertEquals(5000L, cajas.get(2).get("monto"));
+
+        assertTrue(ObjectToMapConverter.convertToColumnar(List.of()).isEmpty());
+        assertThrows(IllegalArgumentException.class,
+                () -> ObjectToMapConverter.convertToColumnar(List.of(new Fila("A", 1, 1L), new Hija())));
+
+        System.out.println("✓ Prueba unitaria convertToColumnar: EXITOSA");
+    }
+
+    record Fila(String clave, Integer cantidad, Long monto) {
+    }
+
+    static class Madre {
+        private String nombre = "madre";
+        private String apellido = "apellido";
+    }
+
+    static class Hija extends Madre {
+        private String nombre = "hija";
+        private int edad = 7;
+    }
+}